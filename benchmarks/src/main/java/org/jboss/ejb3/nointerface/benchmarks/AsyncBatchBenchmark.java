@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.nointerface.impl.async.AsyncBatch;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.proxy.javassist.JavassistProxyFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares fanning out 500 @Asynchronous calls one by one with submitting them as an {@link AsyncBatch},
+ * from several threads sharing the view. The calls are run on an executor of the deployment (see
+ * {@link ExecutorAsyncDispatcher}), with a concurrency limit, and each operation waits for all its calls
+ * to complete.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AsyncBatchBenchmark
+{
+
+   private static final int FAN_OUT = 500;
+
+   @Param(
+   {"64", "0"})
+   private int maxConcurrentInvocations;
+
+   private ExecutorService executor;
+
+   private CalculatorBean view;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      this.executor = Executors.newFixedThreadPool(8);
+      KernelControllerContext context = BenchmarkViews.createEndpointContext("BatchCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), false));
+      NoInterfaceViewInvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(context, null,
+            CalculatorBean.class, BenchmarkViews.createAsyncMethods(CalculatorBean.class));
+      invocationHandler.setAsyncExecutorDispatcher(new ExecutorAsyncDispatcher(this.executor,
+            this.maxConcurrentInvocations));
+      this.view = CalculatorBean.class.cast(new JavassistProxyFactory().createProxy(new Class<?>[]
+      {CalculatorBean.class}, invocationHandler));
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      this.executor.shutdownNow();
+   }
+
+   @Benchmark
+   public int individual() throws Exception
+   {
+      List<Future<Integer>> futures = new ArrayList<Future<Integer>>(FAN_OUT);
+      for (int i = 0; i < FAN_OUT; i++)
+      {
+         futures.add(this.view.asyncAdd(i, 1));
+      }
+      int sum = 0;
+      for (Future<Integer> future : futures)
+      {
+         sum += future.get();
+      }
+      return sum;
+   }
+
+   @Benchmark
+   public int batched() throws Exception
+   {
+      AsyncBatch batch = AsyncBatch.on(this.view);
+      List<Future<?>> futures;
+      try
+      {
+         for (int i = 0; i < FAN_OUT; i++)
+         {
+            this.view.asyncAdd(i, 1);
+         }
+         futures = batch.submit();
+      }
+      finally
+      {
+         batch.discard();
+      }
+      int sum = 0;
+      for (Future<?> future : futures)
+      {
+         sum += (Integer) future.get();
+      }
+      return sum;
+   }
+}
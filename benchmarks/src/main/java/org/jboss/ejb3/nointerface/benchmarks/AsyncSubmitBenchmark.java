@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the submit latency of a fire-and-forget (<code>void</code>) @Asynchronous call through
+ * a single no-interface view shared by several threads, i.e. the client side of the asynchronous
+ * dispatch under contention. The {@link InMemoryEndpoint} runs the call on the submitting thread
+ * and does nothing else, so the measured time is the one of the view.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AsyncSubmitBenchmark
+{
+
+   private CalculatorBean view;
+
+   private String message = "hello";
+
+   @Setup
+   public void setup() throws Exception
+   {
+      KernelControllerContext context = BenchmarkViews.createEndpointContext("AsyncCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), false));
+      this.view = BenchmarkViews.createView(CalculatorBean.class, context, null);
+   }
+
+   @Benchmark
+   public void fireAndForget()
+   {
+      this.view.fireAndForget(this.message);
+   }
+}
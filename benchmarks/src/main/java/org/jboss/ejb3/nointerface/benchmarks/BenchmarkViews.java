@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+
+import javax.ejb.Asynchronous;
+
+import org.jboss.beans.metadata.spi.builder.BeanMetaDataBuilder;
+import org.jboss.ejb3.endpoint.Endpoint;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.proxy.javassist.JavassistProxyFactory;
+import org.jboss.kernel.Kernel;
+import org.jboss.kernel.plugins.bootstrap.basic.BasicBootstrap;
+import org.jboss.kernel.plugins.dependency.AbstractKernelControllerContext;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+
+/**
+ * Builds no-interface views outside of MC, the same way the JNDI binders do,
+ * against an in-memory {@link Endpoint}.
+ *
+ * @version $Revision: $
+ */
+public final class BenchmarkViews
+{
+
+   /**
+    * MC kernel, booted on first use, in which endpoints can be installed
+    */
+   private static Kernel kernel;
+
+   private BenchmarkViews()
+   {
+      // utility class
+   }
+
+   /**
+    * Installs <code>endpoint</code> in a (real) MC kernel and returns its INSTALLED context.
+    * To be used when the code being measured goes through the MC controller.
+    *
+    * @param name The name of the MC bean
+    * @param endpoint The endpoint
+    * @return
+    * @throws Throwable
+    */
+   public static synchronized KernelControllerContext installEndpoint(String name, Endpoint endpoint)
+         throws Throwable
+   {
+      if (kernel == null)
+      {
+         BasicBootstrap bootstrap = new BasicBootstrap();
+         bootstrap.run();
+         kernel = bootstrap.getKernel();
+      }
+      return kernel.getController().install(
+            BeanMetaDataBuilder.createBuilder(name, endpoint.getClass().getName()).getBeanMetaData(), endpoint);
+   }
+
+   /**
+    * Returns a {@link KernelControllerContext} whose target is the passed <code>endpoint</code>
+    *
+    * @param name The name of the context
+    * @param endpoint The endpoint
+    * @return
+    */
+   public static KernelControllerContext createEndpointContext(String name, Endpoint endpoint)
+   {
+      return new AbstractKernelControllerContext(null, BeanMetaDataBuilder.createBuilder(name,
+            endpoint.getClass().getName()).getBeanMetaData(), endpoint);
+   }
+
+   /**
+    * Creates the {@link AsyncMethodsMetaData} for the methods of <code>beanClass</code> marked
+    * with {@link Asynchronous}
+    *
+    * @param beanClass The bean class
+    * @return
+    */
+   public static AsyncMethodsMetaData createAsyncMethods(Class<?> beanClass)
+   {
+      AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      for (Method method : beanClass.getMethods())
+      {
+         if (!method.isAnnotationPresent(Asynchronous.class))
+         {
+            continue;
+         }
+         MethodParametersMetaData params = new MethodParametersMetaData();
+         for (Class<?> paramType : method.getParameterTypes())
+         {
+            params.add(paramType.getName());
+         }
+         AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+         asyncMethod.setMethodName(method.getName());
+         asyncMethod.setMethodParams(params);
+         asyncMethods.add(asyncMethod);
+      }
+      return asyncMethods;
+   }
+
+   /**
+    * Creates a no-interface view for <code>beanClass</code> backed by the endpoint of
+    * <code>endpointContext</code>
+    *
+    * @param beanClass The bean class
+    * @param endpointContext The endpoint context
+    * @param session The session, null for sessionless beans
+    * @return
+    * @throws Exception
+    */
+   public static <T> T createView(Class<T> beanClass, KernelControllerContext endpointContext, Serializable session)
+         throws Exception
+   {
+      NoInterfaceViewInvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(endpointContext,
+            session, beanClass, createAsyncMethods(beanClass));
+      Object view = new JavassistProxyFactory().createProxy(new Class<?>[]
+      {beanClass}, invocationHandler);
+      return beanClass.cast(view);
+   }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.Future;
+
+import javax.ejb.AsyncResult;
+import javax.ejb.Asynchronous;
+import javax.ejb.LocalBean;
+import javax.ejb.Stateless;
+
+/**
+ * A no-interface bean whose methods cover the call shapes measured by the
+ * benchmarks: small methods with primitive signatures, methods with object
+ * arguments and @Asynchronous methods.
+ *
+ * @version $Revision: $
+ */
+@Stateless
+@LocalBean
+public class CalculatorBean
+{
+
+   public int add(int a, int b)
+   {
+      return a + b;
+   }
+
+   public String echo(String message)
+   {
+      return message;
+   }
+
+   @Asynchronous
+   public void fireAndForget(String message)
+   {
+      // nothing to do
+   }
+
+   @Asynchronous
+   public Future<Integer> asyncAdd(int a, int b)
+   {
+      return new AsyncResult<Integer>(a + b);
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.ejb3.deployers.Ejb3MetadataProcessingDeployer;
+import org.jboss.ejb3.nointerface.impl.deployers.EJB3NoInterfaceDeployer;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeansMetaData;
+import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.jboss.jndipolicy.spi.DeploymentSummary;
+import org.jboss.metadata.ejb.jboss.jndipolicy.spi.PackagingType;
+import org.jboss.metadata.ejb.spec.SessionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time {@link EJB3NoInterfaceDeployer} takes to process a deployment unit of
+ * {@link #BEAN_COUNT} synthetic session beans with a no-interface view (half of them stateful),
+ * sequentially and with the parallel mode.
+ * <p>
+ * All the beans share the same bean class, so class loading is measured after the
+ * class has been loaded once.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeployerStartupBenchmark
+{
+
+   private static final int BEAN_COUNT = 1000;
+
+   @Param(
+   {"1", "4"})
+   private int parallelism;
+
+   private EJB3NoInterfaceDeployer deployer;
+
+   private DeploymentUnit unit;
+
+   @Setup
+   public void setup()
+   {
+      this.deployer = new EJB3NoInterfaceDeployer();
+      this.deployer.setParallelism(this.parallelism);
+
+      JBossMetaData metaData = new JBossMetaData();
+      DeploymentSummary summary = new DeploymentSummary();
+      summary.setDeploymentName("startup-benchmark");
+      summary.setDeploymentScopeBaseName("startup-benchmark");
+      summary.setPackagingType(PackagingType.JAR);
+      summary.setLoader(CalculatorBean.class.getClassLoader());
+      metaData.setDeploymentSummary(summary);
+      JBossEnterpriseBeansMetaData beans = new JBossEnterpriseBeansMetaData();
+      beans.setEjbJarMetaData(metaData);
+      for (int i = 0; i < BEAN_COUNT; i++)
+      {
+         JBossSessionBean31MetaData bean = new JBossSessionBean31MetaData();
+         bean.setEjbName("Calculator" + i);
+         bean.setEjbClass(CalculatorBean.class.getName());
+         bean.setSessionType(i % 2 == 0 ? SessionType.Stateless : SessionType.Stateful);
+         bean.setNoInterfaceBean(true);
+         bean.setContainerName("jboss.j2ee:jar=startup-benchmark.jar,name=Calculator" + i + ",service=EJB3");
+         bean.setEnterpriseBeansMetaData(beans);
+         beans.add(bean);
+      }
+      metaData.setEnterpriseBeans(beans);
+
+      AbstractDeploymentContext context = new AbstractDeploymentContext("startup-benchmark.jar", "");
+      context.setClassLoader(CalculatorBean.class.getClassLoader());
+      this.unit = new AbstractDeploymentUnit(context);
+      this.unit.addAttachment(Ejb3MetadataProcessingDeployer.OUTPUT, metaData, JBossMetaData.class);
+   }
+
+   @TearDown
+   public void tearDown()
+   {
+      this.deployer.stop();
+   }
+
+   @Benchmark
+   public DeploymentUnit deploy() throws Exception
+   {
+      // the binder BeanMetaData attachments of the previous run are replaced, as they have the same names
+      this.deployer.deploy(this.unit);
+      // releases the binders of the unit
+      this.deployer.undeploy(this.unit);
+      return this.unit;
+   }
+}
@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.endpoint.Endpoint;
+import org.jboss.ejb3.endpoint.SessionFactory;
+
+/**
+ * An in-memory {@link Endpoint} (in the spirit of the MockEndpoint used by the unit tests)
+ * which dispatches straight to a single bean instance on the calling thread. Asynchronous
+ * invocations are executed synchronously and the Future returned by the bean
+ * is handed back as is, so that the benchmarks measure the client side
+ * of the no-interface view and not a container thread pool.
+ *
+ * @version $Revision: $
+ */
+public class InMemoryEndpoint implements Endpoint, AsyncEndpoint
+{
+
+   /**
+    * The bean instance all invocations are dispatched to
+    */
+   private final Object bean;
+
+   /**
+    * Whether this endpoint acts as a stateful container
+    */
+   private final boolean sessionAware;
+
+   /**
+    * Hands out session ids
+    */
+   private final SessionFactory sessionFactory = new SessionFactory()
+   {
+      private final AtomicLong sessionIds = new AtomicLong();
+
+      @Override
+      public Serializable createSession(Class<?>[] initTypes, Object[] initValues)
+      {
+         return sessionIds.incrementAndGet();
+      }
+
+      @Override
+      public void destroySession(Serializable session)
+      {
+         // nothing to release
+      }
+   };
+
+   /**
+    * Constructor
+    * @param bean The bean instance all invocations are dispatched to
+    * @param sessionAware Whether this endpoint acts as a stateful container
+    */
+   public InMemoryEndpoint(Object bean, boolean sessionAware)
+   {
+      this.bean = bean;
+      this.sessionAware = sessionAware;
+   }
+
+   @Override
+   public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+         throws Throwable
+   {
+      try
+      {
+         return method.invoke(this.bean, args);
+      }
+      catch (InvocationTargetException ite)
+      {
+         throw ite.getCause();
+      }
+   }
+
+   @Override
+   public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+         throws Throwable
+   {
+      // the bean hands back its own (already completed) Future, or null for void methods
+      return this.invoke(session, invokedBusinessInterface, method, args);
+   }
+
+   @Override
+   public boolean cancel(AsyncInvocationId id) throws IllegalArgumentException
+   {
+      return false;
+   }
+
+   @Override
+   public SessionFactory getSessionFactory() throws IllegalStateException
+   {
+      if (!this.sessionAware)
+      {
+         throw new IllegalStateException("Endpoint is not session aware");
+      }
+      return this.sessionFactory;
+   }
+
+   @Override
+   public boolean isSessionAware()
+   {
+      return this.sessionAware;
+   }
+}
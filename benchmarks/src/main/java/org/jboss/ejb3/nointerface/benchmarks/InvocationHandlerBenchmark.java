@@ -0,0 +1,137 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a call through a no-interface view, from the proxy through
+ * {@link org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler}
+ * down to the endpoint, for each shape of call the view handles.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InvocationHandlerBenchmark
+{
+
+   private CalculatorBean statelessView;
+
+   private CalculatorBean statefulView;
+
+   private CalculatorBean otherStatefulView;
+
+   private int a = 17;
+
+   private int b = 25;
+
+   private String message = "hello";
+
+   @Setup
+   public void setup() throws Exception
+   {
+      KernelControllerContext statelessContext = BenchmarkViews.createEndpointContext("StatelessCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), false));
+      this.statelessView = BenchmarkViews.createView(CalculatorBean.class, statelessContext, null);
+
+      InMemoryEndpoint statefulEndpoint = new InMemoryEndpoint(new CalculatorBean(), true);
+      KernelControllerContext statefulContext = BenchmarkViews.createEndpointContext("StatefulCalculator",
+            statefulEndpoint);
+      this.statefulView = BenchmarkViews.createView(CalculatorBean.class, statefulContext, statefulEndpoint
+            .getSessionFactory().createSession(null, null));
+      this.otherStatefulView = BenchmarkViews.createView(CalculatorBean.class, statefulContext, statefulEndpoint
+            .getSessionFactory().createSession(null, null));
+   }
+
+   @Benchmark
+   public int statelessPrimitiveCall()
+   {
+      return this.statelessView.add(this.a, this.b);
+   }
+
+   @Benchmark
+   public String statelessObjectCall()
+   {
+      return this.statelessView.echo(this.message);
+   }
+
+   @Benchmark
+   public int statefulPrimitiveCall()
+   {
+      return this.statefulView.add(this.a, this.b);
+   }
+
+   @Benchmark
+   public String statefulObjectCall()
+   {
+      return this.statefulView.echo(this.message);
+   }
+
+   @Benchmark
+   public void asyncVoidCall()
+   {
+      this.statelessView.fireAndForget(this.message);
+   }
+
+   @Benchmark
+   public Future<Integer> asyncFutureCall()
+   {
+      return this.statelessView.asyncAdd(this.a, this.b);
+   }
+
+   @Benchmark
+   public boolean equalsCall()
+   {
+      return this.statefulView.equals(this.otherStatefulView);
+   }
+
+   @Benchmark
+   public int hashCodeCall()
+   {
+      return this.statefulView.hashCode();
+   }
+
+   @Benchmark
+   public String toStringCall()
+   {
+      return this.statefulView.toString();
+   }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.view.factory.CachedClassNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.JavassistNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a call through views created by each of the proxy engines: the uncached
+ * {@link JavassistNoInterfaceViewFactory} and the {@link CachedClassNoInterfaceViewFactory}
+ * (reflective {@link java.lang.reflect.InvocationHandler} dispatch), and the
+ * {@link DirectDispatchNoInterfaceViewFactory} (generated stubs passing the method index
+ * to the handler).
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyEngineBenchmark
+{
+
+   @Param(
+   {"javassist", "cached", "direct"})
+   private String engine;
+
+   private CalculatorBean view;
+
+   private int a = 17;
+
+   private int b = 25;
+
+   private String message = "hello";
+
+   @Setup
+   public void setup() throws Exception
+   {
+      KernelControllerContext context = BenchmarkViews.createEndpointContext("ProxyEngineCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), false));
+      NoInterfaceViewFactory factory;
+      if ("javassist".equals(this.engine))
+      {
+         factory = new JavassistNoInterfaceViewFactory();
+      }
+      else if ("cached".equals(this.engine))
+      {
+         factory = new CachedClassNoInterfaceViewFactory();
+      }
+      else
+      {
+         factory = new DirectDispatchNoInterfaceViewFactory();
+      }
+      NoInterfaceViewInvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(context, null,
+            CalculatorBean.class, BenchmarkViews.createAsyncMethods(CalculatorBean.class));
+      this.view = CalculatorBean.class.cast(NoInterfaceViewClasses.forBeanClass(factory, CalculatorBean.class)
+            .newProxy(invocationHandler));
+   }
+
+   @Benchmark
+   public int primitiveCall()
+   {
+      return this.view.add(this.a, this.b);
+   }
+
+   @Benchmark
+   public String objectCall()
+   {
+      return this.view.echo(this.message);
+   }
+
+   @Benchmark
+   public int hashCodeCall()
+   {
+      return this.view.hashCode();
+   }
+}
@@ -0,0 +1,113 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures stateful no-interface views used as keys of a map shared by several threads,
+ * the way web tiers and caches tend to hold on to session beans. Each lookup uses a
+ * different view of the same session than the one the entry was put with, so every
+ * hit goes through the hashCode and the (non identity) equals of the views.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ProxyMapKeyBenchmark
+{
+
+   @Param(
+   {"1024"})
+   private int sessions;
+
+   private ConcurrentMap<Object, Integer> map;
+
+   /**
+    * Views equal to, but not the same as, the keys of the map
+    */
+   private Object[] lookupKeys;
+
+   @Setup
+   public void setup() throws Exception
+   {
+      KernelControllerContext endpointContext = BenchmarkViews.createEndpointContext("ProxyMapKeyCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), true));
+      this.map = new ConcurrentHashMap<Object, Integer>();
+      this.lookupKeys = new Object[this.sessions];
+      for (int i = 0; i < this.sessions; i++)
+      {
+         Long session = Long.valueOf(i);
+         this.map.put(BenchmarkViews.createView(CalculatorBean.class, endpointContext, session), i);
+         this.lookupKeys[i] = BenchmarkViews.createView(CalculatorBean.class, endpointContext, session);
+      }
+   }
+
+   /**
+    * Walks the sessions, each thread from a different starting point
+    */
+   @State(Scope.Thread)
+   public static class Cursor
+   {
+      private int next = System.identityHashCode(Thread.currentThread());
+
+      int next(int sessions)
+      {
+         this.next = (this.next + 1) & Integer.MAX_VALUE;
+         return this.next % sessions;
+      }
+   }
+
+   @Benchmark
+   public Integer get(Cursor cursor)
+   {
+      return this.map.get(this.lookupKeys[cursor.next(this.sessions)]);
+   }
+
+   @Benchmark
+   public Integer replace(Cursor cursor)
+   {
+      int i = cursor.next(this.sessions);
+      return this.map.put(this.lookupKeys[i], i);
+   }
+}
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.nointerface.impl.view.factory.StatefulNoInterfaceViewProxyFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of stateful no-interface views (what a JNDI lookup of a SFSB
+ * no-interface view boils down to) against an endpoint installed in a real MC controller,
+ * from a single thread and from as many threads as there are cores. Comparing the
+ * per-thread throughput of both shows whether lookups scale across cores or
+ * serialize on the controller.
+ *
+ * @version $Revision: $
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatefulLookupBenchmark
+{
+
+   private StatefulNoInterfaceViewProxyFactory proxyFactory;
+
+   @Setup
+   public void setup() throws Throwable
+   {
+      KernelControllerContext endpointContext = BenchmarkViews.installEndpoint("StatefulLookupCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), true));
+      JBossSessionBean31MetaData metadata = new JBossSessionBean31MetaData();
+      metadata.setEjbName("StatefulLookupCalculator");
+      metadata.setEjbClass(CalculatorBean.class.getName());
+      metadata.setAsyncMethods(BenchmarkViews.createAsyncMethods(CalculatorBean.class));
+      this.proxyFactory = new StatefulNoInterfaceViewProxyFactory(CalculatorBean.class, endpointContext, metadata);
+   }
+
+   @Benchmark
+   @Threads(1)
+   public Object lookupSingleThread() throws Exception
+   {
+      return this.proxyFactory.createNoInterfaceView();
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public Object lookupAllCores() throws Exception
+   {
+      return this.proxyFactory.createNoInterfaceView();
+   }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.benchmarks;
+
+import java.io.Serializable;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SharedViewState;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewProxyClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.StatefulNoInterfaceViewProxyFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Measures, with JOL, the retained size of a stateful no-interface view: everything reachable
+ * from the views which isn't reachable from what all the views of the bean share (the endpoint,
+ * its MC context, the shared view state and the proxy class). Two layouts are measured:
+ * <ul>
+ * <li>shared: the views created by the {@link StatefulNoInterfaceViewProxyFactory}, which all
+ * point to one {@link SharedViewState}</li>
+ * <li>per-view: views each holding their own copy of the state (and of the async interceptor),
+ * which is what every view used to carry</li>
+ * </ul>
+ * Run with <code>java -cp benchmarks.jar org.jboss.ejb3.nointerface.benchmarks.ViewFootprint [views]</code>.
+ * Not a JMH benchmark, since what's measured is a size, not a time.
+ *
+ * @version $Revision: $
+ */
+public final class ViewFootprint
+{
+
+   private ViewFootprint()
+   {
+      // main class
+   }
+
+   public static void main(String[] args) throws Throwable
+   {
+      int viewCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+      KernelControllerContext endpointContext = BenchmarkViews.installEndpoint("FootprintCalculator",
+            new InMemoryEndpoint(new CalculatorBean(), true));
+      JBossSessionBean31MetaData metadata = new JBossSessionBean31MetaData();
+      metadata.setEjbName("FootprintCalculator");
+      metadata.setEjbClass(CalculatorBean.class.getName());
+      metadata.setAsyncMethods(BenchmarkViews.createAsyncMethods(CalculatorBean.class));
+      NoInterfaceViewProxyClass viewClass = NoInterfaceViewProxyClass.forBeanClass(CalculatorBean.class);
+      StatefulNoInterfaceViewProxyFactory proxyFactory = new StatefulNoInterfaceViewProxyFactory(
+            CalculatorBean.class, endpointContext, metadata, viewClass);
+
+      Object[] sharedViews = new Object[viewCount];
+      for (int i = 0; i < viewCount; i++)
+      {
+         sharedViews[i] = proxyFactory.createNoInterfaceView();
+      }
+      SharedViewState state = proxyFactory.getViewState();
+
+      Object[] perViewViews = new Object[viewCount];
+      for (int i = 0; i < viewCount; i++)
+      {
+         Serializable session = i;
+         perViewViews[i] = viewClass.newProxy(new NoInterfaceViewInvocationHandler(state.getEndpointBinding(),
+               session, CalculatorBean.class, state.getDispatchTable()));
+      }
+
+      // what all the views reach but don't own
+      GraphLayout shared = GraphLayout.parseInstance(endpointContext, state, viewClass, CalculatorBean.class);
+      report("shared", sharedViews, shared);
+      report("per-view", perViewViews, shared);
+   }
+
+   private static void report(String layout, Object[] views, GraphLayout shared)
+   {
+      // the views are the roots, not the array holding them
+      GraphLayout retained = GraphLayout.parseInstance(views).subtract(shared);
+      System.out.println(layout + ": " + views.length + " views retain " + retained.totalSize() + " bytes in "
+            + retained.totalCount() + " objects, " + (retained.totalSize() / views.length) + " bytes per view");
+      System.out.println(retained.toFootprint());
+   }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.endpoint.Endpoint;
+
+/**
+ * AsyncBatch
+ *
+ * Collects the asynchronous invocations made by a thread on a no-interface view, and then submits
+ * them together. For ex:
+ * <pre>
+ * AsyncBatch batch = AsyncBatch.on(processor);
+ * for (Item item : items)
+ * {
+ *    processor.process(item); // an @Asynchronous method of the no-interface view of the processor bean
+ * }
+ * List&lt;Future&lt;?&gt;&gt; futures = batch.submit();
+ * </pre>
+ * While a batch is open on a view, the asynchronous invocations made by the thread on that view are recorded
+ * instead of dispatched: they go through the view as usual, up to the asynchronous dispatch, and return null.
+ * Synchronous invocations aren't affected, and neither are the asynchronous invocations on any other view, in
+ * particular those made by bean code running synchronously on the same thread (which usually goes through
+ * views of its own). A thread has at most one batch open at a time.
+ * <p>
+ * When the views run their asynchronous invocations on an executor of the deployment (see
+ * {@link ExecutorAsyncDispatcher}), the batch is submitted as a whole, taking the concurrency permits of the
+ * invocations at once. Otherwise the invocations are handed to the container one after the other, the
+ * {@link AsyncEndpoint} having no notion of batch.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class AsyncBatch
+{
+
+   /**
+    * The batch open on the current thread, if any
+    */
+   private static final ThreadLocal<AsyncBatch> CURRENT = new ThreadLocal<AsyncBatch>();
+
+   /**
+    * The view whose asynchronous invocations are recorded
+    */
+   private final Object view;
+
+   /**
+    * The recorded invocations, in the order they were made
+    */
+   private final List<AsyncInvocation> invocations = new ArrayList<AsyncInvocation>();
+
+   /**
+    * The endpoint of the bean, known once the first invocation is recorded
+    */
+   private AsyncEndpoint asyncEndpoint;
+
+   /**
+    * Runs the invocations on an executor of the deployment, null to hand them to the container
+    */
+   private ExecutorAsyncDispatcher executorDispatcher;
+
+   private AsyncBatch(Object view)
+   {
+      this.view = view;
+   }
+
+   /**
+    * Opens, on the current thread, a batch recording the asynchronous invocations made on <code>view</code>
+    *
+    * @param view A no-interface view
+    * @return The batch
+    * @throws IllegalStateException If a batch is already open on the current thread
+    */
+   public static AsyncBatch on(Object view)
+   {
+      if (view == null)
+      {
+         throw new IllegalArgumentException("View must be specified");
+      }
+      if (CURRENT.get() != null)
+      {
+         throw new IllegalStateException("An asynchronous invocation batch is already open on thread "
+               + Thread.currentThread().getName());
+      }
+      AsyncBatch batch = new AsyncBatch(view);
+      CURRENT.set(batch);
+      return batch;
+   }
+
+   /**
+    * Returns the batch open on <code>view</code> by the current thread
+    *
+    * @param view The invoked view
+    * @return The batch, null if there's none
+    */
+   static AsyncBatch current(Object view)
+   {
+      AsyncBatch batch = CURRENT.get();
+      return batch != null && batch.view == view ? batch : null;
+   }
+
+   /**
+    * Records an invocation made on the view of the batch
+    */
+   void add(AsyncInvocation invocation, AsyncEndpoint asyncEndpoint, ExecutorAsyncDispatcher executorDispatcher)
+   {
+      // one view, one bean: the endpoint is the same for all the invocations
+      if (this.invocations.isEmpty())
+      {
+         this.asyncEndpoint = asyncEndpoint;
+         this.executorDispatcher = executorDispatcher;
+      }
+      this.invocations.add(invocation);
+   }
+
+   /**
+    * Returns the number of invocations recorded so far
+    *
+    * @return
+    */
+   public int size()
+   {
+      return this.invocations.size();
+   }
+
+   /**
+    * Closes the batch and submits its invocations
+    *
+    * @return The futures of the invocations, in the order they were made. The future of a <code>void</code> method
+    *           handed to the container is null.
+    * @throws IllegalStateException If the batch isn't open on the current thread
+    * @throws RuntimeException If an invocation could not be dispatched. The invocations dispatched till then aren't
+    *           cancelled.
+    */
+   public List<Future<?>> submit()
+   {
+      this.close();
+      List<Future<?>> futures = new ArrayList<Future<?>>(this.invocations.size());
+      if (this.invocations.isEmpty())
+      {
+         return futures;
+      }
+      if (this.executorDispatcher != null && this.asyncEndpoint instanceof Endpoint)
+      {
+         futures.addAll(this.executorDispatcher.dispatchAll(this.invocations, (Endpoint) this.asyncEndpoint));
+         return futures;
+      }
+      // no completion stage method here, they can't be invoked when the container runs the invocations
+      for (AsyncInvocation invocation : this.invocations)
+      {
+         Object result;
+         try
+         {
+            result = invocation.dispatchTo(this.asyncEndpoint);
+         }
+         catch (RuntimeException re)
+         {
+            throw re;
+         }
+         catch (Throwable t)
+         {
+            throw new RuntimeException("Encountered an error dispatching asynchronous invocation: " + invocation, t);
+         }
+         futures.add((Future<?>) result);
+      }
+      return futures;
+   }
+
+   /**
+    * Closes the batch without submitting its invocations. A no-op if the batch was already submitted
+    * (or discarded), so that it can be called from a finally block.
+    */
+   public void discard()
+   {
+      if (CURRENT.get() == this)
+      {
+         CURRENT.remove();
+      }
+   }
+
+   private void close()
+   {
+      if (CURRENT.get() != this)
+      {
+         throw new IllegalStateException("Asynchronous invocation batch isn't open on thread "
+               + Thread.currentThread().getName());
+      }
+      CURRENT.remove();
+   }
+}
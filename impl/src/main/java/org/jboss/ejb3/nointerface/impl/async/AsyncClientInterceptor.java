@@ -24,17 +24,33 @@ package org.jboss.ejb3.nointerface.impl.async;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 
+import javax.ejb.EJBException;
 import javax.interceptor.InvocationContext;
 
 import org.jboss.ejb3.async.spi.AsyncEndpoint;
-import org.jboss.ejb3.async.spi.AsyncUtil;
+import org.jboss.ejb3.endpoint.Endpoint;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatch;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
 import org.jboss.ejb3.sis.Interceptor;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
 
 /**
  * No-interface implementation of a client interceptor to dispatch
- * asynchronous invocations
+ * asynchronous invocations.
+ * <p>
+ * The interceptor is the last one of the chain of the view: every other interceptor has run (on
+ * the calling thread) by the time an asynchronous invocation reaches it. It then captures the
+ * invocation in an immutable {@link AsyncInvocation} and hands that to the {@link AsyncEndpoint}.
+ * </p>
+ * <p>
+ * Besides <code>void</code> and {@link java.util.concurrent.Future} returning methods, methods returning a
+ * <code>CompletionStage</code> or <code>CompletableFuture</code> are supported, see {@link CompletionStages}, as
+ * long as the invocations run on an executor of the deployment (see {@link ExecutorAsyncDispatcher}). The
+ * {@link AsyncEndpoint} of the container only hands out a {@link java.util.concurrent.Future}, without any way to
+ * be notified of its completion, so such methods are rejected when the invocations are handed to the container.
+ * </p>
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -46,14 +62,29 @@ public class AsyncClientInterceptor implements Interceptor
    private static final Logger log = Logger.getLogger(AsyncClientInterceptor.class);
 
    /**
-    * View of the container
+    * View of the container, null if it's looked up from the {@link #endpointBinding} on each invocation
     */
    private final AsyncEndpoint asyncEndpoint;
 
    /**
-    * Async Methods for this Bean
+    * Holds on to the endpoint of the views, null if the interceptor was given the {@link #asyncEndpoint}
     */
-   private final AsyncMethodsMetaData asyncMethods;
+   private final EndpointBinding endpointBinding;
+
+   /**
+    * Precomputed dispatch (including whether it's @Asynchronous) of the methods of this Bean
+    */
+   private final MethodDispatchTable dispatchTable;
+
+   /**
+    * The business interface (== bean class) of the view, passed on to the endpoint
+    */
+   private final Class<?> businessInterface;
+
+   /**
+    * Runs the asynchronous invocations on an executor of the deployment, null to hand them to the container
+    */
+   private ExecutorAsyncDispatcher executorDispatcher;
 
    /**
     * Session ID for SFSB)
@@ -64,27 +95,134 @@ public class AsyncClientInterceptor implements Interceptor
     * Constructor
     * @param asyncEndpoint View of the container
     * @param asyncMethods @Asynchronous Methods for this EJB
+    * @param sessionId Session ID, null for SLSB and Singleton
+    * @deprecated Builds a dispatch table of its own, for the bean class exposed by the container behind
+    *             the endpoint. Use
+    *             {@link #AsyncClientInterceptor(AsyncEndpoint, MethodDispatchTable, Serializable)} with the
+    *             dispatch table of the bean instead.
     */
+   @Deprecated
    public AsyncClientInterceptor(final AsyncEndpoint asyncEndpoint, final AsyncMethodsMetaData asyncMethods,
          final Serializable sessionId)
    {
+      this(asyncEndpoint, new MethodDispatchTable(getBeanClass(asyncEndpoint), checkAsyncMethods(asyncMethods)),
+            sessionId);
+   }
+
+   /**
+    * Constructor
+    * @param asyncEndpoint View of the container
+    * @param dispatchTable Dispatch table of the bean, which knows about its @Asynchronous Methods
+    * @param sessionId Session ID, null for SLSB and Singleton
+    */
+   public AsyncClientInterceptor(final AsyncEndpoint asyncEndpoint, final MethodDispatchTable dispatchTable,
+         final Serializable sessionId)
+   {
+      this(asyncEndpoint, dispatchTable, null, sessionId);
+   }
+
+   /**
+    * Constructor
+    * @param asyncEndpoint View of the container
+    * @param dispatchTable Dispatch table of the bean, which knows about its @Asynchronous Methods
+    * @param businessInterface The business interface (== bean class) of the view
+    * @param sessionId Session ID, null for SLSB and Singleton
+    */
+   public AsyncClientInterceptor(final AsyncEndpoint asyncEndpoint, final MethodDispatchTable dispatchTable,
+         final Class<?> businessInterface, final Serializable sessionId)
+   {
+      this(asyncEndpoint, null, dispatchTable, businessInterface, sessionId);
       // Precondition checks
       if (asyncEndpoint == null)
       {
          throw new IllegalArgumentException("Endpoint must be specified");
       }
+   }
+
+   /**
+    * Constructor. The endpoint is got from <code>endpointBinding</code> on each asynchronous invocation,
+    * so that the invocations fail once the binding has been invalidated, and the interceptor doesn't keep
+    * a stopped endpoint reachable.
+    * @param endpointBinding Holds on to the endpoint (an {@link AsyncEndpoint}) of the views
+    * @param dispatchTable Dispatch table of the bean, which knows about its @Asynchronous Methods
+    * @param businessInterface The business interface (== bean class) of the view
+    * @param sessionId Session ID, null for SLSB and Singleton
+    */
+   public AsyncClientInterceptor(final EndpointBinding endpointBinding, final MethodDispatchTable dispatchTable,
+         final Class<?> businessInterface, final Serializable sessionId)
+   {
+      this(null, endpointBinding, dispatchTable, businessInterface, sessionId);
       // Precondition checks
-      if (asyncMethods == null)
+      if (endpointBinding == null)
       {
-         throw new IllegalArgumentException("asyncMethods must be specified");
+         throw new IllegalArgumentException("Endpoint binding must be specified");
+      }
+   }
+
+   private AsyncClientInterceptor(final AsyncEndpoint asyncEndpoint, final EndpointBinding endpointBinding,
+         final MethodDispatchTable dispatchTable, final Class<?> businessInterface, final Serializable sessionId)
+   {
+      // Precondition checks
+      if (dispatchTable == null)
+      {
+         throw new IllegalArgumentException("dispatchTable must be specified");
       }
 
       // Set
       this.asyncEndpoint = asyncEndpoint;
-      this.asyncMethods = asyncMethods;
+      this.endpointBinding = endpointBinding;
+      this.dispatchTable = dispatchTable;
+      this.businessInterface = businessInterface; // Allowed to be null, when unknown
       this.sessionId = sessionId; // Allowed to be null; SLSB and Singleton
    }
 
+   private static AsyncMethodsMetaData checkAsyncMethods(final AsyncMethodsMetaData asyncMethods)
+   {
+      // Precondition checks
+      if (asyncMethods == null)
+      {
+         throw new IllegalArgumentException("asyncMethods must be specified");
+      }
+      return asyncMethods;
+   }
+
+   /**
+    * Returns the bean class of the container behind <code>asyncEndpoint</code>. It isn't part of the
+    * {@link AsyncEndpoint} (nor {@link Endpoint}) contract, but the EJB3 containers expose it through a public
+    * <code>getBeanClass()</code> method. Endpoints which don't expose it get a table of {@link Object}, whose
+    * {@link MethodDispatchTable#lookup(Method)} still dispatches every method of the bean, just without
+    * precomputed dispatches.
+    */
+   private static Class<?> getBeanClass(final AsyncEndpoint asyncEndpoint)
+   {
+      // Precondition checks
+      if (asyncEndpoint == null)
+      {
+         throw new IllegalArgumentException("Endpoint must be specified");
+      }
+      try
+      {
+         Method getBeanClass = asyncEndpoint.getClass().getMethod("getBeanClass");
+         // the container class itself may not be public
+         getBeanClass.setAccessible(true);
+         Object beanClass = getBeanClass.invoke(asyncEndpoint);
+         if (beanClass instanceof Class<?>)
+         {
+            return (Class<?>) beanClass;
+         }
+      }
+      catch (final NoSuchMethodException nsme)
+      {
+         // not a container
+      }
+      catch (final Exception e)
+      {
+         log.debug("Could not get the bean class of endpoint " + asyncEndpoint, e);
+      }
+      log.debug("Endpoint " + asyncEndpoint + " doesn't expose its bean class, dispatching methods as they come");
+      return Object.class;
+   }
+
    /**
     * {@inheritDoc}
     * @see org.jboss.ejb3.sis.Interceptor#invoke(javax.interceptor.InvocationContext)
@@ -92,27 +230,16 @@ public class AsyncClientInterceptor implements Interceptor
    public Object invoke(final InvocationContext context) throws Exception
    {
 
-      // Determine if async
-      if (this.isAsyncInvocation(context))
-      {
-         // Invoke async-ey via the container
-         //TODO Hack alert.  We're skipping all other interceptors in the chain at this point,
-         // but there's no facility to copy the invocation context without digging
-         // into internals.
-         try
-         {
-            return asyncEndpoint.invokeAsync(sessionId, null, context.getMethod(), context.getParameters());
-         }
-         catch (final RuntimeException re)
-         {
-            // Allow this to pass through unchanged
-            throw re;
-         }
-         catch (final Throwable e)
-         {
-            throw new RuntimeException("Encountered an error dispatching asynchronous invocation: " + context, e);
-         }
+      // Precondition checks
+      assert context != null : "context must be supplied";
 
+      // Determine if async (precomputed when the dispatch table was built)
+      final MethodDispatch dispatch = dispatchTable.lookup(context.getMethod());
+      if (dispatch.isAsync())
+      {
+         // Invoke async-ey via the container. Being the last interceptor, no other interceptor
+         // of the chain is skipped
+         return this.invokeAsync(dispatch, context.getParameters());
       }
 
       // Else forward along
@@ -120,19 +247,128 @@ public class AsyncClientInterceptor implements Interceptor
    }
 
    /**
-    * Returns if the invoked method is asynchronous
-    * @param context
+    * Dispatches an asynchronous invocation of the method of <code>dispatch</code> to the container,
+    * as the interceptor does when such an invocation reaches it. Lets the view hand the invocation
+    * straight to this interceptor, when none of the interceptors before this one act on it.
+    *
+    * @param dispatch Precomputed dispatch of the invoked method
+    * @param args The arguments of the invocation
+    * @return What the container (or the executor dispatcher) returns for the invocation
+    * @throws Exception
+    */
+   public Object invokeAsync(final MethodDispatch dispatch, final Object[] args) throws Exception
+   {
+      return this.invokeAsync(dispatch, args, this.getSessionId());
+   }
+
+   /**
+    * Dispatches an asynchronous invocation of the method of <code>dispatch</code> on the session
+    * <code>sessionId</code>, which lets a single interceptor serve the views of all the sessions of a bean
+    *
+    * @param dispatch Precomputed dispatch of the invoked method
+    * @param args The arguments of the invocation
+    * @param sessionId The session of the invoked view, null for SLSB and Singleton
+    * @return What the container (or the executor dispatcher) returns for the invocation
+    * @throws Exception
+    * @see #invokeAsync(MethodDispatch, Object[])
+    */
+   public Object invokeAsync(final MethodDispatch dispatch, final Object[] args, final Serializable sessionId)
+         throws Exception
+   {
+      return this.invokeAsync(dispatch, args, sessionId, null);
+   }
+
+   /**
+    * Dispatches an asynchronous invocation made on <code>view</code>, or records it if the current thread
+    * has opened an {@link AsyncBatch} on that view
+    *
+    * @param dispatch Precomputed dispatch of the invoked method
+    * @param args The arguments of the invocation
+    * @param sessionId The session of the invoked view, null for SLSB and Singleton
+    * @param view The invoked view, null if unknown (the invocation is then never batched)
+    * @return What the container (or the executor dispatcher) returns for the invocation, null if it was recorded
+    * @throws Exception
+    * @see #invokeAsync(MethodDispatch, Object[], Serializable)
+    */
+   public Object invokeAsync(final MethodDispatch dispatch, final Object[] args, final Serializable sessionId,
+         final Object view) throws Exception
+   {
+      final ExecutorAsyncDispatcher executorDispatcher = this.executorDispatcher;
+      final AsyncEndpoint asyncEndpoint = this.getAsyncEndpoint();
+      final boolean onExecutor = executorDispatcher != null && asyncEndpoint instanceof Endpoint;
+      if (dispatch.isCompletionStage() && !onExecutor)
+      {
+         // nothing would complete the stage without blocking a thread on the Future of the container
+         throw new EJBException("Cannot invoke @Asynchronous method " + dispatch.getMethod()
+               + " returning a completion stage: the asynchronous invocations of the bean are handed to the"
+               + " container, instead of being run on an executor of the deployment");
+      }
+      final AsyncInvocation invocation = new AsyncInvocation(dispatch, args, this.businessInterface, sessionId);
+      final AsyncBatch batch = view == null ? null : AsyncBatch.current(view);
+      if (batch != null)
+      {
+         // submitted along with the rest of the batch
+         batch.add(invocation, asyncEndpoint, executorDispatcher);
+         return null;
+      }
+      if (onExecutor)
+      {
+         return executorDispatcher.dispatch(invocation, (Endpoint) asyncEndpoint);
+      }
+      try
+      {
+         return invocation.dispatchTo(asyncEndpoint);
+      }
+      catch (final RuntimeException re)
+      {
+         // Allow this to pass through unchanged
+         throw re;
+      }
+      catch (final Throwable e)
+      {
+         throw new RuntimeException("Encountered an error dispatching asynchronous invocation: " + invocation, e);
+      }
+   }
+
+   /**
+    * Returns the endpoint the asynchronous invocations are dispatched to
+    *
     * @return
+    * @throws javax.ejb.NoSuchEJBException If the endpoint of the binding has been stopped or undeployed
     */
-   private boolean isAsyncInvocation(final InvocationContext context)
+   private AsyncEndpoint getAsyncEndpoint()
    {
-      // Precondition checks
-      assert context != null : "context must be supplied";
+      if (this.endpointBinding == null)
+      {
+         return this.asyncEndpoint;
+      }
+      final Endpoint endpoint = this.endpointBinding.getEndpoint();
+      if (!(endpoint instanceof AsyncEndpoint))
+      {
+         throw new EJBException("Endpoint " + endpoint + " of " + this.endpointBinding
+               + " does not support asynchronous invocations");
+      }
+      return (AsyncEndpoint) endpoint;
+   }
 
-      // Extract the method
-      final Method invokedMethod = context.getMethod();
+   /**
+    * Sets the dispatcher running the asynchronous invocations on an executor of the deployment,
+    * instead of handing them to {@link AsyncEndpoint#invokeAsync}. Must be set before the view is
+    * handed out.
+    *
+    * @param executorDispatcher The dispatcher, null to hand the invocations to the container
+    */
+   public void setExecutorDispatcher(final ExecutorAsyncDispatcher executorDispatcher)
+   {
+      this.executorDispatcher = executorDispatcher;
+   }
 
-      // Async?
-      return AsyncUtil.methodIsAsynchronous(invokedMethod, asyncMethods);
+   /**
+    * Returns the session ID the asynchronous invocations are dispatched to
+    * @return The session ID, null for SLSB and Singleton
+    */
+   protected Serializable getSessionId()
+   {
+      return this.sessionId;
    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.async;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatch;
+
+/**
+ * AsyncInvocation
+ *
+ * Immutable snapshot of an asynchronous invocation on a no-interface view: the invoked method
+ * (along with its precomputed dispatch), the arguments, the business interface and the session.
+ * It's captured on the calling thread once the interceptors of the view have run, and holds
+ * everything the {@link AsyncEndpoint} needs to run the invocation later on, on another thread,
+ * without the invocation context of the view having to be copied.
+ * <p>
+ * The arguments array isn't copied: it's created afresh by the view for every call, and the
+ * interceptors of the view are done with it once the snapshot is taken.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class AsyncInvocation
+{
+
+   /**
+    * Precomputed dispatch of the invoked method
+    */
+   private final MethodDispatch dispatch;
+
+   /**
+    * The arguments of the invocation
+    */
+   private final Object[] args;
+
+   /**
+    * The business interface (== bean class) of the view
+    */
+   private final Class<?> businessInterface;
+
+   /**
+    * The session, null for SLSB and Singleton
+    */
+   private final Serializable session;
+
+   /**
+    * Constructor
+    *
+    * @param dispatch Precomputed dispatch of the invoked method
+    * @param args The arguments of the invocation
+    * @param businessInterface The business interface (== bean class) of the view
+    * @param session The session, null for SLSB and Singleton
+    */
+   public AsyncInvocation(MethodDispatch dispatch, Object[] args, Class<?> businessInterface, Serializable session)
+   {
+      assert dispatch != null : "dispatch must be supplied";
+      this.dispatch = dispatch;
+      this.args = args;
+      this.businessInterface = businessInterface;
+      this.session = session;
+   }
+
+   /**
+    * Hands this invocation to <code>asyncEndpoint</code>
+    *
+    * @param asyncEndpoint The endpoint running the invocation
+    * @return What the endpoint returns for the invocation (a {@link java.util.concurrent.Future} or null)
+    * @throws Throwable If the endpoint could not accept the invocation
+    */
+   public Object dispatchTo(AsyncEndpoint asyncEndpoint) throws Throwable
+   {
+      return asyncEndpoint.invokeAsync(this.session, this.businessInterface, this.dispatch.getMethod(), this.args);
+   }
+
+   /**
+    * Returns the index of the invoked method in the dispatch table of the bean, -1 for a method
+    * which isn't part of the bean class
+    *
+    * @return
+    */
+   public int getMethodIndex()
+   {
+      return this.dispatch.getIndex();
+   }
+
+   /**
+    * Returns the invoked method
+    *
+    * @return
+    */
+   public Method getMethod()
+   {
+      return this.dispatch.getMethod();
+   }
+
+   /**
+    * Returns true if the invoked method returns a completion stage
+    *
+    * @return
+    */
+   public boolean returnsCompletionStage()
+   {
+      return this.dispatch.isCompletionStage();
+   }
+
+   /**
+    * Returns the arguments of the invocation
+    *
+    * @return
+    */
+   public Object[] getArguments()
+   {
+      return this.args;
+   }
+
+   /**
+    * Returns the business interface (== bean class) of the view
+    *
+    * @return
+    */
+   public Class<?> getBusinessInterface()
+   {
+      return this.businessInterface;
+   }
+
+   /**
+    * Returns the session, null for SLSB and Singleton
+    *
+    * @return
+    */
+   public Serializable getSession()
+   {
+      return this.session;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "AsyncInvocation[" + this.dispatch.getMethod() + " on " + this.businessInterface + ", session="
+            + this.session + "]";
+   }
+}
@@ -0,0 +1,259 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.async;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Future;
+
+/**
+ * CompletionStages
+ *
+ * Support for @Asynchronous methods declaring a <code>java.util.concurrent.CompletionStage</code> or
+ * <code>java.util.concurrent.CompletableFuture</code> return type. This implementation still runs on
+ * JDK 6, so these types (and <code>java.util.function.BiConsumer</code>) are only ever used through
+ * reflection, once they're known to exist. On a VM without them, no method is a completion stage
+ * method, and none of the other methods of this class get called.
+ * <p>
+ * Completion stage methods can only be invoked when the asynchronous invocations run on an executor of the
+ * deployment (see {@link ExecutorAsyncDispatcher}), which completes the stage handed to the client itself.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class CompletionStages
+{
+
+   private static final Class<?> COMPLETION_STAGE = loadClass("java.util.concurrent.CompletionStage");
+
+   private static final Class<?> COMPLETABLE_FUTURE = loadClass("java.util.concurrent.CompletableFuture");
+
+   private static final Class<?> BI_CONSUMER = loadClass("java.util.function.BiConsumer");
+
+   private static final boolean SUPPORTED = COMPLETION_STAGE != null && COMPLETABLE_FUTURE != null
+         && BI_CONSUMER != null;
+
+   private static final Constructor<?> NEW_COMPLETABLE_FUTURE = SUPPORTED ? constructor(COMPLETABLE_FUTURE) : null;
+
+   private static final Method COMPLETE = SUPPORTED ? method(COMPLETABLE_FUTURE, "complete", Object.class) : null;
+
+   private static final Method COMPLETE_EXCEPTIONALLY = SUPPORTED ? method(COMPLETABLE_FUTURE,
+         "completeExceptionally", Throwable.class) : null;
+
+   private static final Method WHEN_COMPLETE = SUPPORTED
+         ? method(COMPLETION_STAGE, "whenComplete", BI_CONSUMER)
+         : null;
+
+   /**
+    * Callback on the completion of a stage
+    */
+   interface CompletionCallback
+   {
+      /**
+       * @param value The value of the stage, null if it completed exceptionally
+       * @param failure The failure of the stage, null if it completed normally
+       */
+      void completed(Object value, Throwable failure);
+   }
+
+   private CompletionStages()
+   {
+      // static utility
+   }
+
+   /**
+    * Returns true if <code>type</code>, the return type of an @Asynchronous method, is
+    * <code>CompletionStage</code> or <code>CompletableFuture</code>
+    *
+    * @param type The return type
+    * @return
+    */
+   public static boolean isCompletionStageType(Class<?> type)
+   {
+      return SUPPORTED && (type == COMPLETION_STAGE || type == COMPLETABLE_FUTURE);
+   }
+
+   /**
+    * Returns true if <code>object</code> is a <code>CompletionStage</code>
+    *
+    * @param object
+    * @return
+    */
+   public static boolean isCompletionStage(Object object)
+   {
+      return SUPPORTED && COMPLETION_STAGE.isInstance(object);
+   }
+
+   /**
+    * Returns a new, incomplete, <code>CompletableFuture</code>
+    */
+   static Future<Object> newCompletableFuture()
+   {
+      try
+      {
+         return cast(NEW_COMPLETABLE_FUTURE.newInstance());
+      }
+      catch (InvocationTargetException ite)
+      {
+         throw rethrow(ite.getCause());
+      }
+      catch (Exception e)
+      {
+         throw new IllegalStateException("Could not create CompletableFuture", e);
+      }
+   }
+
+   /**
+    * Completes <code>completableFuture</code> with <code>value</code>
+    */
+   static void complete(Future<Object> completableFuture, Object value)
+   {
+      invoke(COMPLETE, completableFuture, value);
+   }
+
+   /**
+    * Completes <code>completableFuture</code> exceptionally with <code>failure</code>
+    */
+   static void completeExceptionally(Future<Object> completableFuture, Throwable failure)
+   {
+      invoke(COMPLETE_EXCEPTIONALLY, completableFuture, failure);
+   }
+
+   /**
+    * Calls <code>callback</code> when <code>stage</code> completes (right away if it's already complete)
+    */
+   static void whenComplete(Object stage, final CompletionCallback callback)
+   {
+      Object biConsumer = Proxy.newProxyInstance(CompletionStages.class.getClassLoader(), new Class<?>[]
+      {BI_CONSUMER}, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            if (method.getDeclaringClass() == Object.class)
+            {
+               return method.invoke(this, args);
+            }
+            // accept(value, failure); no other abstract method
+            callback.completed(args[0], (Throwable) args[1]);
+            return null;
+         }
+      });
+      invoke(WHEN_COMPLETE, stage, biConsumer);
+   }
+
+   /**
+    * Completes <code>completableFuture</code> like <code>stage</code> completes
+    */
+   static void completeWith(final Future<Object> completableFuture, Object stage)
+   {
+      whenComplete(stage, new CompletionCallback()
+      {
+         public void completed(Object value, Throwable failure)
+         {
+            if (failure != null)
+            {
+               completeExceptionally(completableFuture, failure);
+            }
+            else
+            {
+               complete(completableFuture, value);
+            }
+         }
+      });
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Future<Object> cast(Object completableFuture)
+   {
+      return (Future<Object>) completableFuture;
+   }
+
+   private static Object invoke(Method method, Object target, Object... args)
+   {
+      try
+      {
+         return method.invoke(target, args);
+      }
+      catch (InvocationTargetException ite)
+      {
+         throw rethrow(ite.getCause());
+      }
+      catch (IllegalAccessException iae)
+      {
+         throw new IllegalStateException("Could not invoke " + method, iae);
+      }
+   }
+
+   private static RuntimeException rethrow(Throwable t)
+   {
+      if (t instanceof RuntimeException)
+      {
+         throw (RuntimeException) t;
+      }
+      if (t instanceof Error)
+      {
+         throw (Error) t;
+      }
+      throw new UndeclaredThrowableException(t);
+   }
+
+   private static Class<?> loadClass(String name)
+   {
+      try
+      {
+         return Class.forName(name, false, null);
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         // JDK without completion stages
+         return null;
+      }
+   }
+
+   private static Constructor<?> constructor(Class<?> type)
+   {
+      try
+      {
+         return type.getConstructor();
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         throw new IllegalStateException(nsme);
+      }
+   }
+
+   private static Method method(Class<?> type, String name, Class<?>... parameterTypes)
+   {
+      try
+      {
+         return type.getMethod(name, parameterTypes);
+      }
+      catch (NoSuchMethodException nsme)
+      {
+         throw new IllegalStateException(nsme);
+      }
+   }
+}
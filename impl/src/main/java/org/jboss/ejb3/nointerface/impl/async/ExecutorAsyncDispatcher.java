@@ -0,0 +1,536 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.async;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ejb.EJBException;
+
+import org.jboss.ejb3.endpoint.Endpoint;
+
+/**
+ * ExecutorAsyncDispatcher
+ *
+ * Runs the asynchronous invocations of the no-interface views of a deployment on an {@link Executor}
+ * of the deployment, instead of handing them to {@link org.jboss.ejb3.async.spi.AsyncEndpoint#invokeAsync}.
+ * Each invocation is a task invoking the bean synchronously, through {@link Endpoint#invoke}, on a thread
+ * of the executor. This lets blocking asynchronous methods run on an executor sized (or, with a
+ * thread-per-task executor, not sized at all) for them rather than on the thread pool of the container.
+ * <p>
+ * The number of invocations in flight can be limited: once the limit is reached, the calling thread
+ * waits for an invocation to complete before its own is submitted.
+ * </p>
+ * <p>
+ * The {@link Future} returned to the client completes with the value of the {@link Future} returned by the
+ * bean method (or null for a <code>void</code> method). Cancelling it before the invocation runs skips the
+ * invocation; cancelling it with <code>mayInterruptIfRunning</code> interrupts the thread running it.
+ * For a method returning a completion stage (see {@link CompletionStages}), the client gets a
+ * <code>CompletableFuture</code> instead, completed when the invocation (or the stage returned by the bean)
+ * completes, and whose cancellation interrupts the invocation.
+ * </p>
+ * <p>
+ * On undeploy, the dispatcher is {@link #close(long, TimeUnit) closed}: no more invocations are accepted,
+ * and those in flight are given a bounded time to complete before they are cancelled.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class ExecutorAsyncDispatcher
+{
+
+   /**
+    * Runs the invocations
+    */
+   private final Executor executor;
+
+   /**
+    * Limits the number of invocations in flight, null if they aren't limited
+    */
+   private final Semaphore permits;
+
+   /**
+    * The invocations submitted to the executor and not run yet (or still running)
+    */
+   private final Set<InvocationTask> inFlight = Collections
+         .newSetFromMap(new ConcurrentHashMap<InvocationTask, Boolean>());
+
+   /**
+    * True once {@link #close(long, TimeUnit)} has been called
+    */
+   private volatile boolean closed;
+
+   /**
+    * Constructor
+    *
+    * @param executor Runs the invocations
+    * @param maxConcurrentInvocations Maximum number of invocations in flight, 0 for no limit
+    */
+   public ExecutorAsyncDispatcher(Executor executor, int maxConcurrentInvocations)
+   {
+      if (executor == null)
+      {
+         throw new IllegalArgumentException("Executor must be specified");
+      }
+      if (maxConcurrentInvocations < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of concurrent invocations can't be negative: "
+               + maxConcurrentInvocations);
+      }
+      this.executor = executor;
+      this.permits = maxConcurrentInvocations == 0 ? null : new Semaphore(maxConcurrentInvocations);
+   }
+
+   /**
+    * Submits <code>invocation</code> to the executor, waiting first for an invocation in flight to
+    * complete if the limit is reached
+    *
+    * @param invocation The invocation
+    * @param endpoint The endpoint invoking the bean
+    * @return The future of the invocation
+    * @throws EJBException If the calling thread was interrupted while waiting, or the executor rejected the invocation
+    */
+   public Future<Object> dispatch(final AsyncInvocation invocation, final Endpoint endpoint)
+   {
+      if (this.permits != null)
+      {
+         try
+         {
+            this.permits.acquire();
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted while waiting to dispatch asynchronous invocation " + invocation);
+         }
+      }
+      InvocationTask task = null;
+      try
+      {
+         task = new InvocationTask(invocation, endpoint);
+      }
+      finally
+      {
+         // from then on, the task holds the permit
+         if (task == null && this.permits != null)
+         {
+            this.permits.release();
+         }
+      }
+      return this.execute(task);
+   }
+
+   /**
+    * Submits a batch of invocations to the executor. Compared to as many calls to
+    * {@link #dispatch(AsyncInvocation, Endpoint)}, the permits of the batch are taken in as few
+    * operations on the limiter as possible: whatever is available at once, waiting only when none is.
+    *
+    * @param invocations The invocations
+    * @param endpoint The endpoint invoking the bean
+    * @return The futures of the invocations, in the order of <code>invocations</code>
+    * @throws EJBException If the calling thread was interrupted while waiting, or the executor rejected an
+    *           invocation. The invocations submitted till then aren't cancelled.
+    */
+   public List<Future<Object>> dispatchAll(final List<AsyncInvocation> invocations, final Endpoint endpoint)
+   {
+      final int size = invocations.size();
+      List<Future<Object>> futures = new ArrayList<Future<Object>>(size);
+      while (futures.size() < size)
+      {
+         int remaining = size - futures.size();
+         int acquired = remaining;
+         if (this.permits != null)
+         {
+            acquired = this.acquireUpTo(remaining);
+         }
+         for (int i = 0; i < acquired; i++)
+         {
+            InvocationTask task = null;
+            boolean dispatched = false;
+            try
+            {
+               task = new InvocationTask(invocations.get(futures.size()), endpoint);
+               futures.add(this.execute(task));
+               dispatched = true;
+            }
+            finally
+            {
+               // the permits of the tasks of this round which weren't dispatched, but the one of a
+               // created task, released by execute()
+               if (!dispatched && this.permits != null)
+               {
+                  this.permits.release(acquired - i - (task == null ? 0 : 1));
+               }
+            }
+         }
+      }
+      return futures;
+   }
+
+   /**
+    * Takes all the available permits, up to <code>wanted</code>, waiting for one if none is available
+    */
+   private int acquireUpTo(int wanted)
+   {
+      int acquired = this.permits.drainPermits();
+      if (acquired == 0)
+      {
+         try
+         {
+            this.permits.acquire();
+         }
+         catch (InterruptedException ie)
+         {
+            Thread.currentThread().interrupt();
+            throw new EJBException("Interrupted while waiting to dispatch asynchronous invocations");
+         }
+         acquired = 1;
+      }
+      if (acquired > wanted)
+      {
+         this.permits.release(acquired - wanted);
+         acquired = wanted;
+      }
+      return acquired;
+   }
+
+   /**
+    * Submits <code>task</code> to the executor. If it can't be submitted, for whatever reason, the task
+    * is forgotten, releasing its permit.
+    */
+   private Future<Object> execute(InvocationTask task)
+   {
+      this.inFlight.add(task);
+      boolean submitted = false;
+      try
+      {
+         if (this.closed)
+         {
+            throw new EJBException("Could not dispatch asynchronous invocation " + task.invocation
+                  + ", the deployment is being undeployed");
+         }
+         try
+         {
+            this.executor.execute(task);
+         }
+         catch (RejectedExecutionException ree)
+         {
+            EJBException ejbe = new EJBException("Could not dispatch asynchronous invocation " + task.invocation);
+            ejbe.initCause(ree);
+            throw ejbe;
+         }
+         submitted = true;
+         return task.getClientFuture();
+      }
+      finally
+      {
+         if (!submitted)
+         {
+            this.completed(task);
+         }
+      }
+   }
+
+   /**
+    * Forgets a task which has run, was cancelled before being run, or was never submitted
+    */
+   private void completed(InvocationTask task)
+   {
+      task.releasePermit();
+      if (this.inFlight.remove(task) && this.closed && this.inFlight.isEmpty())
+      {
+         synchronized (this.inFlight)
+         {
+            this.inFlight.notifyAll();
+         }
+      }
+   }
+
+   /**
+    * Stops accepting invocations, and waits up to <code>timeout</code> for the invocations in flight
+    * to complete. Those still in flight after that are cancelled (interrupting the threads running them).
+    *
+    * @param timeout The maximum time to wait
+    * @param unit The unit of <code>timeout</code>
+    * @return True if all the invocations in flight completed in time
+    */
+   public boolean close(long timeout, TimeUnit unit)
+   {
+      this.closed = true;
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      synchronized (this.inFlight)
+      {
+         while (!this.inFlight.isEmpty())
+         {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+            {
+               break;
+            }
+            try
+            {
+               TimeUnit.NANOSECONDS.timedWait(this.inFlight, remaining);
+            }
+            catch (InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+      }
+      if (this.inFlight.isEmpty())
+      {
+         return true;
+      }
+      for (InvocationTask task : this.inFlight.toArray(new InvocationTask[0]))
+      {
+         task.cancel(true);
+         // a task cancelled before it ran may never be run by the executor
+         this.completed(task);
+      }
+      return false;
+   }
+
+   /**
+    * Returns the number of invocations submitted to the executor which haven't completed yet
+    *
+    * @return
+    */
+   public int getInFlightInvocations()
+   {
+      return this.inFlight.size();
+   }
+
+   /**
+    * Returns the number of invocations which can still be dispatched without waiting,
+    * or -1 if the invocations in flight aren't limited
+    *
+    * @return
+    */
+   public int getAvailablePermits()
+   {
+      return this.permits == null ? -1 : this.permits.availablePermits();
+   }
+
+   /**
+    * A task invoking the bean, which is also the {@link Future} handed to the client, unless
+    * the method returns a completion stage
+    */
+   private class InvocationTask extends FutureTask<Object>
+   {
+      /**
+       * True while the task holds a permit
+       */
+      private final AtomicBoolean permitHeld = new AtomicBoolean(permits != null);
+
+      /**
+       * The invocation run by the task
+       */
+      private final AsyncInvocation invocation;
+
+      /**
+       * Invokes the bean
+       */
+      private final InvocationCallable callable;
+
+      /**
+       * The completion stage handed to the client, null unless the method returns one
+       */
+      private final Future<Object> completion;
+
+      InvocationTask(final AsyncInvocation invocation, final Endpoint endpoint)
+      {
+         this(new InvocationCallable(invocation, endpoint));
+      }
+
+      private InvocationTask(final InvocationCallable callable)
+      {
+         super(callable);
+         this.callable = callable;
+         this.invocation = callable.invocation;
+         if (this.invocation.returnsCompletionStage())
+         {
+            this.completion = CompletionStages.newCompletableFuture();
+            callable.completion = this.completion;
+            // cancelling the stage cancels the invocation
+            CompletionStages.whenComplete(this.completion, new CompletionStages.CompletionCallback()
+            {
+               public void completed(Object value, Throwable failure)
+               {
+                  if (failure instanceof CancellationException)
+                  {
+                     InvocationTask.this.cancel(true);
+                  }
+               }
+            });
+         }
+         else
+         {
+            this.completion = null;
+         }
+      }
+
+      /**
+       * Returns the future handed to the client
+       */
+      Future<Object> getClientFuture()
+      {
+         return this.completion != null ? this.completion : this;
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            super.run();
+         }
+         finally
+         {
+            // also run (as a no-op) for a task cancelled before it started
+            completed(this);
+         }
+      }
+
+      @Override
+      protected void done()
+      {
+         // pushes the outcome of the task to the completion stage, unless the bean returned a stage of its own
+         if (this.completion == null || this.callable.chained)
+         {
+            return;
+         }
+         try
+         {
+            CompletionStages.complete(this.completion, this.get());
+         }
+         catch (ExecutionException ee)
+         {
+            CompletionStages.completeExceptionally(this.completion, ee.getCause());
+         }
+         catch (CancellationException ce)
+         {
+            CompletionStages.completeExceptionally(this.completion, ce);
+         }
+         catch (InterruptedException ie)
+         {
+            // can't happen, the task is done
+            Thread.currentThread().interrupt();
+         }
+      }
+
+      void releasePermit()
+      {
+         if (this.permitHeld.compareAndSet(true, false))
+         {
+            permits.release();
+         }
+      }
+   }
+
+   /**
+    * Invokes the bean, on a thread of the executor
+    */
+   private static class InvocationCallable implements Callable<Object>
+   {
+      private final AsyncInvocation invocation;
+
+      private final Endpoint endpoint;
+
+      /**
+       * The completion stage handed to the client, null unless the method returns one
+       */
+      private Future<Object> completion;
+
+      /**
+       * True if the bean returned a completion stage, which completes the stage handed to the client
+       */
+      private volatile boolean chained;
+
+      InvocationCallable(final AsyncInvocation invocation, final Endpoint endpoint)
+      {
+         this.invocation = invocation;
+         this.endpoint = endpoint;
+      }
+
+      public Object call() throws Exception
+      {
+         Object result;
+         try
+         {
+            result = this.endpoint.invoke(this.invocation.getSession(), this.invocation.getBusinessInterface(),
+                  this.invocation.getMethod(), this.invocation.getArguments());
+         }
+         catch (Exception e)
+         {
+            throw e;
+         }
+         catch (Error e)
+         {
+            throw e;
+         }
+         catch (Throwable t)
+         {
+            throw new UndeclaredThrowableException(t);
+         }
+         if (this.completion != null && CompletionStages.isCompletionStage(result))
+         {
+            // completes without blocking the thread of the executor
+            this.chained = true;
+            CompletionStages.completeWith(this.completion, result);
+            return null;
+         }
+         if (!(result instanceof Future<?>))
+         {
+            return null;
+         }
+         // the bean's own Future (typically an AsyncResult) just carries the value
+         try
+         {
+            return ((Future<?>) result).get();
+         }
+         catch (ExecutionException ee)
+         {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Exception)
+            {
+               throw (Exception) cause;
+            }
+            throw ee;
+         }
+      }
+   }
+}
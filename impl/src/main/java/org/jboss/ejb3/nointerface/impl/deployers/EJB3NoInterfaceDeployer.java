@@ -21,9 +21,33 @@
  */
 package org.jboss.ejb3.nointerface.impl.deployers;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
+import javax.naming.NoInitialContextException;
 
 import org.jboss.beans.metadata.api.model.FromContext;
 import org.jboss.beans.metadata.plugins.AbstractInjectionValueMetaData;
@@ -35,9 +59,15 @@ import org.jboss.deployers.spi.deployer.DeploymentStages;
 import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
 import org.jboss.deployers.structure.spi.DeploymentUnit;
 import org.jboss.ejb3.deployers.Ejb3MetadataProcessingDeployer;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
 import org.jboss.ejb3.nointerface.impl.jndi.AbstractNoInterfaceViewBinder;
 import org.jboss.ejb3.nointerface.impl.jndi.SessionlessBeanNoInterfaceViewBinder;
 import org.jboss.ejb3.nointerface.impl.jndi.StatefulBeanNoInterfaceViewBinder;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPoolConfig;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.impl.view.factory.ProxyBytecodeCache;
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
 import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeansMetaData;
@@ -67,6 +97,102 @@ public class EJB3NoInterfaceDeployer extends AbstractDeployer
     */
    private static final String INPUT = Ejb3MetadataProcessingDeployer.OUTPUT;
 
+   /**
+    * Name of the attachment holding the dispatcher running the asynchronous invocations of the unit
+    * on the {@link #asyncExecutor}
+    */
+   private static final String ASYNC_DISPATCHER_ATTACHMENT_NAME = EJB3NoInterfaceDeployer.class.getName()
+         + ".asyncDispatcher";
+
+   /**
+    * Name of the attachment holding the binders of a unit, keyed by the name of their MC bean
+    */
+   private static final String BINDERS_ATTACHMENT_NAME = EJB3NoInterfaceDeployer.class.getName() + ".binders";
+
+   /**
+    * Name of the attachment holding the {@link ProxyBytecodeCache} of a unit
+    */
+   private static final String PROXY_BYTECODE_CACHE_ATTACHMENT_NAME = EJB3NoInterfaceDeployer.class.getName()
+         + ".proxyBytecodeCache";
+
+   /**
+    * Resolves the no-interface view jndi names. The resolver holds no state, the jndi binding
+    * policy being picked from the metadata of each bean, so a single instance serves all the beans
+    * (and all the threads of the parallel mode).
+    */
+   private static final JNDIPolicyBasedSessionBean31JNDINameResolver JNDI_NAME_RESOLVER = new JNDIPolicyBasedSessionBean31JNDINameResolver();
+
+   /**
+    * Configuration of the pools of pre-created sessions, keyed by the ejb-name of
+    * the stateful beans whose sessions are pooled
+    */
+   private Map<String, StatefulSessionPoolConfig> statefulSessionPools = Collections.emptyMap();
+
+   /**
+    * True if the sessions of stateful no-interface views are created on the first
+    * invocation on the view instead of at lookup
+    */
+   private boolean lazyStatefulSessions;
+
+   /**
+    * True if the session of a stateful no-interface view is destroyed as soon as the view
+    * becomes unreachable, instead of being left to the idle timeout of the container
+    */
+   private boolean reclaimUnreachableStatefulSessions;
+
+   /**
+    * True if invocations on the no-interface views are recorded and exposed through an MBean
+    */
+   private boolean metricsEnabled;
+
+   /**
+    * The MBeanServer to which the metrics MBeans are registered, null for the platform MBeanServer
+    */
+   private MBeanServer mbeanServer;
+
+   /**
+    * Number of threads creating the no-interface view binders of a unit in parallel.
+    * 1 (the default) creates them sequentially, on the deploying thread.
+    */
+   private volatile int parallelism = 1;
+
+   /**
+    * True if the proxy classes of the no-interface views are generated at deployment
+    */
+   private boolean generateProxiesAheadOfTime;
+
+   /**
+    * Directory under which the bytecode of the proxy classes generated ahead of time is cached, in a
+    * subdirectory per unit. Null not to cache it.
+    */
+   private File proxyBytecodeCacheDirectory;
+
+   /**
+    * The proxy engine creating the no-interface views, null for the default one
+    * (see {@link NoInterfaceViewClasses#getDefaultFactory()})
+    */
+   private NoInterfaceViewFactory noInterfaceViewFactory;
+
+   /**
+    * Runs the asynchronous invocations on the no-interface views, null to hand them to the container
+    */
+   private Executor asyncExecutor;
+
+   /**
+    * Maximum number of asynchronous invocations of a unit in flight on the {@link #asyncExecutor}, 0 for no limit
+    */
+   private int maxConcurrentAsyncInvocations;
+
+   /**
+    * Maximum time, in milliseconds, undeploy waits for the asynchronous invocations in flight to complete
+    */
+   private long undeployTimeout = 10000;
+
+   /**
+    * Thread pool of the parallel mode, created on first use
+    */
+   private ExecutorService executor;
+
    /**
     * Constructor
     */
@@ -108,6 +234,7 @@ public class EJB3NoInterfaceDeployer extends AbstractDeployer
          return;
       }
       // work on the ejbs
+      List<JBossSessionBean31MetaData> noInterfaceBeans = new ArrayList<JBossSessionBean31MetaData>();
       JBossEnterpriseBeansMetaData beans = metaData.getEnterpriseBeans();
       for (JBossEnterpriseBeanMetaData bean : beans)
       {
@@ -120,49 +247,305 @@ public class EJB3NoInterfaceDeployer extends AbstractDeployer
             // too bad
             if (bean instanceof JBossSessionBean31MetaData)
             {
-               // Process for no-interface view
-               deploy(unit, (JBossSessionBean31MetaData) bean);
+               JBossSessionBean31MetaData sessionBean = (JBossSessionBean31MetaData) bean;
+               if (!sessionBean.isNoInterfaceBean())
+               {
+                  if (logger.isTraceEnabled())
+                  {
+                     logger.trace("Bean class " + sessionBean.getEjbClass() + " is not eligible for no-interface view");
+                  }
+                  continue;
+               }
+               noInterfaceBeans.add(sessionBean);
             }
          }
       }
 
+      if (noInterfaceBeans.isEmpty())
+      {
+         return;
+      }
+
+      // One naming context per deploy, opened on the deploying thread and closed before deploy returns.
+      // The views are bound when MC starts the binders, after deploy, so the binders get the environment
+      // of the context (which is shared by the threads of the parallel mode) rather than the context itself
+      Context namingContext;
+      try
+      {
+         namingContext = new InitialContext();
+      }
+      catch (NamingException ne)
+      {
+         throw new DeploymentException("Could not create naming context for no-interface views of unit "
+               + unit.getName(), ne);
+      }
+      try
+      {
+         this.deploy(unit, noInterfaceBeans, getEnvironment(namingContext, unit));
+      }
+      finally
+      {
+         try
+         {
+            namingContext.close();
+         }
+         catch (NamingException ne)
+         {
+            logger.warn("Could not close naming context of no-interface views of unit " + unit.getName(), ne);
+         }
+      }
    }
 
    /**
-    * Creates a {@link NoInterfaceViewJNDIBinderFacade} MC bean for the no-interface view represented by the
-    * <code>sessionBeanMetaData</code>. The {@link NoInterfaceViewJNDIBinderFacade} is created only
-    * if the bean is eligible for a no-interface view as defined by the EJB3.1 spec
-    * 
-    * The {@link NoInterfaceViewJNDIBinderFacade}, thus created, will be dependent on the {@link ControllerState#DESCRIBED}
-    * state of the container (endpoint) MC bean. This way, we ensure that this {@link NoInterfaceViewJNDIBinderFacade}
-    * will be deployed only after the corresponding container MC bean moves to {@link ControllerState#DESCRIBED}
-    * state.
+    * Returns a copy of the environment of the naming context of the unit, which outlives the context
+    *
+    * @throws DeploymentException If the environment could not be read
+    */
+   private static Hashtable<?, ?> getEnvironment(Context namingContext, DeploymentUnit unit)
+         throws DeploymentException
+   {
+      try
+      {
+         return new Hashtable<Object, Object>(namingContext.getEnvironment());
+      }
+      catch (NoInitialContextException nice)
+      {
+         // no naming provider configured (yet): the binders look it up again when they bind the views
+         return new Hashtable<Object, Object>();
+      }
+      catch (NamingException ne)
+      {
+         throw new DeploymentException("Could not get the environment of the naming context of unit "
+               + unit.getName(), ne);
+      }
+   }
+
+   /**
+    * Creates the binders of the no-interface views of the <code>noInterfaceBeans</code> of the unit, and
+    * attaches them to the unit
     *
     * @param unit Deployment unit
-    * @param sessionBeanMetaData Session bean metadata
-    * @throws DeploymentException If any exceptions are encountered during processing of the deployment unit
+    * @param noInterfaceBeans Metadata of the beans with a no-interface view
+    * @param namingEnvironment The environment of the naming context of the deployment
+    * @throws DeploymentException If the binder of any of the beans could not be created
     */
-   private void deploy(DeploymentUnit unit, JBossSessionBean31MetaData sessionBeanMetaData) throws DeploymentException
+   private void deploy(DeploymentUnit unit, List<JBossSessionBean31MetaData> noInterfaceBeans,
+         Hashtable<?, ?> namingEnvironment) throws DeploymentException
    {
+      unit.addAttachment(BINDERS_ATTACHMENT_NAME, Collections
+            .synchronizedMap(new LinkedHashMap<String, AbstractNoInterfaceViewBinder>()), Map.class);
+      if (this.asyncExecutor != null)
+      {
+         // the limit applies per unit, the executor itself may be shared by all the units
+         unit.addAttachment(ASYNC_DISPATCHER_ATTACHMENT_NAME, new ExecutorAsyncDispatcher(this.asyncExecutor,
+               this.maxConcurrentAsyncInvocations), ExecutorAsyncDispatcher.class);
+      }
+      if (this.generateProxiesAheadOfTime && this.proxyBytecodeCacheDirectory != null)
+      {
+         // the attachment keeps the cache (weakly registered for the bean classes) alive till undeploy
+         unit.addAttachment(PROXY_BYTECODE_CACHE_ATTACHMENT_NAME, new ProxyBytecodeCache(new File(
+               this.proxyBytecodeCacheDirectory, getProxyBytecodeCacheName(unit))), ProxyBytecodeCache.class);
+      }
+
+      // Process for no-interface view
+      List<BeanMetaData> binders;
       try
       {
-         if (!sessionBeanMetaData.isNoInterfaceBean())
+         if (this.parallelism > 1 && noInterfaceBeans.size() > 1)
          {
-            if (logger.isTraceEnabled())
+            binders = this.createBinderMetaDataInParallel(unit, namingEnvironment, noInterfaceBeans);
+         }
+         else
+         {
+            binders = new ArrayList<BeanMetaData>(noInterfaceBeans.size());
+            for (JBossSessionBean31MetaData sessionBean : noInterfaceBeans)
             {
-               logger.trace("Bean class " + sessionBeanMetaData.getEjbClass()
-                     + " is not eligible for no-interface view");
+               binders.add(this.createBinderMetaData(unit, namingEnvironment, sessionBean));
             }
-            return;
          }
-         Class<?> beanClass = Class.forName(sessionBeanMetaData.getEjbClass(), false, unit.getClassLoader());
-         this.createAndAttachNoInterfaceViewBinder(unit, beanClass, sessionBeanMetaData);
+      }
+      catch (DeploymentException de)
+      {
+         // undeploy isn't called for a unit which failed to deploy
+         this.undeploy(unit);
+         throw de;
+      }
+      // the binders are attached in the order of the beans in the metadata, whichever way they were created
+      for (BeanMetaData binder : binders)
+      {
+         this.attachBinder(unit, binder);
+      }
+
+   }
+
+   /**
+    * Creates the {@link BeanMetaData} of the no-interface view binders of the <code>sessionBeans</code>
+    * on the deployer's thread pool
+    *
+    * @param unit Deployment unit
+    * @param namingEnvironment The environment of the naming context of the deployment
+    * @param sessionBeans Metadata of the beans with a no-interface view
+    * @return The binder {@link BeanMetaData}, in the order of the <code>sessionBeans</code>
+    * @throws DeploymentException If the binder of any of the beans could not be created
+    */
+   private List<BeanMetaData> createBinderMetaDataInParallel(final DeploymentUnit unit,
+         final Hashtable<?, ?> namingEnvironment, List<JBossSessionBean31MetaData> sessionBeans)
+         throws DeploymentException
+   {
+      // the tasks see the same TCCL as a sequential deployment would
+      final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+      // set once any task failed, so that the tasks which haven't started yet don't create a binder
+      final AtomicBoolean failed = new AtomicBoolean();
+      ExecutorService executor = this.getExecutor();
+      List<Future<BeanMetaData>> futures = new ArrayList<Future<BeanMetaData>>(sessionBeans.size());
+      boolean created = false;
+      try
+      {
+         for (final JBossSessionBean31MetaData sessionBean : sessionBeans)
+         {
+            futures.add(submit(executor, new Callable<BeanMetaData>()
+            {
+               public BeanMetaData call() throws Exception
+               {
+                  if (failed.get())
+                  {
+                     return null;
+                  }
+                  Thread currentThread = Thread.currentThread();
+                  ClassLoader previousTCCL = currentThread.getContextClassLoader();
+                  currentThread.setContextClassLoader(tccl);
+                  try
+                  {
+                     return createBinderMetaData(unit, namingEnvironment, sessionBean);
+                  }
+                  catch (DeploymentException de)
+                  {
+                     failed.set(true);
+                     throw de;
+                  }
+                  finally
+                  {
+                     currentThread.setContextClassLoader(previousTCCL);
+                  }
+               }
+            }));
+         }
+         List<BeanMetaData> binders = new ArrayList<BeanMetaData>(futures.size());
+         for (Future<BeanMetaData> future : futures)
+         {
+            binders.add(future.get());
+         }
+         created = true;
+         return binders;
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         throw new DeploymentException("Interrupted while creating no-interface views of unit " + unit.getName());
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof DeploymentException)
+         {
+            throw (DeploymentException) cause;
+         }
+         throw new DeploymentException("Could not create no-interface views of unit " + unit.getName(), cause);
+      }
+      finally
+      {
+         if (!created)
+         {
+            // the unit is cleaned up once this returns, so wait for the tasks still running, which add
+            // to its attachments. Those which haven't started yet return right away
+            failed.set(true);
+            awaitAll(futures);
+         }
+      }
+   }
+
+   /**
+    * Waits for all the <code>futures</code> to complete, whatever their outcome
+    */
+   private static void awaitAll(List<? extends Future<?>> futures)
+   {
+      boolean interrupted = false;
+      for (Future<?> future : futures)
+      {
+         while (!future.isDone())
+         {
+            try
+            {
+               future.get();
+            }
+            catch (InterruptedException ie)
+            {
+               // the unit can't be cleaned up before the tasks are done, keep waiting
+               interrupted = true;
+            }
+            catch (ExecutionException ee)
+            {
+               // reported by the task which failed first
+            }
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Submits a task creating a binder to the thread pool of the parallel mode. If the pool has been shut
+    * down in the meantime (by {@link #setParallelism(int)} or {@link #stop()}), the task is run on the
+    * deploying thread.
+    */
+   private static <T> Future<T> submit(ExecutorService executor, Callable<T> task)
+   {
+      FutureTask<T> future = new FutureTask<T>(task);
+      try
+      {
+         executor.execute(future);
+      }
+      catch (RejectedExecutionException ree)
+      {
+         future.run();
+      }
+      return future;
+   }
 
+   /**
+    * Creates the {@link BeanMetaData} of a {@link AbstractNoInterfaceViewBinder} MC bean for the no-interface
+    * view represented by the <code>sessionBeanMetaData</code>.
+    * 
+    * The binder, thus created, will be dependent on the {@link ControllerState#INSTALLED}
+    * state of the container (endpoint) MC bean. This way, we ensure that the binder
+    * will be deployed only after the corresponding container MC bean moves to {@link ControllerState#INSTALLED}
+    * state.
+    *
+    * @param unit Deployment unit
+    * @param namingEnvironment The environment of the naming context of the deployment
+    * @param sessionBeanMetaData Session bean metadata, of a bean eligible for a no-interface view
+    * @return The binder {@link BeanMetaData}
+    * @throws DeploymentException If any exceptions are encountered during processing of the deployment unit
+    */
+   private BeanMetaData createBinderMetaData(DeploymentUnit unit, Hashtable<?, ?> namingEnvironment,
+         JBossSessionBean31MetaData sessionBeanMetaData) throws DeploymentException
+   {
+      try
+      {
+         Class<?> beanClass = Class.forName(sessionBeanMetaData.getEjbClass(), false, unit.getClassLoader());
+         return this.createNoInterfaceViewBinder(namingEnvironment, beanClass, sessionBeanMetaData,
+               this.getNoInterfaceViewFactory(unit), unit.getAttachment(ASYNC_DISPATCHER_ATTACHMENT_NAME,
+                     ExecutorAsyncDispatcher.class), unit.getAttachment(PROXY_BYTECODE_CACHE_ATTACHMENT_NAME,
+                     ProxyBytecodeCache.class), getBinders(unit));
       }
       catch (Throwable t)
       {
          DeploymentException.rethrowAsDeploymentException("Could not create no-interface view for "
                + sessionBeanMetaData.getEjbClass() + " in unit " + unit.getName(), t);
+         // unreachable
+         return null;
       }
    }
 
@@ -171,38 +554,196 @@ public class EJB3NoInterfaceDeployer extends AbstractDeployer
     * 
     * @param unit
     * @param deployment
+    * @see #undeploy(DeploymentUnit)
     */
    public void undeploy(DeploymentUnit unit, JBossMetaData deployment)
    {
-      // TODO Needs implementation
+      this.undeploy(unit);
+   }
 
+   /**
+    * Releases everything the no-interface views of the unit hold on to, so that nothing outlives
+    * the unit and keeps its classloader reachable:
+    * <ul>
+    * <li>the binder {@link BeanMetaData} are detached from the unit,</li>
+    * <li>the views still bound are unbound (usually MC has stopped the binders already, since they are
+    * MC beans deployed out of this deployer's output) and the binders let go of the beans,</li>
+    * <li>the asynchronous invocation dispatcher stops accepting invocations, and those in flight get up
+    * to the {@link #setUndeployTimeout(long) undeploy timeout} to complete before they are cancelled,</li>
+    * <li>the proxy classes of the beans are purged from the shared caches.</li>
+    * </ul>
+    * Synchronous invocations in flight are left to the containers: once the views are unbound, new
+    * invocations on views which were handed out fail fast (see
+    * {@link org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding}).
+    *
+    * @param unit Deployment unit
+    */
+   @Override
+   public void undeploy(DeploymentUnit unit)
+   {
+      @SuppressWarnings("unchecked")
+      Map<String, AbstractNoInterfaceViewBinder> binders = unit.removeAttachment(BINDERS_ATTACHMENT_NAME, Map.class);
+      if (binders != null)
+      {
+         List<AbstractNoInterfaceViewBinder> unitBinders;
+         synchronized (binders)
+         {
+            this.detachBinders(unit, binders.keySet());
+            unitBinders = new ArrayList<AbstractNoInterfaceViewBinder>(binders.values());
+            binders.clear();
+         }
+         this.releaseBinders(unit, unitBinders);
+      }
+      ExecutorAsyncDispatcher asyncDispatcher = unit.removeAttachment(ASYNC_DISPATCHER_ATTACHMENT_NAME,
+            ExecutorAsyncDispatcher.class);
+      if (asyncDispatcher != null && !asyncDispatcher.close(this.undeployTimeout, TimeUnit.MILLISECONDS))
+      {
+         logger.warn("Cancelled the asynchronous invocations on no-interface views of unit " + unit.getName()
+               + " still in flight after " + this.undeployTimeout + " ms");
+      }
+      unit.removeAttachment(PROXY_BYTECODE_CACHE_ATTACHMENT_NAME, ProxyBytecodeCache.class);
+      this.purgeCaches(unit);
    }
-   
-   private void createAndAttachNoInterfaceViewBinder(DeploymentUnit unit, Class<?> beanClass, JBossSessionBean31MetaData sessionBean)
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, AbstractNoInterfaceViewBinder> getBinders(DeploymentUnit unit)
+   {
+      return unit.getAttachment(BINDERS_ATTACHMENT_NAME, Map.class);
+   }
+
+   /**
+    * Removes the binder {@link BeanMetaData}, attached by {@link #attachBinder(DeploymentUnit, BeanMetaData)}
+    */
+   private void detachBinders(DeploymentUnit unit, Collection<String> binderNames)
+   {
+      DeploymentUnit attachmentUnit = unit.isComponent() ? unit.getParent() : unit;
+      for (String binderName : binderNames)
+      {
+         attachmentUnit.removeAttachment(BeanMetaData.class + ":" + binderName);
+      }
+   }
+
+   /**
+    * Unbinds the views which are still bound, and lets the binders go of the beans. The binders are
+    * released one after the other, on the undeploying thread.
+    */
+   private void releaseBinders(DeploymentUnit unit, List<AbstractNoInterfaceViewBinder> binders)
+   {
+      for (AbstractNoInterfaceViewBinder binder : binders)
+      {
+         releaseBinder(unit, binder);
+      }
+   }
+
+   private static void releaseBinder(DeploymentUnit unit, AbstractNoInterfaceViewBinder binder)
    {
-      Context initCtx;
       try
       {
-         initCtx = new InitialContext();
+         binder.release();
       }
-      catch (NamingException ne)
+      catch (Exception e)
+      {
+         logger.warn("Could not unbind a no-interface view of unit " + unit.getName(), e);
+      }
+   }
+
+   /**
+    * Returns the name of the subdirectory of the {@link #proxyBytecodeCacheDirectory} of the unit: its simple
+    * name, made unique by a hash of its full name
+    */
+   private static String getProxyBytecodeCacheName(DeploymentUnit unit)
+   {
+      return unit.getSimpleName().replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+            + Integer.toHexString(unit.getName().hashCode());
+   }
+
+   /**
+    * Purges the proxy classes of the beans of the unit from the shared caches
+    */
+   private void purgeCaches(DeploymentUnit unit)
+   {
+      ClassLoader classLoader;
+      try
+      {
+         classLoader = unit.getClassLoader();
+      }
+      catch (IllegalStateException ise)
+      {
+         // the classloader is gone already, so are its classes
+         return;
+      }
+      int purged = NoInterfaceViewClasses.purge(classLoader);
+      if (logger.isTraceEnabled())
       {
-         throw new RuntimeException(ne);
+         logger.trace("Purged " + purged + " no-interface view proxy classes of unit " + unit.getName());
+      }
+   }
+
+   /**
+    * Returns the proxy engine of the no-interface views of the unit: a {@link NoInterfaceViewFactory}
+    * attached to the unit (or to one of its parents), else the one configured on this deployer
+    *
+    * @param unit Deployment unit
+    * @return The proxy engine, null for the default one
+    */
+   private NoInterfaceViewFactory getNoInterfaceViewFactory(DeploymentUnit unit)
+   {
+      for (DeploymentUnit current = unit; current != null; current = current.getParent())
+      {
+         NoInterfaceViewFactory factory = current.getAttachment(NoInterfaceViewFactory.class);
+         if (factory != null)
+         {
+            return factory;
+         }
       }
-      JNDIPolicyBasedSessionBean31JNDINameResolver jndiNameResolver = new JNDIPolicyBasedSessionBean31JNDINameResolver();
-      String jndiName = jndiNameResolver.resolveNoInterfaceJNDIName(sessionBean);
+      return this.noInterfaceViewFactory;
+   }
+
+   private BeanMetaData createNoInterfaceViewBinder(Hashtable<?, ?> namingEnvironment, Class<?> beanClass,
+         JBossSessionBean31MetaData sessionBean, NoInterfaceViewFactory noInterfaceViewFactory,
+         ExecutorAsyncDispatcher asyncExecutorDispatcher, ProxyBytecodeCache bytecodeCache,
+         Map<String, AbstractNoInterfaceViewBinder> unitBinders) throws Exception
+   {
+      String jndiName = JNDI_NAME_RESOLVER.resolveNoInterfaceJNDIName(sessionBean);
       AbstractNoInterfaceViewBinder binder = null;
       if (sessionBean.isStateful())
       {
-         binder = new StatefulBeanNoInterfaceViewBinder(initCtx, jndiName, beanClass, sessionBean);
+         StatefulBeanNoInterfaceViewBinder statefulBinder = new StatefulBeanNoInterfaceViewBinder(null, jndiName,
+               beanClass, sessionBean);
+         statefulBinder.setSessionPoolConfig(this.statefulSessionPools.get(sessionBean.getEjbName()));
+         statefulBinder.setLazySession(this.lazyStatefulSessions);
+         statefulBinder.setSessionReclamation(this.reclaimUnreachableStatefulSessions);
+         binder = statefulBinder;
       }
       else
       {
-         binder = new SessionlessBeanNoInterfaceViewBinder(initCtx, jndiName, beanClass, sessionBean);
+         binder = new SessionlessBeanNoInterfaceViewBinder(null, jndiName, beanClass, sessionBean);
+      }
+      // the binder opens a naming context only while it binds or unbinds the view
+      binder.setNamingEnvironment(namingEnvironment);
+      binder.setMetricsEnabled(this.metricsEnabled);
+      binder.setMBeanServer(this.mbeanServer);
+      binder.setNoInterfaceViewFactory(noInterfaceViewFactory);
+      binder.setAsyncExecutorDispatcher(asyncExecutorDispatcher);
+      if (this.generateProxiesAheadOfTime)
+      {
+         if (bytecodeCache != null)
+         {
+            // the proxy class is defined from the cached bytecode if the bean class hasn't changed
+            bytecodeCache.register(beanClass);
+         }
+         NoInterfaceViewClass viewClass = NoInterfaceViewClasses.forBeanClass(noInterfaceViewFactory, beanClass);
+         // generates the class only: no view, and thus no bean class constructor call, at deployment
+         viewClass.generate();
+         // the binder keeps the generated proxy class alive till the view is bound
+         binder.setViewClass(viewClass);
       }
       String containerName = sessionBean.getContainerName();
       String binderName = containerName + ",type=nointerface-view-jndi-binder";
       
+      // undeploy releases the binder, whether MC has stopped it or not
+      unitBinders.put(binderName, binder);
+
       BeanMetaDataBuilder builder = BeanMetaDataBuilder.createBuilder(binderName, binder.getClass().getName());
       builder.setConstructorValue(binder);
       
@@ -220,20 +761,355 @@ public class EJB3NoInterfaceDeployer extends AbstractDeployer
       // Too bad we have to know the field name. Need to do more research on MC to see if we can
       // add property metadata based on type instead of field name.
       builder.addPropertyMetaData("endpointContext", injectMetaData);
-      
+
+      return builder.getBeanMetaData();
+   }
+
+   /**
+    * Attaches the {@link BeanMetaData} of a no-interface view binder to the deployment unit
+    *
+    * @param unit Deployment unit
+    * @param binder The binder {@link BeanMetaData}
+    */
+   private void attachBinder(DeploymentUnit unit, BeanMetaData binder)
+   {
+      String binderName = binder.getName();
       if (unit.isComponent())
       {
          // Attach it to parent since we are processing a component DU and BeanMetaDataDeployer doesn't
          // pick up BeanMetaData from component DU
-         unit.getParent().addAttachment(BeanMetaData.class + ":" + binderName, builder.getBeanMetaData());
+         unit.getParent().addAttachment(BeanMetaData.class + ":" + binderName, binder);
       }
       else
       {
-         unit.addAttachment(BeanMetaData.class + ":" + binderName, builder.getBeanMetaData());
+         unit.addAttachment(BeanMetaData.class + ":" + binderName, binder);
       }
       
-      logger.debug("No-interface JNDI binder for container " + containerName + " has been created and added to the deployment unit " + unit);
+      logger.debug("No-interface JNDI binder " + binderName + " has been created and added to the deployment unit " + unit);
+
+   }
+
+   /**
+    * Returns the thread pool on which the binders are created in parallel, creating it on first use
+    */
+   private synchronized ExecutorService getExecutor()
+   {
+      if (this.executor == null)
+      {
+         ThreadPoolExecutor threadPool = new ThreadPoolExecutor(this.parallelism, this.parallelism, 60,
+               TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+               {
+                  private final AtomicInteger threadNumber = new AtomicInteger();
+
+                  public Thread newThread(Runnable r)
+                  {
+                     Thread thread = new Thread(r, "NoInterfaceViewDeployer-" + threadNumber.incrementAndGet());
+                     thread.setDaemon(true);
+                     return thread;
+                  }
+               });
+         // the pool is only busy while deploying, don't keep the threads around in between
+         threadPool.allowCoreThreadTimeOut(true);
+         this.executor = threadPool;
+      }
+      return this.executor;
+   }
+
+   /**
+    * Lifecycle callback, shuts down the thread pool of the parallel mode, if it was used
+    */
+   public synchronized void stop()
+   {
+      if (this.executor != null)
+      {
+         this.executor.shutdown();
+         this.executor = null;
+      }
+   }
+
+
+   /**
+    * Returns the configuration of the pools of pre-created sessions, keyed by ejb-name
+    *
+    * @return
+    */
+   public Map<String, StatefulSessionPoolConfig> getStatefulSessionPools()
+   {
+      return this.statefulSessionPools;
+   }
+
+   /**
+    * Sets the configuration of the pools of sessions which are created ahead of the lookups of
+    * no-interface views of stateful beans, keyed by the ejb-name of the beans. Sessions of
+    * beans not present in this map are not pooled.
+    *
+    * @param statefulSessionPools
+    */
+   public void setStatefulSessionPools(Map<String, StatefulSessionPoolConfig> statefulSessionPools)
+   {
+      this.statefulSessionPools = statefulSessionPools == null
+            ? Collections.<String, StatefulSessionPoolConfig> emptyMap()
+            : statefulSessionPools;
+   }
+
+   /**
+    * Returns true if the sessions of stateful no-interface views are created lazily
+    *
+    * @return
+    */
+   public boolean isLazyStatefulSessions()
+   {
+      return this.lazyStatefulSessions;
+   }
+
+   /**
+    * Sets whether the sessions of stateful no-interface views are created on the first business
+    * method invocation on the view, instead of when the view is looked up (or injected). Views
+    * which are never invoked then never create a session. Defaults to false.
+    *
+    * @param lazyStatefulSessions
+    */
+   public void setLazyStatefulSessions(boolean lazyStatefulSessions)
+   {
+      this.lazyStatefulSessions = lazyStatefulSessions;
+   }
+
+   /**
+    * Returns true if the sessions of unreachable stateful no-interface views are destroyed
+    *
+    * @return
+    */
+   public boolean isReclaimUnreachableStatefulSessions()
+   {
+      return this.reclaimUnreachableStatefulSessions;
+   }
+
+   /**
+    * Sets whether the session of a stateful no-interface view is destroyed as soon as the garbage
+    * collector finds the view unreachable, instead of being left to the idle timeout of the container.
+    * The sessions are destroyed in batches, by a background thread. Defaults to false.
+    *
+    * @param reclaimUnreachableStatefulSessions
+    */
+   public void setReclaimUnreachableStatefulSessions(boolean reclaimUnreachableStatefulSessions)
+   {
+      this.reclaimUnreachableStatefulSessions = reclaimUnreachableStatefulSessions;
+   }
+
+   /**
+    * Returns true if invocations on the no-interface views are recorded
+    *
+    * @return
+    */
+   public boolean isMetricsEnabled()
+   {
+      return this.metricsEnabled;
+   }
 
+   /**
+    * Sets whether invocations on the no-interface views are recorded (per method call, error and
+    * asynchronous call counts, and latencies) and exposed through an MBean per view. Defaults to false.
+    *
+    * @param metricsEnabled
+    */
+   public void setMetricsEnabled(boolean metricsEnabled)
+   {
+      this.metricsEnabled = metricsEnabled;
+   }
+
+   /**
+    * Sets the MBeanServer to which the metrics MBeans are registered. Defaults to the
+    * platform MBeanServer.
+    *
+    * @param mbeanServer
+    */
+   public void setMBeanServer(MBeanServer mbeanServer)
+   {
+      this.mbeanServer = mbeanServer;
+   }
+
+   /**
+    * Returns the number of threads creating the no-interface view binders of a unit in parallel
+    *
+    * @return
+    */
+   public int getParallelism()
+   {
+      return this.parallelism;
+   }
+
+   /**
+    * Sets the number of threads creating the no-interface view binders (loading the bean class,
+    * resolving the jndi name and creating the binder {@link BeanMetaData}) of a unit in parallel.
+    * The binders are attached to the unit in the same order either way. Defaults to 1, which
+    * creates them sequentially on the deploying thread.
+    *
+    * @param parallelism
+    */
+   public synchronized void setParallelism(int parallelism)
+   {
+      if (parallelism < 1)
+      {
+         throw new IllegalArgumentException("Parallelism must be at least 1, was " + parallelism);
+      }
+      this.parallelism = parallelism;
+      // a pool sized for the new parallelism will be created on next use. The tasks already submitted
+      // to the previous one still run, a deploy in progress runs the tasks it submits from now on itself
+      if (this.executor != null)
+      {
+         this.executor.shutdown();
+         this.executor = null;
+      }
+   }
+
+   /**
+    * Returns true if the proxy classes of the no-interface views are generated at deployment
+    *
+    * @return
+    */
+   public boolean isGenerateProxiesAheadOfTime()
+   {
+      return this.generateProxiesAheadOfTime;
+   }
+
+   /**
+    * Sets whether the proxy classes of the no-interface views of a unit are generated while the
+    * unit is deployed (along with the binders, and thus in parallel in parallel mode), instead of
+    * when the view of a stateless bean is bound, or the view of a stateful bean is first looked up.
+    * Only the classes are generated, no view is created (which would run the constructor of the bean
+    * class), so this only applies to proxy engines able to generate a proxy class by itself, like the
+    * default and the direct dispatch engines. See also {@link #setProxyBytecodeCacheDirectory(File)}.
+    * Defaults to false.
+    *
+    * @param generateProxiesAheadOfTime
+    */
+   public void setGenerateProxiesAheadOfTime(boolean generateProxiesAheadOfTime)
+   {
+      this.generateProxiesAheadOfTime = generateProxiesAheadOfTime;
+   }
+
+   /**
+    * Returns the directory under which the bytecode of the proxy classes generated ahead of time is cached
+    *
+    * @return The directory, null if the bytecode isn't cached
+    */
+   public File getProxyBytecodeCacheDirectory()
+   {
+      return this.proxyBytecodeCacheDirectory;
+   }
+
+   /**
+    * Sets the directory under which the bytecode of the proxy classes generated ahead of time (see
+    * {@link #setGenerateProxiesAheadOfTime(boolean)}) is cached, in a subdirectory per unit. On redeploy,
+    * or after a restart, the proxy class of a bean class which hasn't changed is defined from the cached
+    * bytecode instead of being generated anew (see {@link ProxyBytecodeCache}). Defaults to null, which
+    * doesn't cache the bytecode.
+    *
+    * @param proxyBytecodeCacheDirectory
+    */
+   public void setProxyBytecodeCacheDirectory(File proxyBytecodeCacheDirectory)
+   {
+      this.proxyBytecodeCacheDirectory = proxyBytecodeCacheDirectory;
+   }
+
+   /**
+    * Returns the proxy engine creating the no-interface views, null for the default one
+    *
+    * @return
+    */
+   public NoInterfaceViewFactory getNoInterfaceViewFactory()
+   {
+      return this.noInterfaceViewFactory;
+   }
+
+   /**
+    * Sets the proxy engine creating the no-interface views of all the units, unless a unit
+    * has its own {@link NoInterfaceViewFactory} attached. Defaults to the first engine
+    * registered as a <code>META-INF/services</code> provider, if any, else the cached
+    * javassist engine.
+    *
+    * @param noInterfaceViewFactory
+    */
+   public void setNoInterfaceViewFactory(NoInterfaceViewFactory noInterfaceViewFactory)
+   {
+      this.noInterfaceViewFactory = noInterfaceViewFactory;
+   }
+
+   /**
+    * Returns the executor running the asynchronous invocations on the no-interface views
+    *
+    * @return The executor, null if the invocations are handed to the container
+    */
+   public Executor getAsyncExecutor()
+   {
+      return this.asyncExecutor;
+   }
+
+   /**
+    * Sets the executor running the @Asynchronous methods invoked through the no-interface views,
+    * instead of handing them to the container. The executor isn't managed by this deployer, which
+    * neither starts nor shuts it down. @Asynchronous methods returning a <code>CompletionStage</code>
+    * can only be invoked with an executor set. Defaults to null, i.e. the container runs the invocations.
+    *
+    * @param asyncExecutor
+    */
+   public void setAsyncExecutor(Executor asyncExecutor)
+   {
+      this.asyncExecutor = asyncExecutor;
+   }
+
+   /**
+    * Returns the maximum number of asynchronous invocations of a unit in flight on the async executor
+    *
+    * @return
+    */
+   public int getMaxConcurrentAsyncInvocations()
+   {
+      return this.maxConcurrentAsyncInvocations;
+   }
+
+   /**
+    * Sets the maximum number of asynchronous invocations of a unit in flight on the async executor.
+    * Once reached, a client invoking an @Asynchronous method waits for an invocation to complete.
+    * Defaults to 0, i.e. no limit.
+    *
+    * @param maxConcurrentAsyncInvocations
+    */
+   public void setMaxConcurrentAsyncInvocations(int maxConcurrentAsyncInvocations)
+   {
+      if (maxConcurrentAsyncInvocations < 0)
+      {
+         throw new IllegalArgumentException("Maximum number of concurrent async invocations can't be negative: "
+               + maxConcurrentAsyncInvocations);
+      }
+      this.maxConcurrentAsyncInvocations = maxConcurrentAsyncInvocations;
+   }
+
+   /**
+    * Returns the maximum time, in milliseconds, undeploy waits for the asynchronous invocations of a unit
+    * in flight to complete
+    *
+    * @return
+    */
+   public long getUndeployTimeout()
+   {
+      return this.undeployTimeout;
+   }
+
+   /**
+    * Sets the maximum time, in milliseconds, undeploy waits for the asynchronous invocations of the unit
+    * in flight on the async executor to complete. The invocations still in flight after that are
+    * cancelled. Defaults to 10000.
+    *
+    * @param undeployTimeout
+    */
+   public void setUndeployTimeout(long undeployTimeout)
+   {
+      if (undeployTimeout < 0)
+      {
+         throw new IllegalArgumentException("Undeploy timeout can't be negative: " + undeployTimeout);
+      }
+      this.undeployTimeout = undeployTimeout;
    }
 
 }
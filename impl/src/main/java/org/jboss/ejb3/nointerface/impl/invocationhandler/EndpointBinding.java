@@ -0,0 +1,180 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import javax.ejb.NoSuchEJBException;
+
+import org.jboss.dependency.spi.ControllerState;
+import org.jboss.ejb3.endpoint.Endpoint;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+
+/**
+ * EndpointBinding
+ *
+ * Holds on to the {@link Endpoint} of a bean on behalf of all the no-interface views of the bean,
+ * so that business method invocations don't go through the {@link KernelControllerContext} of the
+ * endpoint (and its cast) every time.
+ * <p>
+ * The endpoint is looked up from its context till the context has been seen in INSTALLED state,
+ * and served from a volatile field from then on. The owner of the binding (the JNDI binder of the
+ * views, which depends on the INSTALLED state of the endpoint and is thus stopped before the endpoint
+ * leaves it) calls {@link #invalidate()} when the endpoint is stopped or undeployed. Views then fail
+ * fast with a {@link NoSuchEJBException} instead of invoking a stopped container.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class EndpointBinding
+{
+   /**
+    * The context of the endpoint
+    */
+   private final KernelControllerContext endpointContext;
+
+   /**
+    * The endpoint, once its context has been seen INSTALLED. Null till then and after {@link #invalidate()}
+    */
+   private volatile Endpoint endpoint;
+
+   /**
+    * True once the endpoint has been stopped or undeployed
+    */
+   private volatile boolean invalidated;
+
+   /**
+    * Constructor
+    *
+    * @param endpointContext The context of the endpoint
+    */
+   public EndpointBinding(KernelControllerContext endpointContext)
+   {
+      if (endpointContext == null)
+      {
+         throw new IllegalArgumentException("Endpoint context must be specified");
+      }
+      this.endpointContext = endpointContext;
+   }
+
+   /**
+    * Returns the context of the endpoint
+    *
+    * @return
+    */
+   public KernelControllerContext getEndpointContext()
+   {
+      return this.endpointContext;
+   }
+
+   /**
+    * Returns the endpoint
+    *
+    * @return
+    * @throws NoSuchEJBException If the endpoint has been stopped or undeployed
+    */
+   public Endpoint getEndpoint()
+   {
+      Endpoint endpoint = this.endpoint;
+      if (endpoint != null)
+      {
+         return endpoint;
+      }
+      return this.lookupEndpoint();
+   }
+
+   /**
+    * Fails unless the endpoint is still around. Meant for the invocations which don't need the
+    * endpoint itself.
+    *
+    * @throws NoSuchEJBException If the endpoint has been stopped or undeployed
+    */
+   public void checkValid()
+   {
+      if (this.invalidated)
+      {
+         throw this.noSuchEJB();
+      }
+   }
+
+   private Endpoint lookupEndpoint()
+   {
+      this.checkValid();
+      Endpoint endpoint;
+      try
+      {
+         // EJBTHREE-2166 - Changing state through MC API won't work. So for now,
+         // we are going to rely on an already INSTALLED endpoint context
+         endpoint = (Endpoint) this.endpointContext.getTarget();
+      }
+      catch (Throwable t)
+      {
+         throw new RuntimeException("Error getting endpoint out of container KernelControllerContext "
+               + this.endpointContext, t);
+      }
+      if (endpoint != null && ControllerState.INSTALLED.equals(this.endpointContext.getState()))
+      {
+         synchronized (this)
+         {
+            // don't resurrect an endpoint which got invalidated in the meantime
+            if (!this.invalidated)
+            {
+               this.endpoint = endpoint;
+            }
+         }
+      }
+      return endpoint;
+   }
+
+   /**
+    * Forgets the endpoint, which is being stopped or undeployed. From then on, invocations
+    * through this binding fail with a {@link NoSuchEJBException}.
+    */
+   public synchronized void invalidate()
+   {
+      this.invalidated = true;
+      this.endpoint = null;
+   }
+
+   /**
+    * Returns true once {@link #invalidate()} has been called
+    *
+    * @return
+    */
+   public boolean isInvalidated()
+   {
+      return this.invalidated;
+   }
+
+   private NoSuchEJBException noSuchEJB()
+   {
+      return new NoSuchEJBException("Endpoint " + this.endpointContext.getName()
+            + " has been stopped or undeployed");
+   }
+
+   /**
+    * @see Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "EndpointBinding[" + this.endpointContext.getName() + (this.invalidated ? ", invalidated]" : "]");
+   }
+}
@@ -0,0 +1,270 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import static java.lang.reflect.Modifier.isFinal;
+import static java.lang.reflect.Modifier.isNative;
+import static java.lang.reflect.Modifier.isPublic;
+import static java.lang.reflect.Modifier.isStatic;
+
+import java.lang.reflect.Method;
+
+import org.jboss.ejb3.async.spi.AsyncUtil;
+import org.jboss.ejb3.nointerface.impl.async.CompletionStages;
+import org.jboss.logging.Logger;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+
+/**
+ * MethodDispatch
+ *
+ * Immutable description of how a call to a single method of a no-interface view
+ * has to be dispatched. Instances are computed once, when the {@link MethodDispatchTable}
+ * of a bean is built, so that invocations don't have to repeatedly decode modifiers or scan
+ * the {@link AsyncMethodsMetaData} of the bean.
+ *
+ * @version $Revision: $
+ * @see MethodDispatchTable
+ */
+public final class MethodDispatch
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(MethodDispatch.class);
+
+   /**
+    * Position of the method in its {@link MethodDispatchTable}, or -1 if the method
+    * isn't part of the table
+    */
+   private final int index;
+
+   private final Method method;
+
+   private final boolean handled;
+
+   private final boolean async;
+
+   /**
+    * The kind of Object method, null for any other method
+    */
+   private final ObjectMethodKind objectMethodKind;
+
+   /**
+    * True if a call to the method can skip the interceptor chain of the view
+    */
+   private final boolean direct;
+
+   /**
+    * True if a call to the method can be handed straight to the asynchronous dispatch of the view
+    */
+   private final boolean directAsync;
+
+   /**
+    * True if the method is @Asynchronous and returns a CompletionStage (or CompletableFuture)
+    */
+   private final boolean completionStage;
+
+   private MethodDispatch(int index, Method method, boolean handled, boolean async,
+         ObjectMethodKind objectMethodKind)
+   {
+      this.index = index;
+      this.method = method;
+      this.handled = handled;
+      this.async = async;
+      this.objectMethodKind = objectMethodKind;
+      this.direct = handled && !async && objectMethodKind == null;
+      this.directAsync = handled && async && objectMethodKind == null;
+      this.completionStage = async && CompletionStages.isCompletionStageType(method.getReturnType());
+   }
+
+   /**
+    * Computes the dispatch of <code>method</code>
+    *
+    * @param index Position of the method in its table, -1 if none
+    * @param method The method
+    * @param asyncMethods The @Asynchronous methods of the bean
+    * @return
+    */
+   static MethodDispatch create(int index, Method method, AsyncMethodsMetaData asyncMethods)
+   {
+      boolean async = AsyncUtil.methodIsAsynchronous(method, asyncMethods);
+      return new MethodDispatch(index, method, isHandled(method), async, ObjectMethodKind.of(method));
+   }
+
+   /**
+    * Returns true if <code>method</code> can be invoked through a no-interface view.
+    * Only public, non-static, non-final and non-native methods are allowed.
+    *
+    * @param method
+    * @return
+    */
+   private static boolean isHandled(Method method)
+   {
+      int m = method.getModifiers();
+      // We handle only public, non-static, non-final methods
+      if (!isPublic(m))
+      {
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Method " + method + " is *not* public");
+         }
+         // it's not a public method
+         return false;
+      }
+      if (isFinal(m))
+      {
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Method " + method + " is final");
+         }
+         // it's a final method
+         return false;
+      }
+      if (isStatic(m))
+      {
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Method " + method + " is static");
+         }
+         // it's a static method
+         return false;
+      }
+      if (isNative(m))
+      {
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Method " + method + " is native");
+         }
+         // it's a native method
+         return false;
+      }
+      // we handle rest of the methods
+      return true;
+   }
+
+   /**
+    * Returns the position of the method in its {@link MethodDispatchTable}, or -1
+    * if the method isn't part of the table
+    *
+    * @return
+    */
+   public int getIndex()
+   {
+      return this.index;
+   }
+
+   /**
+    * Returns the method this dispatch describes
+    *
+    * @return
+    */
+   public Method getMethod()
+   {
+      return this.method;
+   }
+
+   /**
+    * Returns true if the method is allowed to be invoked on the no-interface view
+    * (only public, non-static, non-final and non-native methods are)
+    *
+    * @return
+    */
+   public boolean isHandled()
+   {
+      return this.handled;
+   }
+
+   /**
+    * Returns true if the method is an @Asynchronous method of the bean
+    *
+    * @return
+    */
+   public boolean isAsync()
+   {
+      return this.async;
+   }
+
+   /**
+    * Returns true if the method is one of the {@link Object} methods (equals, hashCode
+    * and toString) handled by the view itself
+    *
+    * @return
+    */
+   public boolean isObjectMethod()
+   {
+      return this.objectMethodKind != null;
+   }
+
+   /**
+    * Returns the kind of {@link Object} method handled by the view itself, or null
+    * if the method isn't one of them
+    *
+    * @return
+    */
+   public ObjectMethodKind getObjectMethodKind()
+   {
+      return this.objectMethodKind;
+   }
+
+   /**
+    * Returns true if the method is a plain, synchronous, business method. None of the
+    * interceptors of the view act on such a method, so a call to it can be passed
+    * straight on to the endpoint.
+    *
+    * @return
+    */
+   public boolean isDirect()
+   {
+      return this.direct;
+   }
+
+   /**
+    * Returns true if the method is an @Asynchronous business method. The asynchronous dispatch
+    * being the last interceptor of the view, and none of the interceptors before it acting on
+    * business methods, a call to such a method can be handed straight to the asynchronous dispatch.
+    *
+    * @return
+    */
+   public boolean isDirectAsync()
+   {
+      return this.directAsync;
+   }
+
+   /**
+    * Returns true if the method is an @Asynchronous method returning a <code>CompletionStage</code>
+    * or a <code>CompletableFuture</code> (see {@link CompletionStages})
+    *
+    * @return
+    */
+   public boolean isCompletionStage()
+   {
+      return this.completionStage;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "MethodDispatch[" + this.index + "] " + this.method + " (handled=" + this.handled + ", async="
+            + this.async + ", objectMethod=" + this.objectMethodKind + ")";
+   }
+}
@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+
+/**
+ * MethodDispatchTable
+ *
+ * Maps each {@link Method} of a no-interface view to its precomputed {@link MethodDispatch}.
+ * A table is built once per bean (when the no-interface view binder or the stateful proxy factory
+ * is set up) and shared by all the views of that bean.
+ * <p>
+ * Lookups first go through an identity keyed cache. Proxies pass the same {@link Method} instances
+ * on every call, so after the first call through a proxy method, a lookup is a single identity
+ * hash probe. The first lookup of a {@link Method} instance falls back to a {@link Method#equals(Object)}
+ * based lookup (and, for methods which aren't part of the bean class, computes the dispatch) and then
+ * publishes the instance to the identity cache.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class MethodDispatchTable
+{
+
+   /**
+    * The methods of the {@link Object} class, which are handled by the view
+    * even when the view is created for an interface
+    */
+   private static final Method[] OBJECT_METHODS;
+
+   static
+   {
+      try
+      {
+         OBJECT_METHODS = new Method[]
+         {Object.class.getDeclaredMethod("equals", Object.class), Object.class.getDeclaredMethod("hashCode"),
+               Object.class.getDeclaredMethod("toString")};
+      }
+      catch (NoSuchMethodException e)
+      {
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * Orders methods by name, parameter types and return type
+    */
+   private static final Comparator<Method> SIGNATURE_ORDER = new Comparator<Method>()
+   {
+      public int compare(Method m1, Method m2)
+      {
+         return signatureOf(m1).compareTo(signatureOf(m2));
+      }
+   };
+
+   /**
+    * Upper bound of the identity cache, expressed as a multiple of the number of bean methods
+    */
+   private static final int MAX_METHOD_INSTANCES_FACTOR = 4;
+
+   /**
+    * @Asynchronous methods of the bean
+    */
+   private final AsyncMethodsMetaData asyncMethods;
+
+   /**
+    * The dispatches of the bean methods, indexed by {@link MethodDispatch#getIndex()}
+    */
+   private final MethodDispatch[] dispatches;
+
+   /**
+    * The dispatches of the bean methods, keyed by {@link Method#equals(Object)}
+    */
+   private final Map<Method, MethodDispatch> dispatchesByMethod;
+
+   /**
+    * Copy-on-write, identity keyed, cache of the {@link Method} instances seen so far
+    */
+   private volatile Map<Method, MethodDispatch> dispatchesByMethodInstance;
+
+   /**
+    * Builds the dispatch table for the public methods of <code>beanClass</code>
+    *
+    * @param beanClass The bean class (or business interface) of the no-interface view
+    * @param asyncMethods The @Asynchronous methods of the bean
+    */
+   public MethodDispatchTable(Class<?> beanClass, AsyncMethodsMetaData asyncMethods)
+   {
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+      if (asyncMethods == null)
+      {
+         throw new IllegalArgumentException("asyncMethods must be specified");
+      }
+      this.asyncMethods = asyncMethods;
+
+      Method[] methods = indexedMethods(beanClass);
+      this.dispatches = new MethodDispatch[methods.length];
+      Map<Method, MethodDispatch> byMethod = new HashMap<Method, MethodDispatch>(methods.length * 2);
+      Map<Method, MethodDispatch> byMethodInstance = new IdentityHashMap<Method, MethodDispatch>(methods.length);
+      for (int i = 0; i < this.dispatches.length; i++)
+      {
+         Method method = methods[i];
+         MethodDispatch dispatch = MethodDispatch.create(i, method, asyncMethods);
+         this.dispatches[i] = dispatch;
+         byMethod.put(method, dispatch);
+         byMethodInstance.put(method, dispatch);
+      }
+      this.dispatchesByMethod = byMethod;
+      this.dispatchesByMethodInstance = byMethodInstance;
+   }
+
+   /**
+    * Returns the methods of a dispatch table built for <code>beanClass</code>, in index order:
+    * the public methods of the class, sorted by signature, followed by the {@link Object} methods handled
+    * by the view if the class doesn't expose them. The order only depends on the class, so separately
+    * built tables (and proxy classes generated against them) agree on the index of each method.
+    *
+    * @param beanClass The bean class (or business interface) of the no-interface view
+    * @return
+    */
+   public static Method[] indexedMethods(Class<?> beanClass)
+   {
+      List<Method> methods = new ArrayList<Method>();
+      Collections.addAll(methods, beanClass.getMethods());
+      // the order of getMethods() is unspecified
+      Collections.sort(methods, SIGNATURE_ORDER);
+      // interfaces don't expose the Object methods through getMethods()
+      for (Method objectMethod : OBJECT_METHODS)
+      {
+         if (!methods.contains(objectMethod))
+         {
+            methods.add(objectMethod);
+         }
+      }
+      return methods.toArray(new Method[methods.size()]);
+   }
+
+   private static String signatureOf(Method method)
+   {
+      StringBuilder sb = new StringBuilder(method.getName()).append('(');
+      for (Class<?> parameterType : method.getParameterTypes())
+      {
+         sb.append(parameterType.getName()).append(';');
+      }
+      // bridge methods only differ from the method they bridge by their return type
+      return sb.append(')').append(method.getReturnType().getName()).toString();
+   }
+
+   /**
+    * Returns the {@link MethodDispatch} for <code>method</code>. Methods which don't belong
+    * to the bean class are dispatched too (with an index of -1), so this method never returns null.
+    *
+    * @param method The invoked method
+    * @return
+    */
+   public MethodDispatch lookup(Method method)
+   {
+      MethodDispatch dispatch = this.dispatchesByMethodInstance.get(method);
+      if (dispatch != null)
+      {
+         return dispatch;
+      }
+      dispatch = this.dispatchesByMethod.get(method);
+      if (dispatch == null)
+      {
+         dispatch = MethodDispatch.create(-1, method, this.asyncMethods);
+      }
+      // publish the instance. Concurrent publications may lose each other's entries,
+      // which only costs another (equals based) lookup later. The cache is bounded so that callers
+      // passing a new Method instance on every call don't make it grow without limits.
+      Map<Method, MethodDispatch> current = this.dispatchesByMethodInstance;
+      if (current.size() < MAX_METHOD_INSTANCES_FACTOR * this.dispatches.length)
+      {
+         Map<Method, MethodDispatch> copy = new IdentityHashMap<Method, MethodDispatch>(current);
+         copy.put(method, dispatch);
+         this.dispatchesByMethodInstance = copy;
+      }
+      return dispatch;
+   }
+
+   /**
+    * Returns the {@link MethodDispatch} at position <code>index</code>
+    *
+    * @param index
+    * @return
+    * @throws ArrayIndexOutOfBoundsException If there's no such position in the table
+    */
+   public MethodDispatch get(int index)
+   {
+      return this.dispatches[index];
+   }
+
+   /**
+    * Returns the number of bean methods in this table
+    *
+    * @return
+    */
+   public int size()
+   {
+      return this.dispatches.length;
+   }
+}
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+/**
+ * NoInterfaceViewDispatcher
+ *
+ * Receives the calls of no-interface views whose proxy classes are generated with one stub
+ * per bean method. The stubs identify the invoked method by its index in the {@link MethodDispatchTable}
+ * of the bean class (see {@link MethodDispatchTable#indexedMethods(Class)}), which spares the
+ * {@link Method} lookup an {@link InvocationHandler} has to do.
+ *
+ * @version $Revision: $
+ */
+public interface NoInterfaceViewDispatcher
+{
+   /**
+    * Processes a method invocation on a no-interface view
+    *
+    * @param proxy The no-interface view on which the method was invoked
+    * @param methodIndex Index, in the dispatch table of the bean class, of the invoked method
+    * @param args The arguments of the invocation, null if the method has no parameters
+    * @return The value to return from the invocation
+    * @throws Throwable The exception to throw from the invocation
+    */
+   Object invoke(Object proxy, int methodIndex, Object[] args) throws Throwable;
+}
@@ -21,126 +21,360 @@
  */
 package org.jboss.ejb3.nointerface.impl.invocationhandler;
 
-import org.jboss.ejb3.async.spi.AsyncEndpoint;
 import org.jboss.ejb3.endpoint.Endpoint;
-import org.jboss.ejb3.nointerface.impl.async.AsyncClientInterceptor;
-import org.jboss.ejb3.sis.Interceptor;
-import org.jboss.ejb3.sis.InterceptorAssembly;
-import org.jboss.ejb3.sis.reflect.InterceptorInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.spi.endpoint.PreparedInvocation;
 import org.jboss.kernel.spi.dependency.KernelControllerContext;
-import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
 
 import java.io.Serializable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 
-import static java.lang.reflect.Modifier.isFinal;
-import static java.lang.reflect.Modifier.isNative;
-import static java.lang.reflect.Modifier.isPublic;
-import static java.lang.reflect.Modifier.isStatic;
-
 /**
  * NoInterfaceViewInvocationHandler
  *
  * An {@link InvocationHandler} which corresponds to the
  * no-interface view of a EJB container. All calls on the no-interface
  * view are routed through this {@link InvocationHandler} to the container.
- *
+ * <p>
+ * Everything but the session is kept in a {@link SharedViewState}, which all the views of
+ * a bean usually share, so that the (possibly many) stateful views of a bean cost little more
+ * than their session.
+ * </p>
  *
  * @author Jaikiran Pai
  * @version $Revision: $
  */
-public class NoInterfaceViewInvocationHandler implements InvocationHandler
+public class NoInterfaceViewInvocationHandler implements InvocationHandler, NoInterfaceViewDispatcher
 {
 
    /**
-    * Logger
+    * The state shared by the views of the bean: the endpoint (and its KernelControllerContext) to
+    * which all calls to this invocation handler will be forwarded, the dispatch of the methods of the
+    * bean, and so on. Replaced (never modified) by the setters, which are called before the view is
+    * handed out.
     */
-   private static Logger logger = Logger.getLogger(NoInterfaceViewInvocationHandler.class);
+   private SharedViewState state;
 
    /**
-    * The KernelControllerContext corresponding to the endpoint for which
-    * the no-interface view is to be created by this factory. This context
-    * may <i>not</i> be in INSTALLED state. This factory is responsible
-    * for pushing it to INSTALLED state whenever necessary. 
-    * 
-    * All calls to this invocation handler will be forwarded to the container represented
-    * by this context
-    * 
-    *
+    * The session used to interact with the {@link Endpoint}. Null for beans which
+    * aren't session aware, and for lazily created sessions till they are created
+    */
+   private volatile Serializable session;
+
+   /**
+    * Creates the session on first use, null unless the session is created lazily
     */
-   private KernelControllerContext endpointContext;
+   private SessionInitializer sessionInitializer;
 
    /**
-    * The session used to interact with the {@link Endpoint}
+    * True if the session of this view is created lazily
     */
-   private Serializable session;
+   private final boolean lazySession;
 
    /**
-    * The business interface (== bean class, since this is a no-interface view) on
-    * which the proxy invocation happens.
+    * The hash code of the view, computed once since neither the endpoint context nor the
+    * session (once given, or else the identity of a lazily created one) ever changes
     */
-   private Class<?> businessInterface;
+   private final int hashCode;
 
-   private InvocationHandler delegate;
-   
    /**
     * Constructor
     */
    public NoInterfaceViewInvocationHandler(KernelControllerContext endpointContext, Serializable session, Class<?> businessInterface,final AsyncMethodsMetaData asyncMethods)
    {
-      assert endpointContext != null : "Endpoint context is null for no-interface view invocation handler";
-      this.endpointContext = endpointContext;
+      this(endpointContext, session, businessInterface, new MethodDispatchTable(businessInterface, asyncMethods));
+   }
+
+   /**
+    * Constructor
+    *
+    * @param endpointContext The context of the endpoint to which the calls are forwarded
+    * @param session The session, null for beans which aren't session aware
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class, usually shared by all views of the bean
+    */
+   public NoInterfaceViewInvocationHandler(KernelControllerContext endpointContext, Serializable session,
+         Class<?> businessInterface, MethodDispatchTable dispatchTable)
+   {
+      this(new EndpointBinding(endpointContext), session, businessInterface, dispatchTable);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param endpointBinding The binding of the endpoint to which the calls are forwarded, usually shared
+    *           by all views of the bean
+    * @param session The session, null for beans which aren't session aware
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class, usually shared by all views of the bean
+    */
+   public NoInterfaceViewInvocationHandler(EndpointBinding endpointBinding, Serializable session,
+         Class<?> businessInterface, MethodDispatchTable dispatchTable)
+   {
+      this(new SharedViewState(endpointBinding, businessInterface, dispatchTable), session);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param state The state shared by the views of the bean
+    * @param session The session, null for beans which aren't session aware
+    */
+   public NoInterfaceViewInvocationHandler(SharedViewState state, Serializable session)
+   {
+      this(state, session, null);
+   }
+
+   /**
+    * Creates an invocation handler whose session is created by <code>sessionInitializer</code>
+    * on the first invocation which needs it (i.e. not on equals/hashCode/toString). A view which
+    * is never invoked never creates a session.
+    *
+    * @param endpointContext The context of the endpoint to which the calls are forwarded
+    * @param sessionInitializer Creates the session
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class, usually shared by all views of the bean
+    * @return The invocation handler
+    */
+   public static NoInterfaceViewInvocationHandler createWithLazySession(KernelControllerContext endpointContext,
+         SessionInitializer sessionInitializer, Class<?> businessInterface, MethodDispatchTable dispatchTable)
+   {
+      return createWithLazySession(new EndpointBinding(endpointContext), sessionInitializer, businessInterface,
+            dispatchTable);
+   }
+
+   /**
+    * Creates an invocation handler whose session is created by <code>sessionInitializer</code>
+    * on the first invocation which needs it
+    *
+    * @param endpointBinding The binding of the endpoint to which the calls are forwarded, usually shared
+    *           by all views of the bean
+    * @param sessionInitializer Creates the session
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class, usually shared by all views of the bean
+    * @return The invocation handler
+    * @see #createWithLazySession(KernelControllerContext, SessionInitializer, Class, MethodDispatchTable)
+    */
+   public static NoInterfaceViewInvocationHandler createWithLazySession(EndpointBinding endpointBinding,
+         SessionInitializer sessionInitializer, Class<?> businessInterface, MethodDispatchTable dispatchTable)
+   {
+      return createWithLazySession(new SharedViewState(endpointBinding, businessInterface, dispatchTable),
+            sessionInitializer);
+   }
+
+   /**
+    * Creates an invocation handler whose session is created by <code>sessionInitializer</code>
+    * on the first invocation which needs it
+    *
+    * @param state The state shared by the views of the bean
+    * @param sessionInitializer Creates the session
+    * @return The invocation handler
+    * @see #createWithLazySession(KernelControllerContext, SessionInitializer, Class, MethodDispatchTable)
+    */
+   public static NoInterfaceViewInvocationHandler createWithLazySession(SharedViewState state,
+         SessionInitializer sessionInitializer)
+   {
+      if (sessionInitializer == null)
+      {
+         throw new IllegalArgumentException("Session initializer must be specified");
+      }
+      return new NoInterfaceViewInvocationHandler(state, null, sessionInitializer);
+   }
+
+   private NoInterfaceViewInvocationHandler(SharedViewState state, Serializable session,
+         SessionInitializer sessionInitializer)
+   {
+      assert state != null : "Shared view state is null for no-interface view invocation handler";
+      this.state = state;
       this.session = session;
-      this.businessInterface = businessInterface;
+      this.sessionInitializer = sessionInitializer;
+      this.lazySession = sessionInitializer != null;
+      this.hashCode = this.computeHashCode();
+   }
+
+   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+   {
+      return this.invoke(proxy, this.state.getDispatchTable().lookup(method), args);
+   }
 
-      InvocationHandler endpointInvocationHandler = new InvocationHandler()
+   /**
+    * Processes an invocation from a generated proxy stub, which identifies the invoked method
+    * by its index in the dispatch table
+    *
+    * @see NoInterfaceViewDispatcher#invoke(Object, int, Object[])
+    */
+   public Object invoke(Object proxy, int methodIndex, Object[] args) throws Throwable
+   {
+      return this.invoke(proxy, this.state.getDispatchTable().get(methodIndex), args);
+   }
+
+   private Object invoke(Object proxy, MethodDispatch dispatch, Object[] args) throws Throwable
+   {
+      SharedViewState state = this.state;
+      InvocationMetrics metrics = state.getInvocationMetrics();
+      if (metrics == null || dispatch.isObjectMethod())
       {
-         @Override
-         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         return this.dispatch(proxy, state, dispatch, args);
+      }
+      long start = System.nanoTime();
+      boolean failed = true;
+      try
+      {
+         Object result = this.dispatch(proxy, state, dispatch, args);
+         failed = false;
+         return result;
+      }
+      finally
+      {
+         metrics.record(dispatch, System.nanoTime() - start, failed);
+      }
+   }
+
+   private Object dispatch(Object proxy, SharedViewState state, MethodDispatch dispatch, Object[] args)
+         throws Throwable
+   {
+      // Plain synchronous business methods are passed straight on to the endpoint
+      if (dispatch.isDirect())
+      {
+         Endpoint endpoint = state.getEndpointBinding().getEndpoint();
+         PreparedInvocationTable preparedInvocations = state.getPreparedInvocations();
+         if (preparedInvocations != null)
          {
-            return invokeEndpoint(proxy, method, args);
+            PreparedInvocation preparedInvocation = preparedInvocations.get(endpoint, dispatch);
+            if (preparedInvocation != null)
+            {
+               return preparedInvocation.invoke(this.getSession(), args);
+            }
          }
-      };
-      final Interceptor asyncInterceptor = new AsyncClientInterceptor((AsyncEndpoint) endpointContext.getTarget(),
-            asyncMethods, session);
-      Interceptor chain = new InterceptorAssembly(new Interceptor[]
-      {new ObjectMethodsInterceptor(this), asyncInterceptor});
-      this.delegate = new InterceptorInvocationHandler(endpointInvocationHandler, chain);
+         return endpoint.invoke(this.getSession(), state.getBusinessInterface(), dispatch.getMethod(), args);
+      }
+      // equals/hashCode/toString are handled by the view itself
+      if (dispatch.isObjectMethod())
+      {
+         return this.invokeObjectMethod(dispatch.getObjectMethodKind(), args);
+      }
+      // @Asynchronous business methods are handed to the interceptor dispatching them, along
+      // with the session of this view, and the view itself (the invocation is recorded if a batch
+      // is open on it)
+      if (dispatch.isDirectAsync())
+      {
+         // fail fast once the bean is gone, like the synchronous invocations do
+         state.getEndpointBinding().checkValid();
+         return state.getAsyncInterceptor().invokeAsync(dispatch, args, this.getSession(), proxy);
+      }
+      // only public, non-static, non-final and non-native methods are allowed on the nointerface view
+      throw new javax.ejb.EJBException("Cannot invoke method " + dispatch.getMethod().getName()
+            + " on nointerface view");
    }
 
-   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+   private Object invokeObjectMethod(ObjectMethodKind kind, Object[] args)
    {
-      return delegate.invoke(proxy, method, args);
+      switch (kind)
+      {
+         case EQUALS :
+            return this.equals(args[0]);
+         case HASH_CODE :
+            return this.hashCode;
+         default :
+            return this.toString();
+      }
    }
 
    /**
-    * The entry point when a client calls any methods on the no-interface view of a bean,
-    * returned through JNDI.
+    * Sets the metrics into which the invocations on this view are recorded. Must be
+    * set before the view is handed out. Invocations aren't recorded unless this is set.
+    * Views sharing a {@link SharedViewState} get the metrics through the state instead.
     *
+    * @param metrics The metrics of the bean, shared by all its views
+    */
+   public void setInvocationMetrics(InvocationMetrics metrics)
+   {
+      if (metrics != this.state.getInvocationMetrics())
+      {
+         this.state = this.state.withInvocationMetrics(metrics);
+      }
+   }
+
+   /**
+    * Sets the invocations of the business methods prepared by the endpoint, to which the calls on
+    * those methods are passed instead of to {@link Endpoint#invoke(Serializable, Class, Method, Object[])}.
+    * Must be set before the view is handed out.
     *
-    * @param proxy
-    * @param method The invoked method
-    * @param args The arguments to the method
+    * @param preparedInvocations The prepared invocations of the bean, shared by all its views
     */
-   private Object invokeEndpoint(Object proxy, Method method, Object[] args) throws Throwable
+   public void setPreparedInvocations(PreparedInvocationTable preparedInvocations)
    {
-      // check to see if this method is expected to be handled
-      // by the nointerface view (for ex: only public methods of bean are allowed
-      // on nointerface view)
-      if (!isHandled(method))
+      if (preparedInvocations != this.state.getPreparedInvocations())
       {
-         throw new javax.ejb.EJBException("Cannot invoke method " + method.getName() + " on nointerface view");
+         this.state = this.state.withPreparedInvocations(preparedInvocations);
       }
+   }
 
-      // get the endpoint (which will involve pushing it to INSTALLED state)
-      Endpoint endpoint = getInstalledEndpoint();
-      assert endpoint != null : "No endpoint associated with context " + this.endpointContext
-            + " - cannot invoke the method on bean";
+   /**
+    * Sets the dispatcher running the asynchronous invocations on this view on an executor of the
+    * deployment, instead of handing them to the container. Must be set before the view is handed out.
+    *
+    * @param executorDispatcher The dispatcher of the deployment, null to hand the invocations to the container
+    */
+   public void setAsyncExecutorDispatcher(ExecutorAsyncDispatcher executorDispatcher)
+   {
+      if (executorDispatcher != this.state.getAsyncExecutorDispatcher())
+      {
+         this.state = this.state.withAsyncExecutorDispatcher(executorDispatcher);
+      }
+   }
 
-      // finally pass-on the control to the endpoint
-      return endpoint.invoke(this.session, this.businessInterface, method, args);
+   /**
+    * Returns the session of this view, creating it first if it's created lazily and
+    * this is the first time it's needed
+    *
+    * @return The session, null for beans which aren't session aware
+    */
+   public Serializable getSession()
+   {
+      Serializable currentSession = this.session;
+      if (currentSession != null || !this.lazySession)
+      {
+         return currentSession;
+      }
+      return this.initializeSession();
+   }
+
+   private synchronized Serializable initializeSession()
+   {
+      if (this.session == null)
+      {
+         try
+         {
+            this.session = this.sessionInitializer.createSession();
+         }
+         catch (RuntimeException re)
+         {
+            throw re;
+         }
+         catch (Exception e)
+         {
+            throw new javax.ejb.EJBException("Could not create session for no-interface view of "
+                  + this.state.getBusinessInterface(), e);
+         }
+         // one-time initializer, not needed anymore
+         this.sessionInitializer = null;
+      }
+      return this.session;
+   }
+
+   /**
+    * Returns the state shared by the views of the bean
+    *
+    * @return
+    */
+   public SharedViewState getSharedViewState()
+   {
+      return this.state;
    }
 
    /**
@@ -150,53 +384,30 @@ public class NoInterfaceViewInvocationHandler implements InvocationHandler
     */
    public KernelControllerContext getContainerContext()
    {
-      return this.endpointContext;
+      return this.state.getEndpointBinding().getEndpointContext();
    }
 
    /**
-    * Returns the {@link Endpoint} container corresponding to this 
-    * {@link NoInterfaceViewInvocationHandler}. Internally, the {@link Endpoint} 
-    * will be first pushed to the INSTALLED state 
-    * 
+    * Returns the binding of the endpoint to which the calls are forwarded
+    *
     * @return
     */
-   public Endpoint getInstalledEndpoint()
+   public EndpointBinding getEndpointBinding()
    {
-      try
-      {
-         // EJBTHREE-2166 - Changing state through MC API won't work. So for now,
-         // we are going to rely on an already INSTALLED endpoint context
-//         this.endpointContext.getController().change(this.endpointContext, ControllerState.INSTALLED);
-         
-         // get hold of the endpoint from its context
-         Endpoint endpoint = (Endpoint) this.endpointContext.getTarget();
-         return endpoint;
-      }
-      catch (Throwable t)
-      {
-         throw new RuntimeException("Error getting endpoint out of container KernelControllerContext "
-               + this.endpointContext, t);
-      }
-
+      return this.state.getEndpointBinding();
    }
 
    /**
     * Returns the {@link Endpoint} container corresponding to this 
-    * {@link NoInterfaceViewInvocationHandler}. Note that this method does NOT
-    * change the state of the KernelControllerContext of this Endpoint. As such,
-    * the Endpoint returned by this method is NOT guaranteed to be in INSTALLED state.
-    * If the Endpoint with INSTALLED state is required, then use the {@link #getInstalledEndpoint()}
-    * method. 
-    *  
+    * {@link NoInterfaceViewInvocationHandler}, out of the {@link EndpointBinding}, which
+    * holds on to it once its context has been seen INSTALLED
+    * 
     * @return
-    * @see #getInstalledEndpoint()
+    * @throws javax.ejb.NoSuchEJBException If the endpoint has been stopped or undeployed
     */
-   private Endpoint getEndpoint()
+   public Endpoint getInstalledEndpoint()
    {
-      Object endpoint = this.endpointContext.getTarget();
-      assert endpoint instanceof Endpoint : "Unexpected type " + endpoint.getClass().getName() + " found in context "
-            + this.endpointContext + " Expected " + Endpoint.class.getName();
-      return (Endpoint) endpoint;
+      return this.state.getEndpointBinding().getEndpoint();
    }
 
    /**
@@ -218,8 +429,23 @@ public class NoInterfaceViewInvocationHandler implements InvocationHandler
          return false;
       }
 
+      // The other object is typically the view (proxy) of the other invocation handler, whichever
+      // proxy engine created it
+      if (!(other instanceof NoInterfaceViewInvocationHandler))
+      {
+         InvocationHandler otherHandler = NoInterfaceViewClasses.getInvocationHandler(other);
+         if (otherHandler != null)
+         {
+            other = otherHandler;
+         }
+         if (this == other)
+         {
+            return true;
+         }
+      }
+
       // If the other object is not an instance of MCAwareNoInterfaceViewInvocationHandler
-      // then they are not equal
+      // then they are not equal (unless it's another kind of view, which finds out about its own handler)
       if (!(other instanceof NoInterfaceViewInvocationHandler))
       {
          return other.equals(this);
@@ -227,16 +453,33 @@ public class NoInterfaceViewInvocationHandler implements InvocationHandler
 
       NoInterfaceViewInvocationHandler otherNoInterfaceViewInvocationHandler = (NoInterfaceViewInvocationHandler) other;
 
+      // Views with different hash codes can't be equal
+      if (this.hashCode != otherNoInterfaceViewInvocationHandler.hashCode)
+      {
+         return false;
+      }
+
+      // A lazily created session is created for one view only, so such a view is equal to no other
+      if (this.lazySession || otherNoInterfaceViewInvocationHandler.lazySession)
+      {
+         return false;
+      }
+
       // First check whether the Endpoints of both these InvocationHandlers are equal. If 
-      // not, then no need for any further comparison, just return false
-      if (!(this.getInstalledEndpoint().equals(otherNoInterfaceViewInvocationHandler.getInstalledEndpoint())))
+      // not, then no need for any further comparison, just return false. The same shared state,
+      // endpoint binding or context means the same endpoint, without getting hold of either.
+      SharedViewState otherState = otherNoInterfaceViewInvocationHandler.state;
+      if (this.state != otherState && this.state.getEndpointBinding() != otherState.getEndpointBinding()
+            && this.getContainerContext() != otherNoInterfaceViewInvocationHandler.getContainerContext()
+            && !(this.getInstalledEndpoint().equals(otherNoInterfaceViewInvocationHandler.getInstalledEndpoint())))
       {
          return false;
       }
 
       // If the endpoints are equal, then let's next check whether the sessions for
       // these invocation handlers are equal. If not, return false.
-      if (!(this.session.equals(otherNoInterfaceViewInvocationHandler.session)))
+      Serializable otherSession = otherNoInterfaceViewInvocationHandler.session;
+      if (this.session == null ? otherSession != null : !this.session.equals(otherSession))
       {
          return false;
       }
@@ -250,8 +493,18 @@ public class NoInterfaceViewInvocationHandler implements InvocationHandler
    @Override
    public int hashCode()
    {
-      int hashCode = this.endpointContext.hashCode();
-      if (this.session != null)
+      return this.hashCode;
+   }
+
+   private int computeHashCode()
+   {
+      int hashCode = this.getContainerContext().hashCode();
+      if (this.lazySession)
+      {
+         // must not change when the session gets created
+         hashCode += System.identityHashCode(this);
+      }
+      else if (this.session != null)
       {
          hashCode += this.session.hashCode();
       }
@@ -264,60 +517,28 @@ public class NoInterfaceViewInvocationHandler implements InvocationHandler
    @Override
    public String toString()
    {
-      StringBuilder sb = new StringBuilder("No-Interface view for endpoint [ " + endpointContext.getName() + " ]");
-      if (this.session != null)
+      StringBuilder sb = new StringBuilder("No-Interface view for endpoint [ " + this.getContainerContext().getName() + " ]");
+      Serializable currentSession = this.session;
+      if (currentSession != null)
       {
-         sb.append(" and session " + this.session);
+         sb.append(" and session " + currentSession);
+      }
+      else if (this.lazySession)
+      {
+         sb.append(" and a session yet to be created");
       }
       return sb.toString();
    }
 
    /**
-    * 
+    * Returns true if <code>method</code> can be invoked through the no-interface view
+    * (only public, non-static, non-final and non-native methods are)
+    *
     * @param method
     * @return
     */
    public boolean isHandled(Method method)
    {
-      int m = method.getModifiers();
-      // We handle only public, non-static, non-final methods
-      if (!isPublic(m))
-      {
-         if (logger.isTraceEnabled())
-         {
-            logger.trace("Method " + method + " is *not* public");
-         }
-         // it's not a public method
-         return false;
-      }
-      if (isFinal(m))
-      {
-         if (logger.isTraceEnabled())
-         {
-            logger.trace("Method " + method + " is final");
-         }
-         // it's a final method
-         return false;
-      }
-      if (isStatic(m))
-      {
-         if (logger.isTraceEnabled())
-         {
-            logger.trace("Method " + method + " is static");
-         }
-         // it's a static method
-         return false;
-      }
-      if (isNative(m))
-      {
-         if (logger.isTraceEnabled())
-         {
-            logger.trace("Method " + method + " is native");
-         }
-         // it's a native method
-         return false;
-      }
-      // we handle rest of the methods
-      return true;
+      return this.state.getDispatchTable().lookup(method).isHandled();
    }
 }
@@ -0,0 +1,68 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import java.lang.reflect.Method;
+
+/**
+ * ObjectMethodKind
+ *
+ * The {@link Object} methods which are handled by the no-interface view itself,
+ * instead of being passed on to the bean.
+ *
+ * @version $Revision: $
+ */
+public enum ObjectMethodKind
+{
+   EQUALS, HASH_CODE, TO_STRING;
+
+   /**
+    * Classifies <code>method</code> by its signature. Unlike a {@link Method#equals(Object)} against
+    * the methods of {@link Object}, this also recognizes equals/hashCode/toString declared
+    * (overridden) by the bean class or its superclasses.
+    *
+    * @param method The method
+    * @return The kind of <code>method</code>, or null if it isn't one of the handled {@link Object} methods
+    */
+   public static ObjectMethodKind of(Method method)
+   {
+      String name = method.getName();
+      Class<?>[] params = method.getParameterTypes();
+      if (params.length == 0)
+      {
+         if ("hashCode".equals(name) && method.getReturnType() == int.class)
+         {
+            return HASH_CODE;
+         }
+         if ("toString".equals(name) && method.getReturnType() == String.class)
+         {
+            return TO_STRING;
+         }
+      }
+      else if (params.length == 1 && params[0] == Object.class && "equals".equals(name)
+            && method.getReturnType() == boolean.class)
+      {
+         return EQUALS;
+      }
+      return null;
+   }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import org.jboss.ejb3.nointerface.spi.endpoint.PreparedEndpoint;
+import org.jboss.ejb3.nointerface.spi.endpoint.PreparedInvocation;
+import org.jboss.logging.Logger;
+
+/**
+ * PreparedInvocationTable
+ *
+ * The {@link PreparedInvocation}s of the business methods of a bean, prepared by its
+ * {@link PreparedEndpoint} and indexed like the {@link MethodDispatchTable} of the bean.
+ * Like the dispatch table, a table is built once per bean and shared by all the views of the bean.
+ * <p>
+ * Only the methods which are passed straight on to the endpoint (see {@link MethodDispatch#isDirect()})
+ * are prepared. The table remembers the endpoint which prepared it, so that the invocations aren't used
+ * if the endpoint context ends up with another endpoint.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class PreparedInvocationTable
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(PreparedInvocationTable.class);
+
+   /**
+    * The endpoint which prepared the invocations
+    */
+   private final PreparedEndpoint endpoint;
+
+   /**
+    * The prepared invocations, by dispatch index. Null for the methods which weren't prepared.
+    */
+   private final PreparedInvocation[] invocations;
+
+   private PreparedInvocationTable(PreparedEndpoint endpoint, PreparedInvocation[] invocations)
+   {
+      this.endpoint = endpoint;
+      this.invocations = invocations;
+   }
+
+   /**
+    * Prepares the invocations of the business methods of <code>dispatchTable</code>, if <code>endpoint</code>
+    * is a {@link PreparedEndpoint}. A method which can't be prepared falls back to <code>Endpoint.invoke</code>.
+    *
+    * @param endpoint The endpoint of the bean
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean
+    * @return The table, null if the endpoint doesn't prepare invocations (or didn't prepare any)
+    */
+   public static PreparedInvocationTable prepare(Object endpoint, Class<?> businessInterface,
+         MethodDispatchTable dispatchTable)
+   {
+      if (!(endpoint instanceof PreparedEndpoint))
+      {
+         return null;
+      }
+      PreparedEndpoint preparedEndpoint = (PreparedEndpoint) endpoint;
+      PreparedInvocation[] invocations = new PreparedInvocation[dispatchTable.size()];
+      boolean prepared = false;
+      for (int i = 0; i < invocations.length; i++)
+      {
+         MethodDispatch dispatch = dispatchTable.get(i);
+         if (!dispatch.isDirect())
+         {
+            continue;
+         }
+         try
+         {
+            invocations[i] = preparedEndpoint.prepare(businessInterface, dispatch.getMethod());
+         }
+         catch (Exception e)
+         {
+            logger.warn("Could not prepare invocation of " + dispatch.getMethod()
+                  + ", its calls will go through Endpoint.invoke", e);
+         }
+         prepared |= invocations[i] != null;
+      }
+      return prepared ? new PreparedInvocationTable(preparedEndpoint, invocations) : null;
+   }
+
+   /**
+    * Returns the prepared invocation of the method of <code>dispatch</code>
+    *
+    * @param endpoint The current endpoint of the bean
+    * @param dispatch The dispatch of the invoked method
+    * @return The prepared invocation, null if the method wasn't prepared or <code>endpoint</code>
+    *           isn't the endpoint which prepared this table
+    */
+   public PreparedInvocation get(Object endpoint, MethodDispatch dispatch)
+   {
+      int index = dispatch.getIndex();
+      if (endpoint != this.endpoint || index < 0 || index >= this.invocations.length)
+      {
+         return null;
+      }
+      return this.invocations[index];
+   }
+}
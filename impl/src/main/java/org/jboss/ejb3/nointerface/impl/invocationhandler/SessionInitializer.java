@@ -0,0 +1,44 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import java.io.Serializable;
+
+/**
+ * SessionInitializer
+ *
+ * Creates the session of a no-interface view whose session is created lazily, on the
+ * first business method invocation instead of at lookup time.
+ * {@link NoInterfaceViewInvocationHandler} guarantees that it's called at most once per view.
+ *
+ * @version $Revision: $
+ */
+public interface SessionInitializer
+{
+   /**
+    * Creates the session
+    *
+    * @return The session
+    * @throws Exception If the session could not be created
+    */
+   Serializable createSession() throws Exception;
+}
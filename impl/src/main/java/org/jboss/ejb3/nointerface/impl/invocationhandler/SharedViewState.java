@@ -0,0 +1,204 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.invocationhandler;
+
+import org.jboss.ejb3.nointerface.impl.async.AsyncClientInterceptor;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+
+/**
+ * SharedViewState
+ *
+ * The part of a no-interface view which is the same for all the views of a bean: the endpoint, the
+ * dispatch of the methods of the bean, and how the invocations are recorded, prepared and dispatched
+ * asynchronously. Immutable, so that any number of {@link NoInterfaceViewInvocationHandler}s (one per
+ * stateful session) can point to a single instance and hold nothing else but their session.
+ * <p>
+ * Changing any of the optional parts yields a new instance, see the <code>with...</code> methods.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class SharedViewState
+{
+   /**
+    * Holds on to the endpoint to which the calls are forwarded
+    */
+   private final EndpointBinding endpointBinding;
+
+   /**
+    * The business interface (== bean class, since this is a no-interface view)
+    */
+   private final Class<?> businessInterface;
+
+   /**
+    * The precomputed dispatch of each method of the view
+    */
+   private final MethodDispatchTable dispatchTable;
+
+   /**
+    * Records the invocations on the views, null if they aren't recorded
+    */
+   private final InvocationMetrics metrics;
+
+   /**
+    * The invocations of the business methods, prepared by the endpoint, null if it doesn't prepare them
+    */
+   private final PreparedInvocationTable preparedInvocations;
+
+   /**
+    * Runs the asynchronous invocations on an executor of the deployment, null to hand them to the container
+    */
+   private final ExecutorAsyncDispatcher asyncExecutorDispatcher;
+
+   /**
+    * Dispatches the asynchronous invocations, given the session of the invoked view
+    */
+   private final AsyncClientInterceptor asyncInterceptor;
+
+   /**
+    * Constructor
+    *
+    * @param endpointBinding Holds on to the endpoint to which the calls are forwarded
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class
+    */
+   public SharedViewState(EndpointBinding endpointBinding, Class<?> businessInterface,
+         MethodDispatchTable dispatchTable)
+   {
+      this(endpointBinding, businessInterface, dispatchTable, null, null, null);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param endpointBinding Holds on to the endpoint to which the calls are forwarded
+    * @param businessInterface The bean class
+    * @param dispatchTable The dispatch table of the bean class
+    * @param metrics Records the invocations, null to not record them
+    * @param preparedInvocations The invocations prepared by the endpoint, null to pass all calls on to the endpoint
+    * @param asyncExecutorDispatcher The dispatcher of the deployment, null to hand the asynchronous invocations
+    *           to the container
+    */
+   public SharedViewState(EndpointBinding endpointBinding, Class<?> businessInterface,
+         MethodDispatchTable dispatchTable, InvocationMetrics metrics, PreparedInvocationTable preparedInvocations,
+         ExecutorAsyncDispatcher asyncExecutorDispatcher)
+   {
+      if (endpointBinding == null)
+      {
+         throw new IllegalArgumentException("Endpoint binding must be specified");
+      }
+      if (dispatchTable == null)
+      {
+         throw new IllegalArgumentException("Dispatch table must be specified");
+      }
+      this.endpointBinding = endpointBinding;
+      this.businessInterface = businessInterface;
+      this.dispatchTable = dispatchTable;
+      this.metrics = metrics;
+      this.preparedInvocations = preparedInvocations;
+      this.asyncExecutorDispatcher = asyncExecutorDispatcher;
+      // the session is passed along with each invocation, so that the interceptor serves all the views. The
+      // endpoint is got from the binding on each invocation, so that it's let go of once the binding is invalidated
+      AsyncClientInterceptor asyncInterceptor = new AsyncClientInterceptor(endpointBinding, dispatchTable,
+            businessInterface, null);
+      asyncInterceptor.setExecutorDispatcher(asyncExecutorDispatcher);
+      this.asyncInterceptor = asyncInterceptor;
+   }
+
+   /**
+    * Returns a copy of this state, recording the invocations into <code>metrics</code>
+    *
+    * @param metrics The metrics, null to not record invocations
+    * @return
+    */
+   public SharedViewState withInvocationMetrics(InvocationMetrics metrics)
+   {
+      return new SharedViewState(this.endpointBinding, this.businessInterface, this.dispatchTable, metrics,
+            this.preparedInvocations, this.asyncExecutorDispatcher);
+   }
+
+   /**
+    * Returns a copy of this state, passing the calls on to <code>preparedInvocations</code>
+    *
+    * @param preparedInvocations The prepared invocations, null to pass all calls on to the endpoint
+    * @return
+    */
+   public SharedViewState withPreparedInvocations(PreparedInvocationTable preparedInvocations)
+   {
+      return new SharedViewState(this.endpointBinding, this.businessInterface, this.dispatchTable, this.metrics,
+            preparedInvocations, this.asyncExecutorDispatcher);
+   }
+
+   /**
+    * Returns a copy of this state, running the asynchronous invocations through <code>asyncExecutorDispatcher</code>
+    *
+    * @param asyncExecutorDispatcher The dispatcher, null to hand the invocations to the container
+    * @return
+    */
+   public SharedViewState withAsyncExecutorDispatcher(ExecutorAsyncDispatcher asyncExecutorDispatcher)
+   {
+      return new SharedViewState(this.endpointBinding, this.businessInterface, this.dispatchTable, this.metrics,
+            this.preparedInvocations, asyncExecutorDispatcher);
+   }
+
+   public EndpointBinding getEndpointBinding()
+   {
+      return this.endpointBinding;
+   }
+
+   public Class<?> getBusinessInterface()
+   {
+      return this.businessInterface;
+   }
+
+   public MethodDispatchTable getDispatchTable()
+   {
+      return this.dispatchTable;
+   }
+
+   public InvocationMetrics getInvocationMetrics()
+   {
+      return this.metrics;
+   }
+
+   public PreparedInvocationTable getPreparedInvocations()
+   {
+      return this.preparedInvocations;
+   }
+
+   public ExecutorAsyncDispatcher getAsyncExecutorDispatcher()
+   {
+      return this.asyncExecutorDispatcher;
+   }
+
+   /**
+    * Returns the interceptor dispatching the asynchronous invocations of all the views
+    *
+    * @return
+    * @see AsyncClientInterceptor#invokeAsync(MethodDispatch, Object[], java.io.Serializable, Object)
+    */
+   public AsyncClientInterceptor getAsyncInterceptor()
+   {
+      return this.asyncInterceptor;
+   }
+}
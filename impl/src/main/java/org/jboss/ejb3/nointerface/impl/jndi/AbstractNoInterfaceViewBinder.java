@@ -21,10 +21,25 @@
 */
 package org.jboss.ejb3.nointerface.impl.jndi;
 
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.Context;
+import javax.naming.InitialContext;
 import javax.naming.NamingException;
 
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
 import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.PreparedInvocationTable;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+import org.jboss.ejb3.nointerface.impl.metrics.NoInterfaceViewMetrics;
+import org.jboss.ejb3.nointerface.impl.session.SessionReclaimer;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
 import org.jboss.kernel.spi.dependency.KernelControllerContext;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
@@ -53,8 +68,49 @@ public abstract class AbstractNoInterfaceViewBinder
    protected JBossSessionBean31MetaData sessionBeanMetaData;
    
    protected Context jndiContext;
+
+   /**
+    * The environment of the naming context the view is bound through, when the binder wasn't
+    * given a context of its own. Null to bind through {@link #jndiContext}.
+    */
+   private Hashtable<?, ?> namingEnvironment;
    
    protected String noInterfaceViewJNDIName;
+
+   /**
+    * True if the invocations on the no-interface view are recorded
+    */
+   private boolean metricsEnabled;
+
+   /**
+    * The MBeanServer to which the metrics MBean is registered. Defaults to the platform MBeanServer
+    */
+   private MBeanServer mbeanServer;
+
+   /**
+    * Name of the registered metrics MBean, null if none is registered
+    */
+   private ObjectName metricsObjectName;
+
+   /**
+    * The proxy engine creating the no-interface view, null for the default one
+    */
+   private NoInterfaceViewFactory noInterfaceViewFactory;
+
+   /**
+    * Creates the no-interface view(s), null till first needed unless it was generated ahead of time
+    */
+   private NoInterfaceViewClass viewClass;
+
+   /**
+    * Runs the asynchronous invocations on an executor of the deployment, null to hand them to the container
+    */
+   private ExecutorAsyncDispatcher asyncExecutorDispatcher;
+
+   /**
+    * True while the view is bound
+    */
+   private boolean started;
    
    /**
     * Creates a jndi binder 
@@ -72,14 +128,98 @@ public abstract class AbstractNoInterfaceViewBinder
       this.jndiContext = jndiCtx;
    }
    
-   public void start() throws Exception
+   public synchronized void start() throws Exception
    {
-      this.bind();
+      Context openedContext = this.openNamingContext();
+      try
+      {
+         this.bind();
+      }
+      finally
+      {
+         this.closeNamingContext(openedContext);
+      }
+      this.started = true;
    }
    
-   public void stop() throws Exception
+   /**
+    * Unbinds the view, unless it isn't bound. Called by MC, when the endpoint leaves its INSTALLED
+    * state, and on undeploy of the unit, whichever comes first.
+    * 
+    * @throws Exception
+    */
+   public synchronized void stop() throws Exception
    {
-      this.unbind();
+      if (!this.started)
+      {
+         return;
+      }
+      this.started = false;
+      Context openedContext = this.openNamingContext();
+      try
+      {
+         this.unbind();
+      }
+      finally
+      {
+         this.closeNamingContext(openedContext);
+      }
+   }
+
+   /**
+    * Opens the naming context {@link #bind()} and {@link #unbind()} go through, unless the binder
+    * was given one
+    *
+    * @return The opened context, to be closed by {@link #closeNamingContext(Context)}, null if none was opened
+    * @throws NamingException
+    */
+   private Context openNamingContext() throws NamingException
+   {
+      if (this.jndiContext != null || this.namingEnvironment == null)
+      {
+         return null;
+      }
+      this.jndiContext = new InitialContext(this.namingEnvironment);
+      return this.jndiContext;
+   }
+
+   private void closeNamingContext(Context openedContext)
+   {
+      if (openedContext == null)
+      {
+         return;
+      }
+      this.jndiContext = null;
+      try
+      {
+         openedContext.close();
+      }
+      catch (NamingException ne)
+      {
+         logger.warn("Could not close naming context of no-interface view " + this.noInterfaceViewJNDIName, ne);
+      }
+   }
+
+   /**
+    * Unbinds the view, if it's bound, and lets go of everything the binder holds on to for
+    * the bean (proxy class, endpoint, dispatcher of the deployment). Called on undeploy of
+    * the unit, after which the binder isn't started anymore.
+    * 
+    * @throws Exception If the view could not be unbound. The binder lets go of the bean regardless.
+    */
+   public synchronized void release() throws Exception
+   {
+      try
+      {
+         this.stop();
+      }
+      finally
+      {
+         this.viewClass = null;
+         this.noInterfaceViewFactory = null;
+         this.asyncExecutorDispatcher = null;
+         this.endpointContext = null;
+      }
    }
    
    protected abstract void bind() throws NamingException;
@@ -111,5 +251,180 @@ public abstract class AbstractNoInterfaceViewBinder
    {
       this.endpointContext = endpointContext;
    }
+
+   /**
+    * Returns the {@link NoInterfaceViewClass} creating the no-interface view(s), out of the
+    * configured proxy engine. The binder holds on to it, so that the proxy class it may have
+    * generated stays in the (weak) shared proxy class caches as long as the binder is around.
+    *
+    * @return
+    * @throws Exception If the view class could not be created
+    */
+   protected NoInterfaceViewClass getViewClass() throws Exception
+   {
+      if (this.viewClass == null)
+      {
+         this.viewClass = NoInterfaceViewClasses.forBeanClass(this.noInterfaceViewFactory, this.beanClass);
+      }
+      return this.viewClass;
+   }
+
+   /**
+    * Sets the {@link NoInterfaceViewClass} creating the no-interface view(s), generated ahead of time
+    *
+    * @param viewClass
+    */
+   public void setViewClass(NoInterfaceViewClass viewClass)
+   {
+      this.viewClass = viewClass;
+   }
+
+   /**
+    * Sets the environment of the naming context the view is bound through, for a binder created without
+    * a naming context. A context is then opened out of it each time the view is bound or unbound, and
+    * closed right after, instead of being held on to by the binder.
+    *
+    * @param namingEnvironment The environment of the context, for ex. the one of the context of the deployment
+    */
+   public void setNamingEnvironment(Hashtable<?, ?> namingEnvironment)
+   {
+      this.namingEnvironment = namingEnvironment;
+   }
+
+   /**
+    * Sets the proxy engine creating the no-interface view(s). Defaults to
+    * {@link NoInterfaceViewClasses#getDefaultFactory()}.
+    *
+    * @param noInterfaceViewFactory
+    */
+   public void setNoInterfaceViewFactory(NoInterfaceViewFactory noInterfaceViewFactory)
+   {
+      this.noInterfaceViewFactory = noInterfaceViewFactory;
+   }
+
+   /**
+    * Returns the dispatcher running the asynchronous invocations on the view on an executor
+    * of the deployment
+    *
+    * @return The dispatcher, null if the invocations are handed to the container
+    */
+   protected ExecutorAsyncDispatcher getAsyncExecutorDispatcher()
+   {
+      return this.asyncExecutorDispatcher;
+   }
+
+   /**
+    * Sets the dispatcher running the asynchronous invocations on the view on an executor
+    * of the deployment, instead of handing them to the container
+    *
+    * @param asyncExecutorDispatcher The dispatcher of the deployment, null to hand the invocations to the container
+    */
+   public void setAsyncExecutorDispatcher(ExecutorAsyncDispatcher asyncExecutorDispatcher)
+   {
+      this.asyncExecutorDispatcher = asyncExecutorDispatcher;
+   }
+
+   /**
+    * Creates the metrics of the no-interface view and registers them as an MBean, named after
+    * the container of the bean, if metrics are enabled
+    *
+    * @param dispatchTable The dispatch table of the bean
+    * @return The metrics into which the invocations are to be recorded, null if metrics aren't enabled
+    */
+   protected InvocationMetrics registerMetrics(MethodDispatchTable dispatchTable)
+   {
+      return this.registerMetrics(dispatchTable, null);
+   }
+
+   /**
+    * Creates the metrics of the no-interface view and registers them as an MBean, along with the
+    * counts of <code>sessionReclaimer</code>, if metrics are enabled
+    *
+    * @param dispatchTable The dispatch table of the bean
+    * @param sessionReclaimer Reclaims the sessions of the unreachable views, null if sessions aren't reclaimed
+    * @return The metrics into which the invocations are to be recorded, null if metrics aren't enabled
+    */
+   protected InvocationMetrics registerMetrics(MethodDispatchTable dispatchTable, SessionReclaimer sessionReclaimer)
+   {
+      if (!this.metricsEnabled)
+      {
+         return null;
+      }
+      InvocationMetrics metrics = new InvocationMetrics(dispatchTable);
+      try
+      {
+         ObjectName objectName = new ObjectName(this.sessionBeanMetaData.getContainerName()
+               + ",type=nointerface-view-metrics");
+         this.getMBeanServer().registerMBean(
+               new NoInterfaceViewMetrics(this.noInterfaceViewJNDIName, metrics, sessionReclaimer), objectName);
+         this.metricsObjectName = objectName;
+      }
+      catch (Exception e)
+      {
+         // metrics are still recorded, just not reachable through JMX
+         logger.warn("Could not register invocation metrics MBean for no-interface view of bean "
+               + this.sessionBeanMetaData.getEjbName(), e);
+      }
+      return metrics;
+   }
+
+   /**
+    * Prepares the invocations of the business methods of the bean, if its endpoint
+    * is a {@link org.jboss.ejb3.nointerface.spi.endpoint.PreparedEndpoint}
+    *
+    * @param dispatchTable The dispatch table of the bean
+    * @return The prepared invocations, null if the endpoint doesn't prepare invocations
+    */
+   protected PreparedInvocationTable prepareInvocations(MethodDispatchTable dispatchTable)
+   {
+      return PreparedInvocationTable.prepare(this.endpointContext.getTarget(), this.beanClass, dispatchTable);
+   }
+
+   /**
+    * Unregisters the metrics MBean, if one was registered by {@link #registerMetrics(MethodDispatchTable)}
+    */
+   protected void unregisterMetrics()
+   {
+      ObjectName objectName = this.metricsObjectName;
+      if (objectName == null)
+      {
+         return;
+      }
+      this.metricsObjectName = null;
+      try
+      {
+         this.getMBeanServer().unregisterMBean(objectName);
+      }
+      catch (Exception e)
+      {
+         logger.warn("Could not unregister invocation metrics MBean " + objectName, e);
+      }
+   }
+
+   /**
+    * Sets whether the invocations on the no-interface view are recorded, and exposed
+    * through an MBean. Defaults to false.
+    *
+    * @param metricsEnabled
+    */
+   public void setMetricsEnabled(boolean metricsEnabled)
+   {
+      this.metricsEnabled = metricsEnabled;
+   }
+
+   /**
+    * Sets the MBeanServer to which the metrics MBean is registered
+    *
+    * @param mbeanServer
+    */
+   public void setMBeanServer(MBeanServer mbeanServer)
+   {
+      this.mbeanServer = mbeanServer;
+   }
+
+   private MBeanServer getMBeanServer()
+   {
+      return this.mbeanServer == null ? ManagementFactory.getPlatformMBeanServer() : this.mbeanServer;
+   }
    
 }
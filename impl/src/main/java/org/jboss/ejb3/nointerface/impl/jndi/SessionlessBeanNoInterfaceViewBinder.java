@@ -21,13 +21,13 @@
  */
 package org.jboss.ejb3.nointerface.impl.jndi;
 
-import java.lang.reflect.InvocationHandler;
-
 import javax.naming.Context;
 import javax.naming.NamingException;
 
+import org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
 import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
-import org.jboss.ejb3.proxy.javassist.JavassistProxyFactory;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SharedViewState;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
 import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
@@ -48,6 +48,11 @@ public class SessionlessBeanNoInterfaceViewBinder extends AbstractNoInterfaceVie
     */
    private static Logger logger = Logger.getLogger(SessionlessBeanNoInterfaceViewBinder.class);
 
+   /**
+    * Holds on to the endpoint on behalf of the bound view, while the view is bound
+    */
+   private EndpointBinding endpointBinding;
+
    /**
     * Constructor
     * 
@@ -64,7 +69,7 @@ public class SessionlessBeanNoInterfaceViewBinder extends AbstractNoInterfaceVie
     * Creates the no-interface view for the bean and binds it to the JNDI
     * under the no-interface view jndi name obtained from <code>sessionBeanMetadata</code>.
     *
-    * @see JavassistNoInterfaceViewFactory#createView(java.lang.reflect.InvocationHandler, Class)
+    * @see org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass#newProxy(java.lang.reflect.InvocationHandler)
     */
    @Override
    public void bind() throws NamingException
@@ -74,13 +79,18 @@ public class SessionlessBeanNoInterfaceViewBinder extends AbstractNoInterfaceVie
          throw new IllegalStateException("KernelControllerContext hasn't been set for nointerface view binder of bean: " + this.beanClass);
       }
       final AsyncMethodsMetaData asyncMethods = this.sessionBeanMetaData.getAsyncMethods();
-      InvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(this.endpointContext, null, beanClass,
-            asyncMethods == null ? new AsyncMethodsMetaData() : asyncMethods);
+      MethodDispatchTable dispatchTable = new MethodDispatchTable(beanClass, asyncMethods == null
+            ? new AsyncMethodsMetaData()
+            : asyncMethods);
+      this.endpointBinding = new EndpointBinding(this.endpointContext);
+      SharedViewState viewState = new SharedViewState(this.endpointBinding, beanClass, dispatchTable, this
+            .registerMetrics(dispatchTable), this.prepareInvocations(dispatchTable), this.getAsyncExecutorDispatcher());
+      NoInterfaceViewInvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(viewState, null);
 
       Object noInterfaceView;
       try
       {
-         noInterfaceView = new JavassistProxyFactory().createProxy(new Class<?>[] {beanClass}, invocationHandler);
+         noInterfaceView = this.getViewClass().newProxy(invocationHandler);
       }
       catch (Exception e)
       {
@@ -99,6 +109,16 @@ public class SessionlessBeanNoInterfaceViewBinder extends AbstractNoInterfaceVie
    @Override
    public void unbind() throws NamingException
    {
+      // We are being stopped because the endpoint is leaving the INSTALLED state, so the
+      // view (wherever it has been handed out to) must not use it anymore
+      if (this.endpointBinding != null)
+      {
+         this.endpointBinding.invalidate();
+         this.endpointBinding = null;
+      }
       this.jndiContext.unbind(this.noInterfaceViewJNDIName);
+      // the view itself is held by the NonSerializableFactory, not by the naming service
+      NonSerializableFactory.unbind(this.noInterfaceViewJNDIName);
+      this.unregisterMetrics();
    }
 }
@@ -29,6 +29,8 @@ import javax.naming.StringRefAddr;
 
 import org.jboss.ejb3.nointerface.impl.objectfactory.NoInterfaceViewProxyFactoryRefAddrTypes;
 import org.jboss.ejb3.nointerface.impl.objectfactory.StatefulNoInterfaceViewObjectFactory;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPoolConfig;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
 import org.jboss.ejb3.nointerface.impl.view.factory.StatefulNoInterfaceViewProxyFactory;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
@@ -57,6 +59,26 @@ public class StatefulBeanNoInterfaceViewBinder extends AbstractNoInterfaceViewBi
     */
    private static final String NO_INTERFACE_STATEFUL_PROXY_FACTORY_JNDI_NAME_SUFFIX = "_no-interface-stateful-proxyfactory";
 
+   /**
+    * The proxy factory bound to JNDI by this binder
+    */
+   private StatefulNoInterfaceViewProxyFactory statefulNoInterfaceViewFactory;
+
+   /**
+    * Configuration of the pool of pre-created sessions, null if sessions aren't pooled
+    */
+   private StatefulSessionPoolConfig sessionPoolConfig;
+
+   /**
+    * True if the session of a view is created on its first invocation instead of at lookup
+    */
+   private boolean lazySession;
+
+   /**
+    * True if the session of a view is destroyed as soon as the view becomes unreachable
+    */
+   private boolean sessionReclamation;
+
    /**
     * Constructor
     * @param beanClass The bean class
@@ -89,13 +111,33 @@ public class StatefulBeanNoInterfaceViewBinder extends AbstractNoInterfaceViewBi
       }
       // This factory will be bound to JNDI and will be invoked (through an objectfactory) to create
       // the no-interface view for a SFSB
-      StatefulNoInterfaceViewProxyFactory statefulNoInterfaceViewFactory = new StatefulNoInterfaceViewProxyFactory(this.beanClass,this.endpointContext, this.sessionBeanMetaData);
+      NoInterfaceViewClass viewClass;
+      try
+      {
+         viewClass = this.getViewClass();
+      }
+      catch (Exception e)
+      {
+         throw new RuntimeException("Could not create no-interface view class for bean class: " + this.beanClass, e);
+      }
+      StatefulNoInterfaceViewProxyFactory statefulNoInterfaceViewFactory = new StatefulNoInterfaceViewProxyFactory(this.beanClass,this.endpointContext, this.sessionBeanMetaData, viewClass);
+      statefulNoInterfaceViewFactory.setSessionPoolConfig(this.sessionPoolConfig);
+      statefulNoInterfaceViewFactory.setLazySession(this.lazySession);
+      statefulNoInterfaceViewFactory.setSessionReclamation(this.sessionReclamation);
+      statefulNoInterfaceViewFactory.setInvocationMetrics(this.registerMetrics(statefulNoInterfaceViewFactory
+            .getDispatchTable(), statefulNoInterfaceViewFactory.getSessionReclaimer()));
+      statefulNoInterfaceViewFactory.setPreparedInvocations(this.prepareInvocations(statefulNoInterfaceViewFactory
+            .getDispatchTable()));
+      statefulNoInterfaceViewFactory.setAsyncExecutorDispatcher(this.getAsyncExecutorDispatcher());
+      this.statefulNoInterfaceViewFactory = statefulNoInterfaceViewFactory;
 
       // Create the proxy factory jndi name based on the no-interface view jndi name
       String statefulProxyFactoryJndiName = this.noInterfaceViewJNDIName + NO_INTERFACE_STATEFUL_PROXY_FACTORY_JNDI_NAME_SUFFIX;
 
       // Bind the proxy factory to jndi
       NonSerializableFactory.rebind(this.jndiContext, statefulProxyFactoryJndiName, statefulNoInterfaceViewFactory, true);
+      // a (re)bind replaces whatever proxy factory the object factory may have resolved earlier
+      StatefulNoInterfaceViewObjectFactory.invalidate(statefulProxyFactoryJndiName);
 
       // Create an Reference which will hold the jndi-name of the statefulproxyfactory which will
       // be responsible for creating the no-interface view for the stateful bean upon lookup
@@ -124,11 +166,58 @@ public class StatefulBeanNoInterfaceViewBinder extends AbstractNoInterfaceViewBi
    @Override
    public void unbind() throws NamingException
    {
+      // We are being stopped because the endpoint is leaving the INSTALLED state, so the
+      // proxy factory can't rely on it anymore
+      if (this.statefulNoInterfaceViewFactory != null)
+      {
+         this.statefulNoInterfaceViewFactory.invalidateEndpoint();
+         this.statefulNoInterfaceViewFactory = null;
+      }
       // unbind the nointerface view
       this.jndiContext.unbind(this.noInterfaceViewJNDIName);
       // unbind the proxy factory too
-      this.jndiContext.unbind(this.noInterfaceViewJNDIName + NO_INTERFACE_STATEFUL_PROXY_FACTORY_JNDI_NAME_SUFFIX);
+      String statefulProxyFactoryJndiName = this.noInterfaceViewJNDIName + NO_INTERFACE_STATEFUL_PROXY_FACTORY_JNDI_NAME_SUFFIX;
+      this.jndiContext.unbind(statefulProxyFactoryJndiName);
+      // the proxy factory itself is held by the NonSerializableFactory, not by the naming service
+      NonSerializableFactory.unbind(statefulProxyFactoryJndiName);
+      // only now make sure the object factory forgets about it: a lookup resolving the proxy factory
+      // before it was unbound could otherwise put it back in the cache of the object factory
+      StatefulNoInterfaceViewObjectFactory.invalidate(statefulProxyFactoryJndiName);
+      this.unregisterMetrics();
 
    }
 
+   /**
+    * Sets the configuration of the pool of sessions created ahead of lookups of the
+    * no-interface view. Sessions are not pooled unless this is set.
+    *
+    * @param sessionPoolConfig The pool configuration, null to disable pooling
+    */
+   public void setSessionPoolConfig(StatefulSessionPoolConfig sessionPoolConfig)
+   {
+      this.sessionPoolConfig = sessionPoolConfig;
+   }
+
+   /**
+    * Sets whether the session of a no-interface view is created on the first business
+    * method invocation on the view, instead of when the view is looked up.
+    *
+    * @param lazySession True to create sessions lazily
+    */
+   public void setLazySession(boolean lazySession)
+   {
+      this.lazySession = lazySession;
+   }
+
+   /**
+    * Sets whether the session of a no-interface view is destroyed as soon as the view becomes
+    * unreachable, instead of being left to the idle timeout of the container.
+    *
+    * @param sessionReclamation True to reclaim the sessions of unreachable views
+    */
+   public void setSessionReclamation(boolean sessionReclamation)
+   {
+      this.sessionReclamation = sessionReclamation;
+   }
+
 }
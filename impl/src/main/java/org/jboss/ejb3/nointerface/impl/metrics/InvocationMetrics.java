@@ -0,0 +1,302 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatch;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+
+/**
+ * InvocationMetrics
+ *
+ * Records, per method of a bean, the number of invocations on its no-interface view(s), the
+ * number of invocations which failed, the number of asynchronous invocations, and a latency
+ * histogram. One instance is shared by all the views of a bean.
+ * <p>
+ * Recording is lock free and allocation free: counters are striped over a few {@link AtomicLongArray}s,
+ * a thread always recording into the same stripe (picked from its id), so that threads on different
+ * processors rarely update the same cache lines. Reads sum up the stripes and thus see a
+ * consistent value per counter, but not across counters.
+ * </p>
+ * <p>
+ * Latencies are recorded in a log-linear histogram (in the spirit of HdrHistogram): each power
+ * of two of nanoseconds is split in {@link #SUB_BUCKETS} buckets, which bounds the error of a
+ * reported percentile to 1/{@value #SUB_BUCKETS} of its value. Latencies of asynchronous invocations
+ * are the time taken to submit them.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class InvocationMetrics
+{
+
+   /**
+    * Number of buckets each power of two of nanoseconds is split in
+    */
+   static final int SUB_BUCKETS = 4;
+
+   /**
+    * Latencies of 2^(MAX_EXPONENT + 1) nanos (~18 minutes) and above all go to the last bucket
+    */
+   private static final int MAX_EXPONENT = 39;
+
+   private static final int HISTOGRAM_BUCKETS = MAX_EXPONENT * SUB_BUCKETS + 1;
+
+   private static final int CALLS = 0;
+
+   private static final int ERRORS = 1;
+
+   private static final int ASYNC = 2;
+
+   private static final int TOTAL_NANOS = 3;
+
+   private static final int FIRST_BUCKET = 4;
+
+   /**
+    * Number of slots per method, rounded up to a multiple of 8 longs so that the
+    * counters of different methods don't share a cache line
+    */
+   private static final int STRIDE = (FIRST_BUCKET + HISTOGRAM_BUCKETS + 7) & ~7;
+
+   /**
+    * Upper bound of the number of stripes
+    */
+   private static final int MAX_STRIPES = 8;
+
+   private final MethodDispatchTable dispatchTable;
+
+   /**
+    * Index of the slots shared by the methods which aren't part of the dispatch table
+    */
+   private final int otherMethodsIndex;
+
+   private final AtomicLongArray[] stripes;
+
+   private final int stripeMask;
+
+   /**
+    * Creates metrics for the methods of the <code>dispatchTable</code>
+    *
+    * @param dispatchTable The dispatch table of the bean
+    */
+   public InvocationMetrics(MethodDispatchTable dispatchTable)
+   {
+      this(dispatchTable, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Creates metrics for the methods of the <code>dispatchTable</code>
+    *
+    * @param dispatchTable The dispatch table of the bean
+    * @param concurrency Expected number of concurrently recording threads, used to size the stripes
+    */
+   public InvocationMetrics(MethodDispatchTable dispatchTable, int concurrency)
+   {
+      if (dispatchTable == null)
+      {
+         throw new IllegalArgumentException("Dispatch table cannot be null");
+      }
+      this.dispatchTable = dispatchTable;
+      this.otherMethodsIndex = dispatchTable.size();
+      int stripeCount = 1;
+      while (stripeCount < concurrency && stripeCount < MAX_STRIPES)
+      {
+         stripeCount <<= 1;
+      }
+      this.stripes = new AtomicLongArray[stripeCount];
+      for (int i = 0; i < stripeCount; i++)
+      {
+         this.stripes[i] = new AtomicLongArray((this.otherMethodsIndex + 1) * STRIDE);
+      }
+      this.stripeMask = stripeCount - 1;
+   }
+
+   /**
+    * Records an invocation
+    *
+    * @param dispatch The dispatch of the invoked method
+    * @param nanos Time taken by the invocation
+    * @param failed True if the invocation threw an exception
+    */
+   public void record(MethodDispatch dispatch, long nanos, boolean failed)
+   {
+      int index = dispatch.getIndex();
+      int base = (index < 0 ? this.otherMethodsIndex : index) * STRIDE;
+      AtomicLongArray stripe = this.stripes[(int) Thread.currentThread().getId() & this.stripeMask];
+      stripe.incrementAndGet(base + CALLS);
+      if (failed)
+      {
+         stripe.incrementAndGet(base + ERRORS);
+      }
+      if (dispatch.isAsync())
+      {
+         stripe.incrementAndGet(base + ASYNC);
+      }
+      if (nanos < 0)
+      {
+         // nanoTime isn't guaranteed to be monotonic on every platform
+         nanos = 0;
+      }
+      stripe.addAndGet(base + TOTAL_NANOS, nanos);
+      stripe.incrementAndGet(base + FIRST_BUCKET + bucketOf(nanos));
+   }
+
+   /**
+    * Returns the histogram bucket of a latency
+    */
+   static int bucketOf(long nanos)
+   {
+      if (nanos < SUB_BUCKETS)
+      {
+         return (int) nanos;
+      }
+      // nanos is in [2^exponent, 2^(exponent + 1))
+      int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+      if (exponent > MAX_EXPONENT)
+      {
+         return HISTOGRAM_BUCKETS - 1;
+      }
+      // SUB_BUCKETS == 4, so the 2 bits following the leading one select the sub bucket
+      int subBucket = (int) (nanos >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+      return (exponent - 1) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * Returns the lowest latency which falls in a histogram bucket
+    */
+   static long lowestNanosOf(int bucket)
+   {
+      if (bucket < SUB_BUCKETS)
+      {
+         return bucket;
+      }
+      int exponent = bucket / SUB_BUCKETS + 1;
+      int subBucket = bucket % SUB_BUCKETS;
+      return ((long) (SUB_BUCKETS + subBucket)) << (exponent - 2);
+   }
+
+   /**
+    * Returns the number of methods for which metrics are recorded, not counting the
+    * slot shared by methods which aren't part of the dispatch table
+    */
+   public int getMethodCount()
+   {
+      return this.otherMethodsIndex;
+   }
+
+   /**
+    * Returns the method whose metrics are recorded at <code>index</code>
+    */
+   public Method getMethod(int index)
+   {
+      return this.dispatchTable.get(index).getMethod();
+   }
+
+   public long getCallCount(int index)
+   {
+      return this.sum(index, CALLS);
+   }
+
+   public long getErrorCount(int index)
+   {
+      return this.sum(index, ERRORS);
+   }
+
+   public long getAsyncCount(int index)
+   {
+      return this.sum(index, ASYNC);
+   }
+
+   public long getTotalNanos(int index)
+   {
+      return this.sum(index, TOTAL_NANOS);
+   }
+
+   /**
+    * Returns an estimate of the latency under which <code>percentile</code> percent of the
+    * invocations of a method completed, or 0 if the method wasn't invoked
+    *
+    * @param index Index of the method
+    * @param percentile A value in [0, 100]
+    * @return The latency, in nanoseconds
+    */
+   public long getLatencyPercentileNanos(int index, double percentile)
+   {
+      if (percentile < 0 || percentile > 100)
+      {
+         throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+      }
+      long[] histogram = new long[HISTOGRAM_BUCKETS];
+      long count = 0;
+      for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++)
+      {
+         histogram[bucket] = this.sum(index, FIRST_BUCKET + bucket);
+         count += histogram[bucket];
+      }
+      if (count == 0)
+      {
+         return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+      long seen = 0;
+      for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++)
+      {
+         seen += histogram[bucket];
+         if (seen >= rank)
+         {
+            return bucket == HISTOGRAM_BUCKETS - 1 ? lowestNanosOf(bucket) : lowestNanosOf(bucket + 1) - 1;
+         }
+      }
+      return lowestNanosOf(HISTOGRAM_BUCKETS - 1);
+   }
+
+   /**
+    * Resets all the counters. Invocations recorded concurrently may be partly lost.
+    */
+   public void reset()
+   {
+      for (AtomicLongArray stripe : this.stripes)
+      {
+         for (int i = 0; i < stripe.length(); i++)
+         {
+            stripe.set(i, 0);
+         }
+      }
+   }
+
+   private long sum(int index, int slot)
+   {
+      if (index < 0 || index > this.otherMethodsIndex)
+      {
+         throw new IllegalArgumentException("No method at index " + index);
+      }
+      int position = index * STRIDE + slot;
+      long sum = 0;
+      for (AtomicLongArray stripe : this.stripes)
+      {
+         sum += stripe.get(position);
+      }
+      return sum;
+   }
+}
@@ -0,0 +1,245 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.metrics;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.ejb3.nointerface.impl.session.SessionReclaimer;
+
+/**
+ * NoInterfaceViewMetrics
+ *
+ * Exposes the {@link InvocationMetrics} of the no-interface view of a bean as a
+ * standard MBean
+ *
+ * @version $Revision: $
+ */
+public class NoInterfaceViewMetrics implements NoInterfaceViewMetricsMBean
+{
+
+   /**
+    * Name of the (shared) slot of invoked methods which aren't part of the bean class
+    */
+   private static final String OTHER_METHODS = "<other>";
+
+   private final String jndiName;
+
+   private final InvocationMetrics metrics;
+
+   /**
+    * Reclaims the sessions of the unreachable stateful views, null if sessions aren't reclaimed
+    */
+   private final SessionReclaimer sessionReclaimer;
+
+   /**
+    * Index of each method, by method name
+    */
+   private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+   /**
+    * Method names, by index
+    */
+   private final String[] methodNames;
+
+   /**
+    * Constructor
+    *
+    * @param jndiName The jndi name of the no-interface view
+    * @param metrics The metrics of the view
+    */
+   public NoInterfaceViewMetrics(String jndiName, InvocationMetrics metrics)
+   {
+      this(jndiName, metrics, null);
+   }
+
+   /**
+    * Constructor
+    *
+    * @param jndiName The jndi name of the no-interface view
+    * @param metrics The metrics of the view
+    * @param sessionReclaimer Reclaims the sessions of the unreachable views, null if sessions aren't reclaimed
+    */
+   public NoInterfaceViewMetrics(String jndiName, InvocationMetrics metrics, SessionReclaimer sessionReclaimer)
+   {
+      this.jndiName = jndiName;
+      this.metrics = metrics;
+      this.sessionReclaimer = sessionReclaimer;
+      int methodCount = metrics.getMethodCount();
+      this.methodNames = new String[methodCount + 1];
+      for (int i = 0; i < methodCount; i++)
+      {
+         this.methodNames[i] = nameOf(metrics.getMethod(i));
+      }
+      this.methodNames[methodCount] = OTHER_METHODS;
+      for (int i = 0; i < this.methodNames.length; i++)
+      {
+         // an overridden method (ex: Object.toString and the bean's own toString) shows up once
+         if (!this.indexes.containsKey(this.methodNames[i]))
+         {
+            this.indexes.put(this.methodNames[i], i);
+         }
+      }
+   }
+
+   private static String nameOf(Method method)
+   {
+      StringBuilder sb = new StringBuilder(method.getName()).append('(');
+      Class<?>[] parameterTypes = method.getParameterTypes();
+      for (int i = 0; i < parameterTypes.length; i++)
+      {
+         if (i > 0)
+         {
+            sb.append(',');
+         }
+         sb.append(parameterTypes[i].getSimpleName());
+      }
+      return sb.append(')').toString();
+   }
+
+   public String getJndiName()
+   {
+      return this.jndiName;
+   }
+
+   public String[] getMethodNames()
+   {
+      return this.methodNames.clone();
+   }
+
+   public long getTotalCallCount()
+   {
+      long total = 0;
+      for (int i = 0; i < this.methodNames.length; i++)
+      {
+         total += this.metrics.getCallCount(i);
+      }
+      return total;
+   }
+
+   public long getTotalErrorCount()
+   {
+      long total = 0;
+      for (int i = 0; i < this.methodNames.length; i++)
+      {
+         total += this.metrics.getErrorCount(i);
+      }
+      return total;
+   }
+
+   public long getTotalAsyncCount()
+   {
+      long total = 0;
+      for (int i = 0; i < this.methodNames.length; i++)
+      {
+         total += this.metrics.getAsyncCount(i);
+      }
+      return total;
+   }
+
+   public long getCallCount(String methodName)
+   {
+      return this.metrics.getCallCount(this.indexOf(methodName));
+   }
+
+   public long getErrorCount(String methodName)
+   {
+      return this.metrics.getErrorCount(this.indexOf(methodName));
+   }
+
+   public long getAsyncCount(String methodName)
+   {
+      return this.metrics.getAsyncCount(this.indexOf(methodName));
+   }
+
+   public double getMeanLatencyMicros(String methodName)
+   {
+      return this.meanLatencyMicros(this.indexOf(methodName));
+   }
+
+   public double getLatencyPercentileMicros(String methodName, double percentile)
+   {
+      return this.metrics.getLatencyPercentileNanos(this.indexOf(methodName), percentile) / 1000d;
+   }
+
+   public String[] listMethodStatistics()
+   {
+      List<String> statistics = new ArrayList<String>();
+      for (int i = 0; i < this.methodNames.length; i++)
+      {
+         long calls = this.metrics.getCallCount(i);
+         if (calls == 0)
+         {
+            continue;
+         }
+         statistics.add(this.methodNames[i] + ": calls=" + calls + ", errors=" + this.metrics.getErrorCount(i)
+               + ", async=" + this.metrics.getAsyncCount(i) + ", mean=" + this.meanLatencyMicros(i) + "us, p50="
+               + this.metrics.getLatencyPercentileNanos(i, 50) / 1000d + "us, p99="
+               + this.metrics.getLatencyPercentileNanos(i, 99) / 1000d + "us");
+      }
+      return statistics.toArray(new String[statistics.size()]);
+   }
+
+   public long getReclaimedSessionCount()
+   {
+      return this.sessionReclaimer == null ? 0 : this.sessionReclaimer.getReclaimedCount();
+   }
+
+   public long getExpiredSessionCount()
+   {
+      return this.sessionReclaimer == null ? 0 : this.sessionReclaimer.getExpiredCount();
+   }
+
+   public int getTrackedSessionCount()
+   {
+      return this.sessionReclaimer == null ? 0 : this.sessionReclaimer.getTrackedCount();
+   }
+
+   public void reset()
+   {
+      this.metrics.reset();
+      if (this.sessionReclaimer != null)
+      {
+         this.sessionReclaimer.resetCounts();
+      }
+   }
+
+   private double meanLatencyMicros(int index)
+   {
+      long calls = this.metrics.getCallCount(index);
+      return calls == 0 ? 0 : this.metrics.getTotalNanos(index) / 1000d / calls;
+   }
+
+   private int indexOf(String methodName)
+   {
+      Integer index = this.indexes.get(methodName);
+      if (index == null)
+      {
+         throw new IllegalArgumentException("No method named " + methodName + " on no-interface view bound at "
+               + this.jndiName);
+      }
+      return index;
+   }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.metrics;
+
+/**
+ * NoInterfaceViewMetricsMBean
+ *
+ * Management interface of the invocation metrics of the no-interface view of a bean.
+ * Methods are identified by their name followed by the simple names of their parameter
+ * types, for ex: <code>add(int,int)</code>. See {@link #getMethodNames()}.
+ *
+ * @version $Revision: $
+ */
+public interface NoInterfaceViewMetricsMBean
+{
+   /**
+    * Returns the jndi name to which the no-interface view is bound
+    */
+   String getJndiName();
+
+   /**
+    * Returns the names of the methods for which metrics are recorded
+    */
+   String[] getMethodNames();
+
+   long getTotalCallCount();
+
+   long getTotalErrorCount();
+
+   long getTotalAsyncCount();
+
+   long getCallCount(String methodName);
+
+   long getErrorCount(String methodName);
+
+   long getAsyncCount(String methodName);
+
+   /**
+    * Returns the mean latency of the invocations of a method, in microseconds
+    */
+   double getMeanLatencyMicros(String methodName);
+
+   /**
+    * Returns the latency under which <code>percentile</code> percent of the invocations of a
+    * method completed, in microseconds
+    */
+   double getLatencyPercentileMicros(String methodName, double percentile);
+
+   /**
+    * Returns a one line summary (calls, errors, async calls, mean, median and 99th percentile
+    * latency) of each method which has been invoked
+    */
+   String[] listMethodStatistics();
+
+   /**
+    * Returns the number of sessions of stateful views destroyed as soon as their view became
+    * unreachable. Always 0 unless sessions are reclaimed.
+    */
+   long getReclaimedSessionCount();
+
+   /**
+    * Returns the number of sessions of stateful views which the container had already removed, on
+    * timeout or through a @Remove method, by the time their view became unreachable. Always 0 unless
+    * sessions are reclaimed.
+    */
+   long getExpiredSessionCount();
+
+   /**
+    * Returns the number of sessions of stateful views which are to be reclaimed once their view
+    * becomes unreachable. Always 0 unless sessions are reclaimed.
+    */
+   int getTrackedSessionCount();
+
+   /**
+    * Resets all the metrics
+    */
+   void reset();
+}
@@ -22,6 +22,8 @@
 package org.jboss.ejb3.nointerface.impl.objectfactory;
 
 import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.Context;
 import javax.naming.Name;
@@ -43,6 +45,12 @@ public class StatefulNoInterfaceViewObjectFactory implements ObjectFactory
 
    private static Logger logger = Logger.getLogger(StatefulNoInterfaceViewObjectFactory.class);
 
+   /**
+    * The {@link StatefulNoInterfaceViewProxyFactory}s resolved so far, keyed by the jndi-name
+    * they are bound to. JNDI creates a new object factory instance for each lookup, hence static.
+    */
+   private static final ConcurrentMap<String, StatefulNoInterfaceViewProxyFactory> proxyFactories = new ConcurrentHashMap<String, StatefulNoInterfaceViewProxyFactory>();
+
    /**
     * @see ObjectFactory#getObjectInstance(Object, Name, Context, Hashtable)
     */
@@ -54,7 +62,6 @@ public class StatefulNoInterfaceViewObjectFactory implements ObjectFactory
       {
          logger.trace("Creating object instance through object instance factory for name " + name);
       }
-      logger.debug("Creating object instance through object instance factory for name " + name);
       assert obj instanceof Reference : StatefulNoInterfaceViewObjectFactory.class
             + " cannot create view from obj of type " + obj.getClass().getName();
 
@@ -62,16 +69,32 @@ public class StatefulNoInterfaceViewObjectFactory implements ObjectFactory
       String jndiNameOfStatefulProxyFactory = this.getProxyFactoryJNDINameFromReference(reference);
       assert jndiNameOfStatefulProxyFactory != null : "Stateful proxy factory for creating no-interface view, not found in reference";
 
-      // now lookup the factory
-      Object proxyFactory = nameCtx.lookup(jndiNameOfStatefulProxyFactory);
+      StatefulNoInterfaceViewProxyFactory noInterfaceViewFactory = proxyFactories.get(jndiNameOfStatefulProxyFactory);
+      if (noInterfaceViewFactory == null)
+      {
+         // now lookup the factory
+         Object proxyFactory = nameCtx.lookup(jndiNameOfStatefulProxyFactory);
 
-      assert proxyFactory instanceof StatefulNoInterfaceViewProxyFactory : "Unexpected type found at jndi name "
-            + jndiNameOfStatefulProxyFactory + " Expected type " + StatefulNoInterfaceViewProxyFactory.class.getName();
+         assert proxyFactory instanceof StatefulNoInterfaceViewProxyFactory : "Unexpected type found at jndi name "
+               + jndiNameOfStatefulProxyFactory + " Expected type " + StatefulNoInterfaceViewProxyFactory.class.getName();
 
-      StatefulNoInterfaceViewProxyFactory noInterfaceViewFactory = (StatefulNoInterfaceViewProxyFactory) proxyFactory;
+         noInterfaceViewFactory = (StatefulNoInterfaceViewProxyFactory) proxyFactory;
+         proxyFactories.put(jndiNameOfStatefulProxyFactory, noInterfaceViewFactory);
+      }
       return noInterfaceViewFactory.createNoInterfaceView();
    }
 
+   /**
+    * Removes the {@link StatefulNoInterfaceViewProxyFactory} bound at <code>jndiNameOfStatefulProxyFactory</code>
+    * from the cache of resolved proxy factories. Has to be called when the proxy factory gets unbound.
+    *
+    * @param jndiNameOfStatefulProxyFactory The jndi-name of the proxy factory
+    */
+   public static void invalidate(String jndiNameOfStatefulProxyFactory)
+   {
+      proxyFactories.remove(jndiNameOfStatefulProxyFactory);
+   }
+
    /**
     * Returns the jndi-name at which the {@link StatefulNoInterfaceViewProxyFactory} can be found
     * @param ref
@@ -0,0 +1,301 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.session;
+
+import java.io.Serializable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ejb.NoSuchEJBException;
+
+import org.jboss.ejb3.endpoint.SessionFactory;
+import org.jboss.logging.Logger;
+
+/**
+ * SessionReclaimer
+ *
+ * Destroys the session of a stateful no-interface view as soon as the view is found
+ * unreachable by the garbage collector, instead of leaving it to the idle timeout of the
+ * container.
+ * <p>
+ * A {@link PhantomReference} to the view is registered along with its session. Once the
+ * view has been collected, the reference is enqueued and a background thread, shared by all
+ * the reclaimers, destroys the sessions in batches of up to {@link #BATCH_SIZE}. A session
+ * which the container has already removed (on timeout or through a @Remove method) by the
+ * time its view is collected is counted as expired instead of reclaimed.
+ * </p>
+ * <p>
+ * Only views which are the sole holders of their session must be registered: once the view
+ * is unreachable, the session is destroyed whoever else may still be using it.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class SessionReclaimer
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(SessionReclaimer.class);
+
+   /**
+    * Maximum number of sessions destroyed by the background thread in one go
+    */
+   public static final int BATCH_SIZE = 64;
+
+   /**
+    * How long (in milliseconds) the background thread waits for a view to be collected, before
+    * checking again
+    */
+   private static final long POLL_TIMEOUT_MILLIS = 1000;
+
+   /**
+    * Queue into which the garbage collector puts the references of the collected views of
+    * all the reclaimers
+    */
+   private static final ReferenceQueue<Object> collectedViews = new ReferenceQueue<Object>();
+
+   /**
+    * Background thread shared by all the reclaimers, started on the first registration
+    */
+   private static Thread reclaimerThread;
+
+   /**
+    * Name of the reclaimer, used in log messages
+    */
+   private final String name;
+
+   /**
+    * The classloader of the bean, set as TCCL while destroying sessions in the background
+    */
+   private final ClassLoader beanClassLoader;
+
+   /**
+    * The references of the registered views, which have to be kept reachable till they are enqueued
+    */
+   private final Set<SessionReference> references = Collections
+         .newSetFromMap(new ConcurrentHashMap<SessionReference, Boolean>());
+
+   private final AtomicLong reclaimedCount = new AtomicLong();
+
+   private final AtomicLong expiredCount = new AtomicLong();
+
+   /**
+    * Constructor
+    *
+    * @param name Name of the reclaimer, used in log messages
+    * @param beanClassLoader The classloader of the bean
+    */
+   public SessionReclaimer(String name, ClassLoader beanClassLoader)
+   {
+      this.name = name;
+      this.beanClassLoader = beanClassLoader;
+   }
+
+   /**
+    * Registers the session of a view, to be destroyed through <code>sessionFactory</code> once
+    * <code>view</code> is unreachable
+    *
+    * @param view The view (or any object only reachable through the view, for ex: its invocation handler)
+    * @param session The session, which no other view uses
+    * @param sessionFactory The factory which created the session
+    */
+   public void register(Object view, Serializable session, SessionFactory sessionFactory)
+   {
+      if (view == null || session == null || sessionFactory == null)
+      {
+         throw new IllegalArgumentException("View, session and session factory must be specified");
+      }
+      this.references.add(new SessionReference(view, this, session, sessionFactory));
+      startReclaimerThread();
+   }
+
+   /**
+    * Forgets all the sessions registered till then, which are left to the container. Called
+    * when the endpoint stops, which takes care of its sessions itself.
+    */
+   public void clear()
+   {
+      this.references.clear();
+   }
+
+   /**
+    * Returns the number of sessions destroyed because their view became unreachable
+    *
+    * @return
+    */
+   public long getReclaimedCount()
+   {
+      return this.reclaimedCount.get();
+   }
+
+   /**
+    * Returns the number of sessions which the container had already removed (on timeout, or
+    * through a @Remove method) by the time their view became unreachable
+    *
+    * @return
+    */
+   public long getExpiredCount()
+   {
+      return this.expiredCount.get();
+   }
+
+   /**
+    * Returns the number of sessions whose view is still reachable
+    *
+    * @return
+    */
+   public int getTrackedCount()
+   {
+      return this.references.size();
+   }
+
+   /**
+    * Resets the reclaimed and expired counts
+    */
+   public void resetCounts()
+   {
+      this.reclaimedCount.set(0);
+      this.expiredCount.set(0);
+   }
+
+   private void reclaim(SessionReference reference)
+   {
+      // a reference which has been cleared in the meantime belongs to the container now
+      if (!this.references.remove(reference))
+      {
+         return;
+      }
+      Thread currentThread = Thread.currentThread();
+      ClassLoader previousClassLoader = currentThread.getContextClassLoader();
+      currentThread.setContextClassLoader(this.beanClassLoader);
+      try
+      {
+         reference.sessionFactory.destroySession(reference.session);
+         this.reclaimedCount.incrementAndGet();
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Destroyed session " + reference.session + " of unreachable view of " + this.name);
+         }
+      }
+      catch (NoSuchEJBException nsee)
+      {
+         this.expiredCount.incrementAndGet();
+      }
+      catch (Throwable t)
+      {
+         logger.debug("Could not destroy session " + reference.session + " of unreachable view of " + this.name, t);
+      }
+      finally
+      {
+         currentThread.setContextClassLoader(previousClassLoader);
+      }
+   }
+
+   /**
+    * Takes the references of the collected views off the queue, a batch at a time, and destroys their sessions
+    */
+   private static void reclaimCollected()
+   {
+      List<SessionReference> batch = new ArrayList<SessionReference>(BATCH_SIZE);
+      while (true)
+      {
+         try
+         {
+            SessionReference reference = (SessionReference) collectedViews.remove(POLL_TIMEOUT_MILLIS);
+            while (reference != null)
+            {
+               batch.add(reference);
+               if (batch.size() == BATCH_SIZE)
+               {
+                  break;
+               }
+               reference = (SessionReference) collectedViews.poll();
+            }
+            for (SessionReference collected : batch)
+            {
+               collected.reclaimer.reclaim(collected);
+            }
+         }
+         catch (InterruptedException ie)
+         {
+            // keeps reclaiming for as long as the VM runs
+         }
+         catch (Throwable t)
+         {
+            logger.warn("Could not reclaim the sessions of unreachable no-interface views", t);
+         }
+         finally
+         {
+            batch.clear();
+         }
+      }
+   }
+
+   private static synchronized void startReclaimerThread()
+   {
+      if (reclaimerThread != null)
+      {
+         return;
+      }
+      Thread thread = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            reclaimCollected();
+         }
+      }, "NoInterfaceView-SessionReclaimer");
+      thread.setDaemon(true);
+      // don't pin the classloader of whichever deployment happened to register the first view
+      thread.setContextClassLoader(SessionReclaimer.class.getClassLoader());
+      thread.start();
+      reclaimerThread = thread;
+   }
+
+   /**
+    * A phantom reference to a view, along with what it takes to destroy its session. Must not
+    * reference the view itself.
+    */
+   private static class SessionReference extends PhantomReference<Object>
+   {
+      private final SessionReclaimer reclaimer;
+
+      private final Serializable session;
+
+      private final SessionFactory sessionFactory;
+
+      SessionReference(Object view, SessionReclaimer reclaimer, Serializable session, SessionFactory sessionFactory)
+      {
+         super(view, collectedViews);
+         this.reclaimer = reclaimer;
+         this.session = session;
+         this.sessionFactory = sessionFactory;
+      }
+   }
+}
@@ -0,0 +1,344 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.session;
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.endpoint.SessionFactory;
+import org.jboss.logging.Logger;
+
+/**
+ * StatefulSessionPool
+ *
+ * A pool of sessions created ahead of time for a stateful bean, so that a lookup of the
+ * no-interface view of the bean doesn't have to create (construct, inject, @PostConstruct) the
+ * bean instance on the caller's thread.
+ * <p>
+ * Sessions are taken from a lock-free queue. A shared background refiller tops the pool up
+ * (see {@link StatefulSessionPoolConfig} for the watermarks) and removes sessions which have been
+ * pooled for too long. When the pool is empty, {@link #take()} returns null and the caller is
+ * expected to create the session itself.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class StatefulSessionPool
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(StatefulSessionPool.class);
+
+   /**
+    * Refiller shared by all the pools
+    */
+   private static ScheduledExecutorService refiller;
+
+   /**
+    * Name of the pool, used in log messages
+    */
+   private final String name;
+
+   private final SessionFactory sessionFactory;
+
+   /**
+    * The classloader of the bean, set as TCCL while creating sessions in the background
+    */
+   private final ClassLoader beanClassLoader;
+
+   private final StatefulSessionPoolConfig config;
+
+   private final long maxIdleAgeNanos;
+
+   private final Queue<PooledSession> sessions = new ConcurrentLinkedQueue<PooledSession>();
+
+   /**
+    * Number of sessions in the queue (the size of a {@link ConcurrentLinkedQueue} isn't a constant time operation)
+    */
+   private final AtomicInteger size = new AtomicInteger();
+
+   /**
+    * Set while a refill is scheduled or running
+    */
+   private final AtomicBoolean refilling = new AtomicBoolean();
+
+   private volatile boolean stopped;
+
+   private ScheduledFuture<?> maintenance;
+
+   private final Runnable refillTask = new Runnable()
+   {
+      public void run()
+      {
+         try
+         {
+            refill();
+         }
+         finally
+         {
+            refilling.set(false);
+         }
+      }
+   };
+
+   private final Runnable maintenanceTask = new Runnable()
+   {
+      public void run()
+      {
+         evictExpired();
+         if (size.get() < config.getLowWatermark())
+         {
+            triggerRefill();
+         }
+      }
+   };
+
+   /**
+    * Constructor
+    *
+    * @param name Name of the pool, used in log messages
+    * @param sessionFactory The factory creating (and destroying) the sessions
+    * @param beanClassLoader The classloader of the bean
+    * @param config The pool configuration
+    */
+   public StatefulSessionPool(String name, SessionFactory sessionFactory, ClassLoader beanClassLoader,
+         StatefulSessionPoolConfig config)
+   {
+      if (sessionFactory == null)
+      {
+         throw new IllegalArgumentException("Session factory must be specified");
+      }
+      if (config == null)
+      {
+         throw new IllegalArgumentException("Stateful session pool configuration must be specified");
+      }
+      config.validate();
+      this.name = name;
+      this.sessionFactory = sessionFactory;
+      this.beanClassLoader = beanClassLoader;
+      this.config = config;
+      this.maxIdleAgeNanos = TimeUnit.MILLISECONDS.toNanos(config.getMaxIdleAgeMillis());
+   }
+
+   /**
+    * Starts filling the pool, in the background
+    */
+   public synchronized void start()
+   {
+      logger.debug("Starting stateful session pool " + this.name + " with " + this.config);
+      this.maintenance = getRefiller().scheduleWithFixedDelay(this.maintenanceTask,
+            this.config.getRefillIntervalMillis(), this.config.getRefillIntervalMillis(), TimeUnit.MILLISECONDS);
+      this.triggerRefill();
+   }
+
+   /**
+    * Stops the pool and destroys the sessions still pooled
+    */
+   public synchronized void stop()
+   {
+      this.stopped = true;
+      if (this.maintenance != null)
+      {
+         this.maintenance.cancel(false);
+         this.maintenance = null;
+      }
+      PooledSession pooled;
+      while ((pooled = this.sessions.poll()) != null)
+      {
+         this.size.decrementAndGet();
+         this.destroy(pooled.session);
+      }
+      logger.debug("Stopped stateful session pool " + this.name);
+   }
+
+   /**
+    * Returns a pre-created session, or null if none is available (in which case the caller has to create
+    * the session itself)
+    *
+    * @return
+    */
+   public Serializable take()
+   {
+      PooledSession pooled;
+      while ((pooled = this.sessions.poll()) != null)
+      {
+         int remaining = this.size.decrementAndGet();
+         if (remaining < this.config.getLowWatermark())
+         {
+            this.triggerRefill();
+         }
+         if (!pooled.isExpired(System.nanoTime(), this.maxIdleAgeNanos))
+         {
+            return pooled.session;
+         }
+         this.destroy(pooled.session);
+      }
+      this.triggerRefill();
+      return null;
+   }
+
+   /**
+    * Returns the number of sessions currently pooled
+    *
+    * @return
+    */
+   public int size()
+   {
+      return this.size.get();
+   }
+
+   private void triggerRefill()
+   {
+      if (this.stopped || !this.refilling.compareAndSet(false, true))
+      {
+         return;
+      }
+      try
+      {
+         getRefiller().execute(this.refillTask);
+      }
+      catch (RejectedExecutionException ree)
+      {
+         this.refilling.set(false);
+         logger.debug("Could not schedule refill of stateful session pool " + this.name, ree);
+      }
+   }
+
+   /**
+    * Tops the pool up to its target size
+    */
+   private void refill()
+   {
+      Thread currentThread = Thread.currentThread();
+      ClassLoader previousClassLoader = currentThread.getContextClassLoader();
+      currentThread.setContextClassLoader(this.beanClassLoader);
+      try
+      {
+         while (!this.stopped && this.size.get() < this.config.getTargetSize()
+               && this.size.get() < this.config.getHighWatermark())
+         {
+            PooledSession pooled = new PooledSession(this.sessionFactory.createSession(null, null), System.nanoTime());
+            this.sessions.offer(pooled);
+            this.size.incrementAndGet();
+            // stop() may have drained the queue while this session was being created
+            if (this.stopped && this.sessions.remove(pooled))
+            {
+               this.size.decrementAndGet();
+               this.destroy(pooled.session);
+            }
+         }
+      }
+      catch (Throwable t)
+      {
+         logger.warn("Could not refill stateful session pool " + this.name, t);
+      }
+      finally
+      {
+         currentThread.setContextClassLoader(previousClassLoader);
+      }
+   }
+
+   /**
+    * Removes the sessions which have been pooled for too long. The queue is FIFO, so
+    * the oldest sessions are at its head.
+    */
+   private void evictExpired()
+   {
+      long now = System.nanoTime();
+      PooledSession oldest;
+      while ((oldest = this.sessions.peek()) != null && oldest.isExpired(now, this.maxIdleAgeNanos))
+      {
+         if (this.sessions.remove(oldest))
+         {
+            this.size.decrementAndGet();
+            this.destroy(oldest.session);
+         }
+      }
+   }
+
+   private void destroy(Serializable session)
+   {
+      try
+      {
+         this.sessionFactory.destroySession(session);
+      }
+      catch (Throwable t)
+      {
+         // the container may already have removed it
+         if (logger.isTraceEnabled())
+         {
+            logger.trace("Could not destroy pooled session " + session + " of pool " + this.name, t);
+         }
+      }
+   }
+
+   private static synchronized ScheduledExecutorService getRefiller()
+   {
+      if (refiller == null)
+      {
+         refiller = Executors.newScheduledThreadPool(1, new ThreadFactory()
+         {
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "NoInterfaceView-StatefulSessionPool-Refiller");
+               thread.setDaemon(true);
+               // don't pin the classloader of whichever deployment happened to start the first pool
+               thread.setContextClassLoader(StatefulSessionPool.class.getClassLoader());
+               return thread;
+            }
+         });
+      }
+      return refiller;
+   }
+
+   /**
+    * A session along with the time at which it was pooled
+    */
+   private static class PooledSession
+   {
+      private final Serializable session;
+
+      private final long pooledAt;
+
+      PooledSession(Serializable session, long pooledAt)
+      {
+         this.session = session;
+         this.pooledAt = pooledAt;
+      }
+
+      boolean isExpired(long now, long maxIdleAgeNanos)
+      {
+         return now - this.pooledAt > maxIdleAgeNanos;
+      }
+   }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.session;
+
+/**
+ * StatefulSessionPoolConfig
+ *
+ * Configuration of the {@link StatefulSessionPool} of a stateful bean. The pool is refilled,
+ * in the background, up to <code>targetSize</code> sessions whenever the number of pooled sessions
+ * drops below <code>lowWatermark</code>. It never holds more than <code>highWatermark</code> sessions.
+ * Pooled sessions which have been idle for more than <code>maxIdleAgeMillis</code> are removed (and
+ * replaced), so this age should be kept below the idle timeout of the container.
+ *
+ * @version $Revision: $
+ */
+public class StatefulSessionPoolConfig
+{
+
+   private int targetSize = 10;
+
+   private int lowWatermark = 5;
+
+   private int highWatermark = 20;
+
+   private long maxIdleAgeMillis = 60 * 1000;
+
+   /**
+    * Interval at which pooled sessions are checked for their age, and the pool topped up
+    */
+   private long refillIntervalMillis = 1000;
+
+   public int getTargetSize()
+   {
+      return this.targetSize;
+   }
+
+   public void setTargetSize(int targetSize)
+   {
+      this.targetSize = targetSize;
+   }
+
+   public int getLowWatermark()
+   {
+      return this.lowWatermark;
+   }
+
+   public void setLowWatermark(int lowWatermark)
+   {
+      this.lowWatermark = lowWatermark;
+   }
+
+   public int getHighWatermark()
+   {
+      return this.highWatermark;
+   }
+
+   public void setHighWatermark(int highWatermark)
+   {
+      this.highWatermark = highWatermark;
+   }
+
+   public long getMaxIdleAgeMillis()
+   {
+      return this.maxIdleAgeMillis;
+   }
+
+   public void setMaxIdleAgeMillis(long maxIdleAgeMillis)
+   {
+      this.maxIdleAgeMillis = maxIdleAgeMillis;
+   }
+
+   public long getRefillIntervalMillis()
+   {
+      return this.refillIntervalMillis;
+   }
+
+   public void setRefillIntervalMillis(long refillIntervalMillis)
+   {
+      this.refillIntervalMillis = refillIntervalMillis;
+   }
+
+   /**
+    * Checks the consistency of this configuration
+    *
+    * @throws IllegalStateException If the configuration isn't consistent
+    */
+   public void validate()
+   {
+      if (this.lowWatermark < 0 || this.lowWatermark > this.targetSize || this.targetSize > this.highWatermark)
+      {
+         throw new IllegalStateException("Stateful session pool configuration requires 0 <= lowWatermark ("
+               + this.lowWatermark + ") <= targetSize (" + this.targetSize + ") <= highWatermark ("
+               + this.highWatermark + ")");
+      }
+      if (this.maxIdleAgeMillis <= 0 || this.refillIntervalMillis <= 0)
+      {
+         throw new IllegalStateException("maxIdleAgeMillis (" + this.maxIdleAgeMillis
+               + ") and refillIntervalMillis (" + this.refillIntervalMillis + ") must be positive");
+      }
+   }
+
+   @Override
+   public String toString()
+   {
+      return "StatefulSessionPoolConfig[targetSize=" + this.targetSize + ", lowWatermark=" + this.lowWatermark
+            + ", highWatermark=" + this.highWatermark + ", maxIdleAgeMillis=" + this.maxIdleAgeMillis
+            + ", refillIntervalMillis=" + this.refillIntervalMillis + "]";
+   }
+}
@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.reflect.InvocationHandler;
+
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+
+/**
+ * CachedClassNoInterfaceViewFactory
+ *
+ * {@link NoInterfaceViewFactory} which generates the proxy class of a bean class once, and then
+ * instantiates it for every view (see {@link NoInterfaceViewProxyClass}). This is the default engine.
+ *
+ * @version $Revision: $
+ */
+public class CachedClassNoInterfaceViewFactory implements NoInterfaceViewFactory, NoInterfaceViewClassProvider
+{
+
+   /**
+    * @see NoInterfaceViewFactory#createView(InvocationHandler, Class)
+    */
+   public <T> T createView(InvocationHandler invocationHandler, Class<T> beanClass) throws Exception
+   {
+      return beanClass.cast(this.getViewClass(beanClass).newProxy(invocationHandler));
+   }
+
+   /**
+    * @see NoInterfaceViewClassProvider#getViewClass(Class)
+    */
+   public NoInterfaceViewClass getViewClass(Class<?> beanClass)
+   {
+      return NoInterfaceViewProxyClass.forBeanClass(beanClass);
+   }
+}
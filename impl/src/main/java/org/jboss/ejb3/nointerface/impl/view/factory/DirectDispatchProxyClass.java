@@ -0,0 +1,329 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewDispatcher;
+
+/**
+ * DirectDispatchProxyClass
+ *
+ * The generated proxy class of the no-interface views of a bean class, whose methods pass
+ * the index of the invoked method straight to a {@link NoInterfaceViewDispatcher} (see
+ * {@link DirectDispatchProxyGenerator}). Compared to {@link NoInterfaceViewProxyClass}, a call
+ * doesn't go through {@link InvocationHandler#invoke(Object, Method, Object[])} and doesn't need to
+ * look the invoked {@link Method} up, and calls to methods without parameters don't allocate
+ * an argument array.
+ * <p>
+ * Like {@link NoInterfaceViewProxyClass}, instances are shared per bean class through {@link #forBeanClass(Class)},
+ * and only weakly held by the shared cache.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class DirectDispatchProxyClass implements NoInterfaceViewClass
+{
+
+   /**
+    * The proxy classes, keyed (weakly) by bean class. An entry stays as long as views of the
+    * bean class are around, or as someone else holds on to the {@link DirectDispatchProxyClass}.
+    */
+   private static final Map<Class<?>, WeakReference<DirectDispatchProxyClass>> proxyClasses = new WeakHashMap<Class<?>, WeakReference<DirectDispatchProxyClass>>();
+
+   /**
+    * The generations in progress, keyed by bean class, guarded by the lock of {@link #proxyClasses}.
+    * A single thread generates the proxy class of a bean class, without holding that lock, while the
+    * other threads asking for the same bean class wait for it.
+    */
+   private static final Map<Class<?>, FutureTask<DirectDispatchProxyClass>> generations = new HashMap<Class<?>, FutureTask<DirectDispatchProxyClass>>();
+
+   /**
+    * The bean class
+    */
+   private final Class<?> beanClass;
+
+   /**
+    * The methods of the bean class, by index
+    */
+   private final Method[] methods;
+
+   /**
+    * The constructor, accepting the {@link NoInterfaceViewDispatcher}, of the generated proxy class
+    */
+   private final Constructor<?> constructor;
+
+   /**
+    * The field of the generated proxy class holding the {@link NoInterfaceViewDispatcher}
+    */
+   private final Field dispatcherField;
+
+   private DirectDispatchProxyClass(Class<?> beanClass) throws Exception
+   {
+      this.beanClass = beanClass;
+      this.methods = MethodDispatchTable.indexedMethods(beanClass);
+      // the views keep this instance (and thus its entry in the shared cache) alive through the proxy class
+      Class<?> proxyClass = DirectDispatchProxyGenerator.generate(beanClass, this.methods, this);
+      this.constructor = proxyClass.getConstructor(NoInterfaceViewDispatcher.class);
+      this.dispatcherField = DirectDispatchProxyGenerator.dispatcherField(proxyClass);
+   }
+
+   /**
+    * Returns the (shared) {@link DirectDispatchProxyClass} of <code>beanClass</code>, generating
+    * the proxy class if needed
+    *
+    * @param beanClass The bean class
+    * @return
+    * @throws Exception If the proxy class could not be generated
+    */
+   public static DirectDispatchProxyClass forBeanClass(final Class<?> beanClass) throws Exception
+   {
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+      FutureTask<DirectDispatchProxyClass> generation;
+      boolean generating = false;
+      synchronized (proxyClasses)
+      {
+         WeakReference<DirectDispatchProxyClass> ref = proxyClasses.get(beanClass);
+         DirectDispatchProxyClass proxyClass = ref == null ? null : ref.get();
+         if (proxyClass != null)
+         {
+            return proxyClass;
+         }
+         generation = generations.get(beanClass);
+         if (generation == null)
+         {
+            generation = new FutureTask<DirectDispatchProxyClass>(new Callable<DirectDispatchProxyClass>()
+            {
+               public DirectDispatchProxyClass call() throws Exception
+               {
+                  return new DirectDispatchProxyClass(beanClass);
+               }
+            });
+            generations.put(beanClass, generation);
+            generating = true;
+         }
+      }
+      // generates the proxy class outside of the lock, other bean classes don't wait for it
+      if (generating)
+      {
+         generation.run();
+      }
+      DirectDispatchProxyClass proxyClass = null;
+      try
+      {
+         proxyClass = generation.get();
+         return proxyClass;
+      }
+      catch (ExecutionException ee)
+      {
+         Throwable cause = ee.getCause();
+         if (cause instanceof Exception)
+         {
+            throw (Exception) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw ee;
+      }
+      finally
+      {
+         if (generating)
+         {
+            synchronized (proxyClasses)
+            {
+               generations.remove(beanClass);
+               if (proxyClass != null)
+               {
+                  proxyClasses.put(beanClass, new WeakReference<DirectDispatchProxyClass>(proxyClass));
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the {@link DirectDispatchProxyClass} whose proxy class <code>view</code> is an instance of
+    *
+    * @param view Any object
+    * @return The view class, null if <code>view</code> isn't a view created by this engine
+    */
+   static DirectDispatchProxyClass forView(Object view)
+   {
+      Object owner = DirectDispatchProxyGenerator.ownerOf(view.getClass());
+      return owner instanceof DirectDispatchProxyClass ? (DirectDispatchProxyClass) owner : null;
+   }
+
+   /**
+    * Removes the entries of the bean classes defined by <code>classLoader</code> (or by one of
+    * its descendants) from the shared cache
+    *
+    * @param classLoader The classloader of an undeployed deployment
+    * @return The number of removed entries
+    */
+   static int purge(ClassLoader classLoader)
+   {
+      synchronized (proxyClasses)
+      {
+         return NoInterfaceViewClasses.purge(proxyClasses.keySet(), classLoader);
+      }
+   }
+
+   /**
+    * Creates a no-interface view which routes all calls to <code>dispatcher</code>
+    *
+    * @param dispatcher The dispatcher of the view
+    * @return
+    * @throws Exception If the view could not be created
+    */
+   public Object newDirectProxy(NoInterfaceViewDispatcher dispatcher) throws Exception
+   {
+      return this.constructor.newInstance(dispatcher);
+   }
+
+   /**
+    * Creates a no-interface view which routes all calls to <code>invocationHandler</code>.
+    * If the handler is a {@link NoInterfaceViewDispatcher} too, it's used as such, else
+    * calls are adapted to the {@link InvocationHandler} contract.
+    *
+    * @param invocationHandler The invocation handler of the view
+    * @return
+    * @throws Exception If the view could not be created
+    */
+   public Object newProxy(InvocationHandler invocationHandler) throws Exception
+   {
+      if (invocationHandler instanceof NoInterfaceViewDispatcher)
+      {
+         return this.newDirectProxy((NoInterfaceViewDispatcher) invocationHandler);
+      }
+      return this.newInvocationHandlerProxy(invocationHandler);
+   }
+
+   /**
+    * Creates a no-interface view whose calls all go through
+    * {@link InvocationHandler#invoke(Object, Method, Object[])} of <code>invocationHandler</code>,
+    * even if the handler is a {@link NoInterfaceViewDispatcher} too
+    *
+    * @param invocationHandler The invocation handler of the view
+    * @return
+    * @throws Exception If the view could not be created
+    */
+   Object newInvocationHandlerProxy(InvocationHandler invocationHandler) throws Exception
+   {
+      return this.newDirectProxy(new InvocationHandlerDispatcher(invocationHandler, this.methods));
+   }
+
+   /**
+    * The proxy class is generated when this instance is created, nothing left to do
+    *
+    * @see NoInterfaceViewClass#generate()
+    */
+   public void generate()
+   {
+   }
+
+   /**
+    * {@inheritDoc}
+    * The handler of a view created by {@link #newDirectProxy(NoInterfaceViewDispatcher)} is its dispatcher,
+    * if that's an {@link InvocationHandler} too.
+    *
+    * @see NoInterfaceViewClass#getInvocationHandler(Object)
+    */
+   public InvocationHandler getInvocationHandler(Object view)
+   {
+      if (view == null || view.getClass() != this.constructor.getDeclaringClass())
+      {
+         return null;
+      }
+      Object dispatcher;
+      try
+      {
+         dispatcher = this.dispatcherField.get(view);
+      }
+      catch (IllegalAccessException iae)
+      {
+         // made accessible when the proxy class was generated
+         throw new IllegalStateException(iae);
+      }
+      if (dispatcher instanceof InvocationHandlerDispatcher)
+      {
+         return ((InvocationHandlerDispatcher) dispatcher).invocationHandler;
+      }
+      return dispatcher instanceof InvocationHandler ? (InvocationHandler) dispatcher : null;
+   }
+
+   /**
+    * Returns the bean class
+    *
+    * @return
+    */
+   public Class<?> getBeanClass()
+   {
+      return this.beanClass;
+   }
+
+   /**
+    * Returns the generated proxy class, which all the views created by this instance are instances of
+    *
+    * @return
+    */
+   public Class<?> getProxyClass()
+   {
+      return this.constructor.getDeclaringClass();
+   }
+
+   /**
+    * Adapts the calls of a generated proxy to an {@link InvocationHandler}
+    */
+   private static final class InvocationHandlerDispatcher implements NoInterfaceViewDispatcher
+   {
+      private final InvocationHandler invocationHandler;
+
+      private final Method[] methods;
+
+      InvocationHandlerDispatcher(InvocationHandler invocationHandler, Method[] methods)
+      {
+         this.invocationHandler = invocationHandler;
+         this.methods = methods;
+      }
+
+      public Object invoke(Object proxy, int methodIndex, Object[] args) throws Throwable
+      {
+         return this.invocationHandler.invoke(proxy, this.methods[methodIndex], args);
+      }
+   }
+}
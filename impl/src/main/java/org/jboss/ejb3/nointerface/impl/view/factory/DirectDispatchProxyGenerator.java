@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.Descriptor;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewDispatcher;
+import org.jboss.logging.Logger;
+
+/**
+ * DirectDispatchProxyGenerator
+ *
+ * Generates the proxy class of {@link DirectDispatchProxyClass}: a subclass of the bean class, with
+ * a constructor accepting a {@link NoInterfaceViewDispatcher} (set before the constructor of the bean class
+ * runs), whose overridable public methods are stubs passing the index of the method (in
+ * {@link MethodDispatchTable#indexedMethods(Class)}) and the arguments to the dispatcher. Overridable
+ * protected methods throw, as they can't be invoked through a no-interface view.
+ * <p>
+ * The exceptions are <code>finalize()</code> and <code>clone()</code>: they aren't business methods,
+ * but the VM (or the container) may call them on a view, so they are never overridden, even if the bean
+ * class redeclares them.
+ * </p>
+ * <p>
+ * The class is defined in its own classloader, child of the classloader of the bean class, which
+ * also sees {@link NoInterfaceViewDispatcher} even if the bean classloader doesn't. The proxy class
+ * is thus in a different runtime package than the bean class, so package private methods aren't
+ * overridden: they can only be invoked by classes of the bean's own package anyway.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+final class DirectDispatchProxyGenerator
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(DirectDispatchProxyGenerator.class);
+
+   /**
+    * Version of the generated bytecode, part of the keys of the {@link ProxyBytecodeCache}: to be changed
+    * along with the generated bytecode, so that the entries cached by a previous version aren't used
+    */
+   static final String BYTECODE_VERSION = "1";
+
+   /**
+    * Name of the field, of the generated class, holding the dispatcher
+    */
+   private static final String DISPATCHER_FIELD = "noInterfaceViewDispatcher_";
+
+   /**
+    * Suffix of the name of the generated class
+    */
+   private static final String CLASS_NAME_SUFFIX = "$$NoInterfaceView";
+
+   private DirectDispatchProxyGenerator()
+   {
+      // static utility
+   }
+
+   /**
+    * Generates the proxy class of <code>beanClass</code>, or defines it from the bytecode cached by the
+    * {@link ProxyBytecodeCache} registered for the bean class, if any
+    *
+    * @param beanClass The bean class, which must have a public or protected no-arg constructor
+    * @param methods The methods of the bean class, in the order of {@link MethodDispatchTable#indexedMethods(Class)}
+    * @param owner Object kept reachable as long as the proxy class is (through its classloader)
+    * @return The proxy class
+    * @throws Exception If the class could not be generated
+    */
+   static Class<?> generate(Class<?> beanClass, Method[] methods, Object owner) throws Exception
+   {
+      String proxyClassName = beanClass.getName() + CLASS_NAME_SUFFIX;
+      ProxyBytecodeCache bytecodeCache = ProxyBytecodeCache.forBeanClass(beanClass);
+      String key = bytecodeCache == null ? null : bytecodeCache.keyOf(beanClass);
+      if (key != null)
+      {
+         byte[] cachedBytecode = bytecodeCache.load(key);
+         if (cachedBytecode != null)
+         {
+            try
+            {
+               return new ProxyClassLoader(beanClass.getClassLoader(), owner).define(proxyClassName, cachedBytecode,
+                     beanClass);
+            }
+            catch (ClassFormatError cfe)
+            {
+               logger.warn("Discarding cached bytecode of the proxy class of " + beanClass, cfe);
+               bytecodeCache.evict(key);
+            }
+         }
+      }
+      byte[] bytecode = generateBytecode(beanClass, proxyClassName, methods);
+      if (key != null)
+      {
+         bytecodeCache.store(key, bytecode);
+      }
+      return new ProxyClassLoader(beanClass.getClassLoader(), owner).define(proxyClassName, bytecode, beanClass);
+   }
+
+   private static byte[] generateBytecode(Class<?> beanClass, String proxyClassName, Method[] methods)
+         throws Exception
+   {
+      ClassLoader beanClassLoader = beanClass.getClassLoader();
+      ClassPool pool = new ClassPool(false);
+      pool.appendClassPath(new ClassClassPath(NoInterfaceViewDispatcher.class));
+      if (beanClassLoader != null)
+      {
+         pool.appendClassPath(new LoaderClassPath(beanClassLoader));
+      }
+      pool.appendSystemPath();
+
+      CtClass proxyCtClass = pool.makeClass(proxyClassName, pool.get(beanClass.getName()));
+      try
+      {
+         CtClass dispatcherCtClass = pool.get(NoInterfaceViewDispatcher.class.getName());
+         CtField dispatcherField = new CtField(dispatcherCtClass, DISPATCHER_FIELD, proxyCtClass);
+         dispatcherField.setModifiers(Modifier.PRIVATE);
+         proxyCtClass.addField(dispatcherField);
+
+         proxyCtClass.addConstructor(dispatcherConstructor(proxyCtClass, dispatcherCtClass));
+
+         Set<String> overridden = new HashSet<String>();
+         for (int index = 0; index < methods.length; index++)
+         {
+            Method method = methods[index];
+            if (!isOverridable(method) || isContainerCalledObjectMethod(method)
+                  || !overridden.add(signatureOf(method)))
+            {
+               continue;
+            }
+            // no arguments, no array
+            String args = method.getParameterTypes().length == 0 ? "null" : "$args";
+            addMethod(pool, proxyCtClass, method, Modifier.PUBLIC, "{ return ($r) this." + DISPATCHER_FIELD
+                  + ".invoke(this, " + index + ", " + args + "); }");
+         }
+         for (Class<?> current = beanClass; current != null && current != Object.class; current = current
+               .getSuperclass())
+         {
+            for (Method method : current.getDeclaredMethods())
+            {
+               if (!Modifier.isProtected(method.getModifiers()) || !isOverridable(method)
+                     || isContainerCalledObjectMethod(method) || !overridden.add(signatureOf(method)))
+               {
+                  continue;
+               }
+               addMethod(pool, proxyCtClass, method, Modifier.PROTECTED,
+                     "{ throw new javax.ejb.EJBException(\"Cannot invoke method " + method.getName()
+                           + " on nointerface view\"); }");
+            }
+         }
+
+         return proxyCtClass.toBytecode();
+      }
+      finally
+      {
+         proxyCtClass.detach();
+      }
+   }
+
+   /**
+    * Creates the constructor of the proxy class, which sets the dispatcher field <i>before</i> calling
+    * the no-arg constructor of the bean class (as javac does for the outer instance of an inner class):
+    * methods of the view called by the bean class constructor are thus dispatched too. The source
+    * compiler of javassist only accepts statements after <code>super()</code>, hence the hand written bytecode.
+    */
+   private static CtConstructor dispatcherConstructor(CtClass proxyCtClass, CtClass dispatcherCtClass)
+         throws CannotCompileException, NotFoundException
+   {
+      CtConstructor constructor = new CtConstructor(new CtClass[]
+      {dispatcherCtClass}, proxyCtClass);
+      constructor.setModifiers(Modifier.PUBLIC);
+      Bytecode code = new Bytecode(proxyCtClass.getClassFile().getConstPool(), 2, 2);
+      code.addAload(0);
+      code.addAload(1);
+      code.addPutfield(proxyCtClass, DISPATCHER_FIELD, Descriptor.of(dispatcherCtClass));
+      code.addAload(0);
+      code.addInvokespecial(proxyCtClass.getSuperclass(), "<init>", "()V");
+      code.addReturn(null);
+      constructor.getMethodInfo().setCodeAttribute(code.toCodeAttribute());
+      return constructor;
+   }
+
+   /**
+    * Returns the field of a generated proxy class holding the dispatcher, made accessible
+    *
+    * @param proxyClass A class generated by {@link #generate(Class, Method[], Object)}
+    * @return
+    * @throws NoSuchFieldException
+    */
+   static Field dispatcherField(Class<?> proxyClass) throws NoSuchFieldException
+   {
+      Field field = proxyClass.getDeclaredField(DISPATCHER_FIELD);
+      field.setAccessible(true);
+      return field;
+   }
+
+   /**
+    * Returns the <code>owner</code> the class was generated for, if it's a generated proxy class
+    *
+    * @param type Any class
+    * @return The owner passed to {@link #generate(Class, Method[], Object)}, null if <code>type</code>
+    *         wasn't generated by it
+    */
+   static Object ownerOf(Class<?> type)
+   {
+      ClassLoader classLoader = type.getClassLoader();
+      return classLoader instanceof ProxyClassLoader ? ((ProxyClassLoader) classLoader).owner : null;
+   }
+
+   private static boolean isOverridable(Method method)
+   {
+      int modifiers = method.getModifiers();
+      return !Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !Modifier.isPrivate(modifiers);
+   }
+
+   /**
+    * Returns true if <code>method</code> is (a redeclaration of) <code>finalize()</code> or <code>clone()</code>
+    */
+   private static boolean isContainerCalledObjectMethod(Method method)
+   {
+      String name = method.getName();
+      return method.getParameterTypes().length == 0 && ("finalize".equals(name) || "clone".equals(name));
+   }
+
+   private static String signatureOf(Method method)
+   {
+      StringBuilder sb = new StringBuilder(method.getName()).append('(');
+      for (Class<?> parameterType : method.getParameterTypes())
+      {
+         sb.append(parameterType.getName()).append(';');
+      }
+      return sb.append(')').append(method.getReturnType().getName()).toString();
+   }
+
+   private static void addMethod(ClassPool pool, CtClass proxyCtClass, Method method, int modifiers, String body)
+         throws NotFoundException, CannotCompileException
+   {
+      CtMethod proxyMethod = new CtMethod(ctClassOf(pool, method.getReturnType()), method.getName(), ctClassesOf(
+            pool, method.getParameterTypes()), proxyCtClass);
+      proxyMethod.setExceptionTypes(ctClassesOf(pool, method.getExceptionTypes()));
+      proxyMethod.setModifiers(modifiers);
+      proxyMethod.setBody(body);
+      proxyCtClass.addMethod(proxyMethod);
+   }
+
+   private static CtClass[] ctClassesOf(ClassPool pool, Class<?>[] classes) throws NotFoundException
+   {
+      CtClass[] ctClasses = new CtClass[classes.length];
+      for (int i = 0; i < classes.length; i++)
+      {
+         ctClasses[i] = ctClassOf(pool, classes[i]);
+      }
+      return ctClasses;
+   }
+
+   private static CtClass ctClassOf(ClassPool pool, Class<?> clazz) throws NotFoundException
+   {
+      if (clazz.isArray())
+      {
+         return pool.get(ctClassOf(pool, clazz.getComponentType()).getName() + "[]");
+      }
+      // ClassPool knows the primitive types (and void) by name too
+      return pool.get(clazz.getName());
+   }
+
+   /**
+    * Defines a generated proxy class. Loads {@link NoInterfaceViewDispatcher} from the classloader of this
+    * implementation, and every other class from the bean classloader.
+    */
+   private static final class ProxyClassLoader extends ClassLoader
+   {
+      /**
+       * Referenced to tie its lifecycle to the one of the proxy class
+       */
+      private final Object owner;
+
+      ProxyClassLoader(ClassLoader beanClassLoader, Object owner)
+      {
+         super(beanClassLoader);
+         this.owner = owner;
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (NoInterfaceViewDispatcher.class.getName().equals(name))
+         {
+            return NoInterfaceViewDispatcher.class;
+         }
+         return super.loadClass(name, resolve);
+      }
+
+      Class<?> define(String name, byte[] bytecode, Class<?> beanClass)
+      {
+         return this.defineClass(name, bytecode, 0, bytecode.length, beanClass.getProtectionDomain());
+      }
+   }
+}
@@ -0,0 +1,77 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.reflect.InvocationHandler;
+
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+
+/**
+ * NoInterfaceViewClass
+ *
+ * Creates the no-interface views of one bean class. Obtained, for a given proxy engine
+ * ({@link NoInterfaceViewFactory}), through {@link NoInterfaceViewClasses#forBeanClass(NoInterfaceViewFactory, Class)},
+ * and held by the binder (or stateful proxy factory) of the bean, so that engines which generate
+ * a proxy class do it once per bean class.
+ *
+ * @version $Revision: $
+ */
+public interface NoInterfaceViewClass
+{
+   /**
+    * Creates a no-interface view which routes all calls to <code>invocationHandler</code>
+    *
+    * @param invocationHandler The invocation handler of the view
+    * @return The view
+    * @throws Exception If the view could not be created
+    */
+   Object newProxy(InvocationHandler invocationHandler) throws Exception;
+
+   /**
+    * Generates whatever the engine needs to create views (for ex: the proxy class), if it
+    * isn't already available, so that the first view creation doesn't pay for it.
+    * <p>
+    * Must not create a view: instantiating the proxy class runs the constructor of the bean class,
+    * which doesn't expect to run at deployment, outside of the container. Engines which can't generate
+    * the proxy class without instantiating it leave the generation to the first view creation.
+    * </p>
+    *
+    * @throws Exception If the generation failed
+    */
+   void generate() throws Exception;
+
+   /**
+    * Returns the invocation handler of <code>view</code>, if it's a view created by this view class
+    *
+    * @param view Any object
+    * @return The invocation handler the view routes its calls to, null if <code>view</code> isn't a view
+    *         created by this view class, or if the engine can't tell
+    */
+   InvocationHandler getInvocationHandler(Object view);
+
+   /**
+    * Returns the bean class
+    *
+    * @return
+    */
+   Class<?> getBeanClass();
+}
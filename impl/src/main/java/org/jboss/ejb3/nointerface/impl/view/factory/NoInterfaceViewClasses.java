@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+import org.jboss.logging.Logger;
+
+/**
+ * NoInterfaceViewClasses
+ *
+ * Resolves the proxy engine ({@link NoInterfaceViewFactory}) used when none is configured,
+ * and the {@link NoInterfaceViewClass} of a bean class for a given engine.
+ * <p>
+ * The default engine is the first {@link NoInterfaceViewFactory} registered through
+ * <code>META-INF/services/org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory</code>
+ * visible to this implementation, else the {@link CachedClassNoInterfaceViewFactory}.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class NoInterfaceViewClasses
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(NoInterfaceViewClasses.class);
+
+   /**
+    * The default engine, resolved on first use
+    */
+   private static volatile NoInterfaceViewFactory defaultFactory;
+
+   private NoInterfaceViewClasses()
+   {
+      // static utility
+   }
+
+   /**
+    * Returns the default proxy engine
+    *
+    * @return
+    */
+   public static NoInterfaceViewFactory getDefaultFactory()
+   {
+      NoInterfaceViewFactory factory = defaultFactory;
+      if (factory == null)
+      {
+         factory = loadDefaultFactory();
+         defaultFactory = factory;
+      }
+      return factory;
+   }
+
+   private static NoInterfaceViewFactory loadDefaultFactory()
+   {
+      Iterator<NoInterfaceViewFactory> factories = ServiceLoader.load(NoInterfaceViewFactory.class,
+            NoInterfaceViewClasses.class.getClassLoader()).iterator();
+      if (factories.hasNext())
+      {
+         NoInterfaceViewFactory factory = factories.next();
+         logger.debug("Using " + factory + " as the default no-interface view factory");
+         return factory;
+      }
+      return new CachedClassNoInterfaceViewFactory();
+   }
+
+   /**
+    * Returns the {@link NoInterfaceViewClass} of <code>beanClass</code> for the engine <code>factory</code>.
+    * Engines which don't provide view classes of their own get a view class which calls
+    * {@link NoInterfaceViewFactory#createView(InvocationHandler, Class)} for every view.
+    *
+    * @param factory The proxy engine, null for the default one
+    * @param beanClass The bean class
+    * @return
+    * @throws Exception If the view class could not be created
+    */
+   public static NoInterfaceViewClass forBeanClass(NoInterfaceViewFactory factory, Class<?> beanClass)
+         throws Exception
+   {
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+      if (factory == null)
+      {
+         factory = getDefaultFactory();
+      }
+      if (factory instanceof NoInterfaceViewClassProvider)
+      {
+         return ((NoInterfaceViewClassProvider) factory).getViewClass(beanClass);
+      }
+      return new FactoryViewClass(factory, beanClass);
+   }
+
+   /**
+    * Returns the invocation handler of <code>view</code>, a no-interface view created by any of the proxy
+    * engines of this implementation (or by an engine creating {@link Proxy} instances)
+    *
+    * @param view Any object
+    * @return The invocation handler the view routes its calls to, null if <code>view</code> isn't such a view
+    */
+   public static InvocationHandler getInvocationHandler(Object view)
+   {
+      if (view == null)
+      {
+         return null;
+      }
+      if (Proxy.isProxyClass(view.getClass()))
+      {
+         return Proxy.getInvocationHandler(view);
+      }
+      // the views of both engines of this implementation are instances of a DirectDispatchProxyClass
+      NoInterfaceViewClass viewClass = DirectDispatchProxyClass.forView(view);
+      return viewClass == null ? null : viewClass.getInvocationHandler(view);
+   }
+
+   /**
+    * Removes whatever is cached on behalf of the bean classes defined by <code>classLoader</code> (or by one
+    * of its descendants) from the shared caches of proxy classes, so that nothing in here keeps an undeployed
+    * deployment's classloader reachable, even while the garbage collector hasn't cleared the weak entries yet
+    *
+    * @param classLoader The classloader of an undeployed deployment
+    * @return The number of removed entries
+    */
+   public static int purge(ClassLoader classLoader)
+   {
+      if (classLoader == null)
+      {
+         return 0;
+      }
+      return NoInterfaceViewProxyClass.purge(classLoader) + DirectDispatchProxyClass.purge(classLoader)
+            + ProxyBytecodeCache.purge(classLoader);
+   }
+
+   /**
+    * Removes the classes defined by <code>classLoader</code> (or by one of its descendants)
+    * from <code>classes</code>
+    */
+   static int purge(Collection<Class<?>> classes, ClassLoader classLoader)
+   {
+      int purged = 0;
+      for (Iterator<Class<?>> it = classes.iterator(); it.hasNext();)
+      {
+         Class<?> type = it.next();
+         if (type != null && isDefinedBy(type, classLoader))
+         {
+            it.remove();
+            purged++;
+         }
+      }
+      return purged;
+   }
+
+   private static boolean isDefinedBy(Class<?> type, ClassLoader classLoader)
+   {
+      for (ClassLoader current = type.getClassLoader(); current != null; current = current.getParent())
+      {
+         if (current == classLoader)
+         {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * {@link NoInterfaceViewClass} of engines which don't provide their own
+    */
+   private static final class FactoryViewClass implements NoInterfaceViewClass
+   {
+      private final NoInterfaceViewFactory factory;
+
+      private final Class<?> beanClass;
+
+      FactoryViewClass(NoInterfaceViewFactory factory, Class<?> beanClass)
+      {
+         this.factory = factory;
+         this.beanClass = beanClass;
+      }
+
+      public Object newProxy(InvocationHandler invocationHandler) throws Exception
+      {
+         return this.factory.createView(invocationHandler, this.beanClass);
+      }
+
+      public void generate()
+      {
+         // nothing known to generate ahead of time
+      }
+
+      public InvocationHandler getInvocationHandler(Object view)
+      {
+         // only the views which are Proxy instances are known to the engines of this implementation
+         return view != null && Proxy.isProxyClass(view.getClass()) && this.beanClass.isInstance(view) ? Proxy
+               .getInvocationHandler(view) : null;
+      }
+
+      public Class<?> getBeanClass()
+      {
+         return this.beanClass;
+      }
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * NoInterfaceViewProxyClass
+ *
+ * Caches the proxy class generated for the no-interface view of a bean class, so that creating a view
+ * after the first one is just a constructor call with a new {@link InvocationHandler}.
+ * <p>
+ * The proxy class is the one generated for the {@link DirectDispatchProxyClass} of the bean class (and thus
+ * shared with that engine), whose constructor sets the handler before the constructor of the bean class
+ * runs. Unlike {@link DirectDispatchProxyClass#newProxy(InvocationHandler)}, every call of a view goes through
+ * {@link InvocationHandler#invoke(Object, Method, Object[])}, whatever the type of the handler.
+ * </p>
+ * <p>
+ * Instances are shared, per bean class, through {@link #forBeanClass(Class)}. The shared cache only
+ * holds them weakly: it's the users of a {@link NoInterfaceViewProxyClass} (for ex: the
+ * {@link StatefulNoInterfaceViewProxyFactory} bound to JNDI for the bean) which keep it alive.
+ * Once those are gone (on undeploy), nothing in here keeps the deployment classloader reachable.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class NoInterfaceViewProxyClass implements NoInterfaceViewClass
+{
+
+   /**
+    * The proxy classes, keyed (weakly) by bean class
+    */
+   private static final Map<Class<?>, WeakReference<NoInterfaceViewProxyClass>> proxyClasses = new WeakHashMap<Class<?>, WeakReference<NoInterfaceViewProxyClass>>();
+
+   /**
+    * The bean class
+    */
+   private final Class<?> beanClass;
+
+   /**
+    * The generated proxy class. Null till the first proxy has been created (or the
+    * class has been generated ahead of time)
+    */
+   private volatile DirectDispatchProxyClass proxyClass;
+
+   private NoInterfaceViewProxyClass(Class<?> beanClass)
+   {
+      this.beanClass = beanClass;
+   }
+
+   /**
+    * Returns the (shared) {@link NoInterfaceViewProxyClass} of <code>beanClass</code>
+    *
+    * @param beanClass The bean class
+    * @return
+    */
+   public static NoInterfaceViewProxyClass forBeanClass(Class<?> beanClass)
+   {
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+      synchronized (proxyClasses)
+      {
+         WeakReference<NoInterfaceViewProxyClass> ref = proxyClasses.get(beanClass);
+         NoInterfaceViewProxyClass proxyClass = ref == null ? null : ref.get();
+         if (proxyClass == null)
+         {
+            proxyClass = new NoInterfaceViewProxyClass(beanClass);
+            proxyClasses.put(beanClass, new WeakReference<NoInterfaceViewProxyClass>(proxyClass));
+         }
+         return proxyClass;
+      }
+   }
+
+   /**
+    * Removes the entries of the bean classes defined by <code>classLoader</code> (or by one of
+    * its descendants) from the shared cache
+    *
+    * @param classLoader The classloader of an undeployed deployment
+    * @return The number of removed entries
+    */
+   static int purge(ClassLoader classLoader)
+   {
+      synchronized (proxyClasses)
+      {
+         return NoInterfaceViewClasses.purge(proxyClasses.keySet(), classLoader);
+      }
+   }
+
+   /**
+    * Creates a no-interface view which routes all calls to <code>invocationHandler</code>.
+    * The first call generates the proxy class, subsequent calls just instantiate it.
+    *
+    * @param invocationHandler The invocation handler of the view
+    * @return
+    * @throws Exception If the view could not be created
+    */
+   public Object newProxy(InvocationHandler invocationHandler) throws Exception
+   {
+      return this.generateProxyClass().newInvocationHandlerProxy(invocationHandler);
+   }
+
+   /**
+    * Generates the proxy class, without instantiating it
+    *
+    * @see NoInterfaceViewClass#generate()
+    */
+   public void generate() throws Exception
+   {
+      this.generateProxyClass();
+   }
+
+   /**
+    * Returns the bean class
+    *
+    * @return
+    */
+   public Class<?> getBeanClass()
+   {
+      return this.beanClass;
+   }
+
+   /**
+    * @see NoInterfaceViewClass#getInvocationHandler(Object)
+    */
+   public InvocationHandler getInvocationHandler(Object view)
+   {
+      DirectDispatchProxyClass generated = this.proxyClass;
+      return generated == null ? null : generated.getInvocationHandler(view);
+   }
+
+   /**
+    * Returns the cached proxy class, which all the views created by {@link #newProxy(InvocationHandler)}
+    * are instances of
+    *
+    * @return The proxy class, or null if it hasn't been generated yet
+    */
+   public Class<?> getProxyClass()
+   {
+      DirectDispatchProxyClass generated = this.proxyClass;
+      return generated == null ? null : generated.getProxyClass();
+   }
+
+   private DirectDispatchProxyClass generateProxyClass() throws Exception
+   {
+      DirectDispatchProxyClass generated = this.proxyClass;
+      if (generated == null)
+      {
+         // DirectDispatchProxyClass makes sure a single thread generates the class
+         generated = DirectDispatchProxyClass.forBeanClass(this.beanClass);
+         this.proxyClass = generated;
+      }
+      return generated;
+   }
+}
@@ -0,0 +1,336 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.view.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * ProxyBytecodeCache
+ *
+ * A directory holding the bytecode of the proxy classes generated by {@link DirectDispatchProxyGenerator}
+ * (and thus of the views of both the default and the direct dispatch engines), so that a proxy class
+ * whose bean class hasn't changed since a previous deployment (or a previous run of the server) is
+ * defined straight from its cached bytecode, instead of being generated anew.
+ * <p>
+ * An entry is keyed by a SHA-1 hash of the bytes of the bean class and of its superclasses (which
+ * is all the generated bytecode depends on), so an entry is never used for a class it wasn't generated
+ * for: a changed bean class gets a new entry, and the stale one is never read again.
+ * </p>
+ * <p>
+ * The cache of a bean class is set through {@link #register(Class)}, the registrations being weakly
+ * held (and purged along with the proxy classes on undeploy, see {@link NoInterfaceViewClasses#purge(ClassLoader)}).
+ * Failing to read or write the cache only costs a generation: it is logged, never thrown.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public final class ProxyBytecodeCache
+{
+
+   /**
+    * Logger
+    */
+   private static Logger logger = Logger.getLogger(ProxyBytecodeCache.class);
+
+   /**
+    * Suffix of the cache entries
+    */
+   private static final String ENTRY_SUFFIX = ".class";
+
+   /**
+    * The caches of the bean classes, keyed (weakly) by bean class
+    */
+   private static final Map<Class<?>, WeakReference<ProxyBytecodeCache>> caches = new WeakHashMap<Class<?>, WeakReference<ProxyBytecodeCache>>();
+
+   /**
+    * The directory of the cache entries
+    */
+   private final File directory;
+
+   /**
+    * Creates a cache storing its entries in <code>directory</code>, which is created on first store
+    *
+    * @param directory The cache directory
+    */
+   public ProxyBytecodeCache(File directory)
+   {
+      if (directory == null)
+      {
+         throw new IllegalArgumentException("Cache directory must be specified");
+      }
+      this.directory = directory;
+   }
+
+   /**
+    * Returns the directory of the cache entries
+    *
+    * @return
+    */
+   public File getDirectory()
+   {
+      return this.directory;
+   }
+
+   /**
+    * Makes this cache the one the proxy class of <code>beanClass</code> is read from, and
+    * stored to, when it's generated. The caller keeps this cache alive as long as the registration
+    * has to last.
+    *
+    * @param beanClass The bean class
+    */
+   public void register(Class<?> beanClass)
+   {
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+      synchronized (caches)
+      {
+         caches.put(beanClass, new WeakReference<ProxyBytecodeCache>(this));
+      }
+   }
+
+   /**
+    * Returns the cache registered for <code>beanClass</code>
+    *
+    * @param beanClass The bean class
+    * @return The cache, null if there's none
+    */
+   static ProxyBytecodeCache forBeanClass(Class<?> beanClass)
+   {
+      synchronized (caches)
+      {
+         WeakReference<ProxyBytecodeCache> ref = caches.get(beanClass);
+         return ref == null ? null : ref.get();
+      }
+   }
+
+   /**
+    * Removes the registrations of the bean classes defined by <code>classLoader</code> (or by one of
+    * its descendants)
+    *
+    * @param classLoader The classloader of an undeployed deployment
+    * @return The number of removed registrations
+    */
+   static int purge(ClassLoader classLoader)
+   {
+      synchronized (caches)
+      {
+         return NoInterfaceViewClasses.purge(caches.keySet(), classLoader);
+      }
+   }
+
+   /**
+    * Returns the key of the entry of <code>beanClass</code>: the hex encoded SHA-1 hash of the
+    * {@link DirectDispatchProxyGenerator#BYTECODE_VERSION version} of the generated bytecode, and of
+    * the name and bytes of the bean class and of each of its superclasses (up to, but excluding,
+    * {@link Object})
+    *
+    * @param beanClass The bean class
+    * @return The key, null if the bytes of one of the classes can't be read (the class being
+    *         generated at runtime, for ex)
+    */
+   String keyOf(Class<?> beanClass)
+   {
+      MessageDigest digest;
+      try
+      {
+         digest = MessageDigest.getInstance("SHA-1");
+      }
+      catch (NoSuchAlgorithmException nsae)
+      {
+         // every Java platform supports SHA-1
+         throw new IllegalStateException(nsae);
+      }
+      digest.update(DirectDispatchProxyGenerator.BYTECODE_VERSION.getBytes());
+      for (Class<?> current = beanClass; current != null && current != Object.class; current = current
+            .getSuperclass())
+      {
+         byte[] bytes = classBytes(current);
+         if (bytes == null)
+         {
+            return null;
+         }
+         digest.update(current.getName().getBytes());
+         digest.update(bytes);
+      }
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+      {
+         key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return key.toString();
+   }
+
+   /**
+    * Returns the cached bytecode of the entry <code>key</code>
+    *
+    * @param key The key of the entry (see {@link #keyOf(Class)})
+    * @return The bytecode, null if there's no such entry or if it can't be read
+    */
+   byte[] load(String key)
+   {
+      File entry = this.entry(key);
+      if (!entry.isFile())
+      {
+         return null;
+      }
+      try
+      {
+         InputStream in = new FileInputStream(entry);
+         try
+         {
+            return readFully(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException ioe)
+      {
+         logger.warn("Could not read cached proxy class bytecode " + entry, ioe);
+         return null;
+      }
+   }
+
+   /**
+    * Stores <code>bytecode</code> as the entry <code>key</code>. The entry is written to a temporary
+    * file first, and then renamed, so that no one ever reads a partially written entry.
+    *
+    * @param key The key of the entry (see {@link #keyOf(Class)})
+    * @param bytecode The bytecode of the generated proxy class
+    */
+   void store(String key, byte[] bytecode)
+   {
+      File entry = this.entry(key);
+      File temp = null;
+      try
+      {
+         if (!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory())
+         {
+            throw new IOException("Could not create directory " + this.directory);
+         }
+         temp = File.createTempFile(key, ".tmp", this.directory);
+         OutputStream out = new FileOutputStream(temp);
+         try
+         {
+            out.write(bytecode);
+         }
+         finally
+         {
+            out.close();
+         }
+         // an entry stored meanwhile by someone else holds the same bytecode
+         if (!temp.renameTo(entry) && !entry.isFile())
+         {
+            throw new IOException("Could not rename " + temp + " to " + entry);
+         }
+      }
+      catch (IOException ioe)
+      {
+         logger.warn("Could not cache proxy class bytecode to " + entry, ioe);
+      }
+      finally
+      {
+         if (temp != null && temp.exists())
+         {
+            temp.delete();
+         }
+      }
+   }
+
+   /**
+    * Removes the entry <code>key</code>, which could not be used
+    *
+    * @param key The key of the entry (see {@link #keyOf(Class)})
+    */
+   void evict(String key)
+   {
+      File entry = this.entry(key);
+      if (entry.exists() && !entry.delete())
+      {
+         logger.warn("Could not delete cached proxy class bytecode " + entry);
+      }
+   }
+
+   private File entry(String key)
+   {
+      return new File(this.directory, key + ENTRY_SUFFIX);
+   }
+
+   /**
+    * Returns the bytes of the class file of <code>type</code>, null if they can't be read
+    */
+   private static byte[] classBytes(Class<?> type)
+   {
+      ClassLoader classLoader = type.getClassLoader();
+      if (classLoader == null)
+      {
+         classLoader = ClassLoader.getSystemClassLoader();
+      }
+      InputStream in = classLoader.getResourceAsStream(type.getName().replace('.', '/') + ".class");
+      if (in == null)
+      {
+         return null;
+      }
+      try
+      {
+         try
+         {
+            return readFully(in);
+         }
+         finally
+         {
+            in.close();
+         }
+      }
+      catch (IOException ioe)
+      {
+         return null;
+      }
+   }
+
+   private static byte[] readFully(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+      {
+         bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+   }
+}
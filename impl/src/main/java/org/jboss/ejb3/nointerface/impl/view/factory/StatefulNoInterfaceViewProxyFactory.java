@@ -22,12 +22,20 @@
 package org.jboss.ejb3.nointerface.impl.view.factory;
 
 import java.io.Serializable;
-import java.lang.reflect.InvocationHandler;
 
 import org.jboss.dependency.spi.ControllerState;
 import org.jboss.ejb3.endpoint.Endpoint;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
 import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
-import org.jboss.ejb3.proxy.javassist.JavassistProxyFactory;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.PreparedInvocationTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SessionInitializer;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SharedViewState;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+import org.jboss.ejb3.nointerface.impl.session.SessionReclaimer;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPool;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPoolConfig;
 import org.jboss.kernel.spi.dependency.KernelControllerContext;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
@@ -69,6 +77,74 @@ public class StatefulNoInterfaceViewProxyFactory
     */
    private final JBossSessionBean31MetaData metadata; 
 
+   /**
+    * Dispatch table of the bean class, shared by all the views created by this factory
+    */
+   private final MethodDispatchTable dispatchTable;
+
+   /**
+    * Creates the no-interface views. When the engine generates a proxy class, it's generated on
+    * the first lookup (unless it was generated ahead of time) and then reused by all subsequent ones
+    */
+   private final NoInterfaceViewClass viewClass;
+
+   /**
+    * The endpoint, once its context has been seen in INSTALLED state. Null till then and
+    * after {@link #invalidateEndpoint()}
+    */
+   private volatile Endpoint installedEndpoint;
+
+   /**
+    * Holds on to the endpoint on behalf of the views created by this factory. Replaced by
+    * {@link #invalidateEndpoint()}, after which the views created till then fail fast.
+    */
+   private volatile EndpointBinding endpointBinding;
+
+   /**
+    * Configuration of the pool of pre-created sessions, null if sessions aren't pooled
+    */
+   private volatile StatefulSessionPoolConfig sessionPoolConfig;
+
+   /**
+    * Pool of pre-created sessions, started once the endpoint is INSTALLED. Null if
+    * sessions aren't pooled
+    */
+   private volatile StatefulSessionPool sessionPool;
+
+   /**
+    * True if the session of a view is created on its first business method invocation,
+    * instead of at lookup time
+    */
+   private volatile boolean lazySession;
+
+   /**
+    * Destroys the session of a view once the view is unreachable, null if sessions are left
+    * to the idle timeout of the container
+    */
+   private volatile SessionReclaimer sessionReclaimer;
+
+   /**
+    * Records the invocations on the views created by this factory, null if they aren't recorded
+    */
+   private volatile InvocationMetrics invocationMetrics;
+
+   /**
+    * The invocations of the business methods prepared by the endpoint, null if it doesn't prepare them
+    */
+   private volatile PreparedInvocationTable preparedInvocations;
+
+   /**
+    * Runs the asynchronous invocations on an executor of the deployment, null to hand them to the container
+    */
+   private volatile ExecutorAsyncDispatcher asyncExecutorDispatcher;
+
+   /**
+    * The state shared by all the views created by this factory, each of which holds on to nothing
+    * else but its session. Created on the first view creation and dropped whenever any part of it
+    * changes, so that the views created from then on share a new one.
+    */
+   private volatile SharedViewState viewState;
+
    /**
     * Constructor
     * @param beanClass
@@ -78,6 +154,19 @@ public class StatefulNoInterfaceViewProxyFactory
     */
    public StatefulNoInterfaceViewProxyFactory(Class<?> beanClass, KernelControllerContext containerContext,
          final JBossSessionBean31MetaData metadata)
+   {
+      this(beanClass, containerContext, metadata, NoInterfaceViewProxyClass.forBeanClass(beanClass));
+   }
+
+   /**
+    * Constructor
+    * @param beanClass
+    * @param containerContext
+    * @param metadata Bean metadata, required
+    * @param viewClass Creates the no-interface views, out of the configured proxy engine, required
+    */
+   public StatefulNoInterfaceViewProxyFactory(Class<?> beanClass, KernelControllerContext containerContext,
+         final JBossSessionBean31MetaData metadata, NoInterfaceViewClass viewClass)
    {
       // Precondition checks
       if(metadata==null)
@@ -87,17 +176,138 @@ public class StatefulNoInterfaceViewProxyFactory
       
       this.beanClass = beanClass;
       this.endpointContext = containerContext;
+      this.endpointBinding = new EndpointBinding(containerContext);
       this.metadata = metadata;
+      AsyncMethodsMetaData asyncMethods = metadata.getAsyncMethods();
+      this.dispatchTable = new MethodDispatchTable(beanClass, asyncMethods == null
+            ? new AsyncMethodsMetaData()
+            : asyncMethods);
+      if (viewClass == null)
+      {
+         throw new IllegalArgumentException("view class must be supplied");
+      }
+      this.viewClass = viewClass;
    }
 
    /**
     * First creates a session and then creates a no-interface view for the bean.
+    * In lazy session mode, the session is instead created on the first business
+    * method invocation on the view.
     *
     * @return
     * @throws Exception
     */
    public Object createNoInterfaceView() throws Exception
    {
+      NoInterfaceViewInvocationHandler invocationHandler;
+      if (this.lazySession)
+      {
+         ViewSessionInitializer sessionInitializer = new ViewSessionInitializer();
+         invocationHandler = NoInterfaceViewInvocationHandler.createWithLazySession(this.getViewState(),
+               sessionInitializer);
+         sessionInitializer.view = invocationHandler;
+      }
+      else
+      {
+         Serializable session = this.createSession();
+         invocationHandler = new NoInterfaceViewInvocationHandler(this.getViewState(), session);
+         this.registerForReclamation(invocationHandler, session);
+      }
+
+      // Now create the proxy
+      Object noInterfaceView = this.viewClass.newProxy(invocationHandler);
+      return noInterfaceView;
+   }
+
+   /**
+    * Returns the state shared by the views created by this factory, creating it if any part
+    * of it changed since the last view creation
+    *
+    * @return
+    */
+   public SharedViewState getViewState()
+   {
+      SharedViewState state = this.viewState;
+      if (state != null)
+      {
+         return state;
+      }
+      synchronized (this)
+      {
+         if (this.viewState == null)
+         {
+            this.viewState = new SharedViewState(this.endpointBinding, this.beanClass, this.dispatchTable,
+                  this.invocationMetrics, this.preparedInvocations, this.asyncExecutorDispatcher);
+         }
+         return this.viewState;
+      }
+   }
+
+   /**
+    * Registers the session of a view with the {@link SessionReclaimer}, if sessions are reclaimed.
+    * The invocation handler stands for the view, since nothing but the view references it.
+    *
+    * @param view The invocation handler of the view
+    * @param session The session of the view
+    */
+   private void registerForReclamation(NoInterfaceViewInvocationHandler view, Serializable session)
+   {
+      SessionReclaimer reclaimer = this.sessionReclaimer;
+      if (reclaimer != null)
+      {
+         reclaimer.register(view, session, this.getInstalledEndpoint().getSessionFactory());
+      }
+   }
+
+   /**
+    * Takes a pre-created session from the pool, if any, else creates the session
+    *
+    * @return The session
+    * @throws Exception
+    */
+   private Serializable createSession() throws Exception
+   {
+      Endpoint endpoint = this.getInstalledEndpoint();
+
+      Serializable session = null;
+      StatefulSessionPool pool = this.sessionPool;
+      if (pool != null)
+      {
+         session = pool.take();
+      }
+      if (session == null)
+      {
+         session = endpoint.getSessionFactory().createSession(null, null);
+      }
+      if (logger.isDebugEnabled())
+      {
+         logger.debug("Created session " + session + " for " + this.beanClass);
+      }
+      return session;
+   }
+
+   /**
+    * Returns the {@link Endpoint}, after having pushed its context to INSTALLED state.
+    * <p>
+    * Pushing the context goes through the MC controller (and its locks), so it's done only till the
+    * endpoint has been seen INSTALLED once. From then on, the endpoint is served from a volatile field,
+    * till {@link #invalidateEndpoint()} is called as part of the controller lifecycle (the binder which
+    * owns this factory depends on the INSTALLED state of the endpoint and is thus stopped before the
+    * endpoint leaves it). The endpoint is published, and its session pool started, under the same lock as
+    * {@link #invalidateEndpoint()}, and only if the endpoint hasn't been invalidated since it was pushed.
+    * </p>
+    *
+    * @return
+    */
+   private Endpoint getInstalledEndpoint()
+   {
+      Endpoint endpoint = this.installedEndpoint;
+      if (endpoint != null)
+      {
+         return endpoint;
+      }
+      // invalidated by invalidateEndpoint() if the endpoint leaves INSTALLED state while it's being pushed
+      EndpointBinding binding = this.endpointBinding;
       try
       {
          // first push the endpointContext to INSTALLED
@@ -119,26 +329,181 @@ public class StatefulNoInterfaceViewProxyFactory
       Object target = this.endpointContext.getTarget();
       assert target instanceof Endpoint : "Unexpected object type found " + target + " - expected a " + Endpoint.class;
 
-      Endpoint endpoint = (Endpoint) target;
+      endpoint = (Endpoint) target;
       if (!endpoint.isSessionAware())
       {
          throw new IllegalStateException("Endpoint " + endpoint
                + " is not session aware. Cannot be used for Stateful no-interface view(s)");
       }
+      if (ControllerState.INSTALLED.equals(this.endpointContext.getState()))
+      {
+         synchronized (this)
+         {
+            // don't resurrect an endpoint (nor its session pool) which got invalidated in the meantime
+            if (!binding.isInvalidated())
+            {
+               this.installedEndpoint = endpoint;
+               this.startSessionPool(endpoint);
+            }
+         }
+      }
+      return endpoint;
+   }
+
+   /**
+    * Forgets the INSTALLED endpoint, so that the next view creation goes through the
+    * controller again. Called when the endpoint is about to leave its INSTALLED state.
+    * The views created till then fail with a {@link javax.ejb.NoSuchEJBException} from
+    * then on. The pooled sessions, if any, are destroyed, and those of the views created till then
+    * aren't reclaimed anymore.
+    */
+   public synchronized void invalidateEndpoint()
+   {
+      this.installedEndpoint = null;
+      this.endpointBinding.invalidate();
+      this.endpointBinding = new EndpointBinding(this.endpointContext);
+      this.viewState = null;
+      if (this.sessionReclaimer != null)
+      {
+         // the endpoint takes care of its sessions while it stops
+         this.sessionReclaimer.clear();
+      }
+      if (this.sessionPool != null)
+      {
+         this.sessionPool.stop();
+         this.sessionPool = null;
+      }
+   }
 
-      // create the session
-      Serializable session = endpoint.getSessionFactory().createSession(null, null);
-      logger.debug("Created session " + session + " for " + this.beanClass);
+   /**
+    * Sets the configuration of the pool of pre-created sessions. Sessions are not pooled
+    * unless this is set.
+    *
+    * @param sessionPoolConfig The pool configuration, null to disable pooling
+    */
+   public void setSessionPoolConfig(StatefulSessionPoolConfig sessionPoolConfig)
+   {
+      this.sessionPoolConfig = sessionPoolConfig;
+   }
 
-      // create an invocation handler
-      AsyncMethodsMetaData asyncMethods = this.metadata.getAsyncMethods();
-      InvocationHandler invocationHandler = new NoInterfaceViewInvocationHandler(this.endpointContext, session,
-            this.beanClass, asyncMethods==null?new AsyncMethodsMetaData():asyncMethods);
-      
+   /**
+    * Sets whether the session of a view is created lazily, on the first business method
+    * invocation on the view, instead of when the view is looked up. A view which is never
+    * invoked then never creates a session.
+    *
+    * @param lazySession True to create sessions lazily
+    */
+   public void setLazySession(boolean lazySession)
+   {
+      this.lazySession = lazySession;
+   }
 
-      // Now create the proxy
-      Object noInterfaceView = new JavassistProxyFactory().createProxy(new Class<?>[] {beanClass}, invocationHandler);
-      return noInterfaceView;
+   /**
+    * Sets whether the session of a view is destroyed as soon as the view becomes unreachable,
+    * instead of being left to the idle timeout of the container. Applies to the views created
+    * from then on.
+    *
+    * @param sessionReclamation True to reclaim the sessions of unreachable views
+    */
+   public synchronized void setSessionReclamation(boolean sessionReclamation)
+   {
+      if (!sessionReclamation)
+      {
+         this.sessionReclaimer = null;
+      }
+      else if (this.sessionReclaimer == null)
+      {
+         this.sessionReclaimer = new SessionReclaimer(String.valueOf(this.endpointContext.getName()), this.beanClass
+               .getClassLoader());
+      }
+   }
+
+   /**
+    * Returns the reclaimer of the sessions of unreachable views
+    *
+    * @return The reclaimer, null if sessions aren't reclaimed
+    */
+   public SessionReclaimer getSessionReclaimer()
+   {
+      return this.sessionReclaimer;
+   }
+
+   /**
+    * Returns the dispatch table of the bean class, shared by all the views created by this factory
+    *
+    * @return
+    */
+   public MethodDispatchTable getDispatchTable()
+   {
+      return this.dispatchTable;
+   }
+
+   /**
+    * Sets the metrics into which the invocations on the views, created from then on, are recorded
+    *
+    * @param invocationMetrics The metrics, null to not record invocations
+    */
+   public synchronized void setInvocationMetrics(InvocationMetrics invocationMetrics)
+   {
+      this.invocationMetrics = invocationMetrics;
+      this.viewState = null;
+   }
+
+   /**
+    * Sets the invocations of the business methods prepared by the endpoint, used by the views
+    * created from then on
+    *
+    * @param preparedInvocations The prepared invocations, null to pass all calls on to the endpoint
+    */
+   public synchronized void setPreparedInvocations(PreparedInvocationTable preparedInvocations)
+   {
+      this.preparedInvocations = preparedInvocations;
+      this.viewState = null;
+   }
+
+   /**
+    * Sets the dispatcher running the asynchronous invocations on the views, created from then on,
+    * on an executor of the deployment
+    *
+    * @param asyncExecutorDispatcher The dispatcher, null to hand the invocations to the container
+    */
+   public synchronized void setAsyncExecutorDispatcher(ExecutorAsyncDispatcher asyncExecutorDispatcher)
+   {
+      this.asyncExecutorDispatcher = asyncExecutorDispatcher;
+      this.viewState = null;
+   }
+
+   private synchronized void startSessionPool(Endpoint endpoint)
+   {
+      if (this.sessionPoolConfig == null || this.sessionPool != null)
+      {
+         return;
+      }
+      StatefulSessionPool pool = new StatefulSessionPool(String.valueOf(this.endpointContext.getName()), endpoint
+            .getSessionFactory(), this.beanClass.getClassLoader(), this.sessionPoolConfig);
+      pool.start();
+      this.sessionPool = pool;
+   }
+
+   /**
+    * Creates the session of a view on its first invocation, registering it for reclamation
+    * along with the view
+    */
+   private class ViewSessionInitializer implements SessionInitializer
+   {
+      /**
+       * The invocation handler of the view, set once the handler has been created
+       */
+      private volatile NoInterfaceViewInvocationHandler view;
+
+      public Serializable createSession() throws Exception
+      {
+         Serializable session = StatefulNoInterfaceViewProxyFactory.this.createSession();
+         registerForReclamation(this.view, session);
+         // the handler drops the initializer once the session is created, but let's not count on it
+         this.view = null;
+         return session;
+      }
    }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.async;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import javax.ejb.AsyncResult;
+
+/**
+ * A bean with blocking asynchronous methods, run on an executor
+ *
+ * @version $Revision: $
+ */
+public class Downloader
+{
+
+   /**
+    * Released when a {@link #download(CountDownLatch)} was interrupted
+    */
+   public final CountDownLatch interrupted = new CountDownLatch(1);
+
+   public Future<String> download(CountDownLatch done) throws InterruptedException
+   {
+      try
+      {
+         done.await();
+      }
+      catch (InterruptedException ie)
+      {
+         this.interrupted.countDown();
+         throw ie;
+      }
+      return new AsyncResult<String>(Thread.currentThread().getName());
+   }
+}
@@ -0,0 +1,278 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.async.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ejb.NoSuchEJBException;
+import javax.interceptor.InvocationContext;
+
+import org.jboss.ejb3.nointerface.impl.async.AsyncBatch;
+import org.jboss.ejb3.nointerface.impl.async.AsyncClientInterceptor;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.async.Mailer;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the asynchronous invocations on a no-interface view reach the
+ * {@link org.jboss.ejb3.async.spi.AsyncEndpoint} with the business interface,
+ * the session and the arguments of the call, one by one or in a batch
+ *
+ * @version $Revision: $
+ */
+public class AsyncInvocationTestCase
+{
+
+   private final List<Object[]> asyncCalls = new ArrayList<Object[]>();
+
+   private final Serializable session = "session-1";
+
+   private AsyncMethodsMetaData asyncMethods;
+
+   private NoInterfaceViewInvocationHandler handler;
+
+   /**
+    * Run by the bean, if set, when it's invoked synchronously
+    */
+   private Runnable syncBeanCode;
+
+   @Before
+   public void before()
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint()
+      {
+         @Override
+         public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method,
+               Object[] args) throws Throwable
+         {
+            asyncCalls.add(new Object[]
+            {session, invokedBusinessInterface, method, args});
+            return null;
+         }
+
+         @Override
+         public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+               throws Throwable
+         {
+            if (syncBeanCode != null)
+            {
+               syncBeanCode.run();
+            }
+            return 7;
+         }
+      });
+
+      MethodParametersMetaData params = new MethodParametersMetaData();
+      params.add(String.class.getName());
+      params.add(String.class.getName());
+      AsyncMethodMetaData send = new AsyncMethodMetaData();
+      send.setMethodName("send");
+      send.setMethodParams(params);
+      this.asyncMethods = new AsyncMethodsMetaData();
+      this.asyncMethods.add(send);
+
+      this.handler = new NoInterfaceViewInvocationHandler(endpointContext, this.session, Mailer.class,
+            this.asyncMethods);
+   }
+
+   @Test
+   public void testAsyncInvocation() throws Throwable
+   {
+      Method send = Mailer.class.getMethod("send", String.class, String.class);
+      Object[] args = new Object[]
+      {"ops", "disk full"};
+      this.handler.invoke(null, send, args);
+
+      assertEquals(1, this.asyncCalls.size());
+      Object[] call = this.asyncCalls.get(0);
+      assertSame(this.session, call[0]);
+      assertSame(Mailer.class, call[1]);
+      assertEquals(send, call[2]);
+      assertArrayEquals(args, (Object[]) call[3]);
+   }
+
+   /**
+    * The deprecated constructor builds its dispatch table for the bean class of the container
+    * behind the endpoint, and dispatches the asynchronous invocations which reach it
+    */
+   @SuppressWarnings("deprecation")
+   @Test
+   public void testDeprecatedConstructor() throws Exception
+   {
+      final int[] beanClassLookups = new int[1];
+      MockEndpoint container = new MockEndpoint()
+      {
+         @SuppressWarnings("unused")
+         public Class<?> getBeanClass()
+         {
+            beanClassLookups[0]++;
+            return Mailer.class;
+         }
+
+         @Override
+         public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method,
+               Object[] args) throws Throwable
+         {
+            asyncCalls.add(new Object[]
+            {session, invokedBusinessInterface, method, args});
+            return null;
+         }
+      };
+      AsyncClientInterceptor interceptor = new AsyncClientInterceptor(container, this.asyncMethods, this.session);
+      assertEquals("bean class of the container not looked up", 1, beanClassLookups[0]);
+
+      Method send = Mailer.class.getMethod("send", String.class, String.class);
+      Object[] args = new Object[]
+      {"ops", "disk full"};
+      InvocationContext context = mock(InvocationContext.class);
+      when(context.getMethod()).thenReturn(send);
+      when(context.getParameters()).thenReturn(args);
+      interceptor.invoke(context);
+
+      assertEquals(1, this.asyncCalls.size());
+      Object[] call = this.asyncCalls.get(0);
+      assertSame(this.session, call[0]);
+      assertEquals(send, call[2]);
+      assertArrayEquals(args, (Object[]) call[3]);
+   }
+
+   /**
+    * No asynchronous invocation reaches the endpoint once the binding has been invalidated
+    */
+   @Test
+   public void testAsyncInvocationAfterEndpointInvalidated() throws Throwable
+   {
+      this.handler.getSharedViewState().getEndpointBinding().invalidate();
+      try
+      {
+         this.handler.invoke(null, Mailer.class.getMethod("send", String.class, String.class), new Object[]
+         {"ops", "disk full"});
+         fail("An asynchronous invocation was dispatched to an invalidated endpoint");
+      }
+      catch (NoSuchEJBException expected)
+      {
+         // expected
+      }
+      assertEquals(0, this.asyncCalls.size());
+   }
+
+   @Test
+   public void testSyncInvocation() throws Throwable
+   {
+      assertEquals(7, this.handler.invoke(null, Mailer.class.getMethod("queued"), null));
+      assertEquals(0, this.asyncCalls.size());
+   }
+
+   @Test
+   public void testBatch() throws Throwable
+   {
+      Mailer view = this.createView();
+      AsyncBatch batch = AsyncBatch.on(view);
+      try
+      {
+         for (int i = 0; i < 3; i++)
+         {
+            view.send("ops", "message " + i);
+         }
+         // synchronous invocations aren't batched
+         assertEquals(7, view.queued());
+         assertEquals("recorded, not dispatched", 0, this.asyncCalls.size());
+         assertEquals(3, batch.size());
+
+         assertEquals(3, batch.submit().size());
+      }
+      finally
+      {
+         batch.discard();
+      }
+      assertEquals(3, this.asyncCalls.size());
+      for (int i = 0; i < 3; i++)
+      {
+         assertEquals("message " + i, ((Object[]) this.asyncCalls.get(i)[3])[1]);
+      }
+
+      // the batch is closed, invocations are dispatched again
+      view.send("ops", "after");
+      assertEquals(4, this.asyncCalls.size());
+   }
+
+   /**
+    * Tests that the asynchronous invocations made by bean code, invoked synchronously while a batch
+    * is open on the same thread, aren't recorded by the batch
+    *
+    * @throws Throwable
+    */
+   @Test
+   public void testNestedAsyncInvocationIsNotBatched() throws Throwable
+   {
+      Mailer view = this.createView();
+      final Mailer beanOwnView = this.createView();
+      this.syncBeanCode = new Runnable()
+      {
+         public void run()
+         {
+            beanOwnView.send("audit", "queue length read");
+         }
+      };
+      AsyncBatch batch = AsyncBatch.on(view);
+      try
+      {
+         view.send("ops", "batched");
+         // the bean makes an asynchronous invocation of its own
+         assertEquals(7, view.queued());
+         assertEquals("nested invocation dispatched right away", 1, this.asyncCalls.size());
+         assertEquals("audit", ((Object[]) this.asyncCalls.get(0)[3])[0]);
+         assertEquals(1, batch.size());
+
+         assertEquals(1, batch.submit().size());
+      }
+      finally
+      {
+         batch.discard();
+      }
+      assertEquals(2, this.asyncCalls.size());
+      assertEquals("ops", ((Object[]) this.asyncCalls.get(1)[3])[0]);
+   }
+
+   private Mailer createView() throws Exception
+   {
+      return Mailer.class.cast(NoInterfaceViewClasses.forBeanClass(null, Mailer.class).newProxy(this.handler));
+   }
+}
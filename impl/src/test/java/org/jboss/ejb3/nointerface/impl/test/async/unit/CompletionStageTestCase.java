@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.async.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.AsyncResult;
+import javax.ejb.EJBException;
+
+import org.jboss.ejb3.nointerface.impl.async.CompletionStages;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous methods returning a <code>CompletionStage</code>/<code>CompletableFuture</code>.
+ * This implementation (and its tests) still compile on JDK 6, so the "bean" is a
+ * <code>CompletableFuture</code> itself, whose <code>toCompletableFuture()</code> method is
+ * taken as the @Asynchronous method. The tests are skipped on a VM without completion stages.
+ *
+ * @version $Revision: $
+ */
+public class CompletionStageTestCase
+{
+
+   private Class<?> completableFutureClass;
+
+   private Object bean;
+
+   private Method toCompletableFuture;
+
+   private AsyncMethodsMetaData asyncMethods;
+
+   private ExecutorService executor;
+
+   @Before
+   public void before() throws Exception
+   {
+      try
+      {
+         this.completableFutureClass = Class.forName("java.util.concurrent.CompletableFuture");
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+         assumeTrue(false);
+      }
+      this.bean = this.completableFutureClass.newInstance();
+      this.toCompletableFuture = this.completableFutureClass.getMethod("toCompletableFuture");
+      assertTrue(CompletionStages.isCompletionStageType(this.toCompletableFuture.getReturnType()));
+
+      AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+      asyncMethod.setMethodName("toCompletableFuture");
+      asyncMethod.setMethodParams(new MethodParametersMetaData());
+      this.asyncMethods = new AsyncMethodsMetaData();
+      this.asyncMethods.add(asyncMethod);
+      this.executor = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void after()
+   {
+      if (this.executor != null)
+      {
+         this.executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void testStageCompletedByBeanStage() throws Throwable
+   {
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(this.createContext(
+            new MockEndpoint()
+            {
+               @Override
+               public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method,
+                     Object[] args) throws Throwable
+               {
+                  return method.invoke(bean, args);
+               }
+            }), null, this.completableFutureClass, this.asyncMethods);
+      handler.setAsyncExecutorDispatcher(new ExecutorAsyncDispatcher(this.executor, 1));
+
+      Future<?> stage = (Future<?>) handler.invoke(null, this.toCompletableFuture, null);
+      assertTrue(this.completableFutureClass.isInstance(stage));
+      assertNotSame(this.bean, stage);
+      // the invocation returned the (incomplete) stage of the bean, nothing waits for it
+      Thread.sleep(100);
+      assertFalse(stage.isDone());
+
+      this.completableFutureClass.getMethod("complete", Object.class).invoke(this.bean, "done");
+      assertEquals("done", stage.get(5, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Tests that a completion stage method is rejected, without reaching the container, when the
+    * asynchronous invocations are handed to the container
+    *
+    * @throws Throwable
+    */
+   @Test
+   public void testStageRejectedWhenContainerRunsInvocation() throws Throwable
+   {
+      final List<Method> asyncCalls = new ArrayList<Method>();
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(this.createContext(
+            new MockEndpoint()
+            {
+               @Override
+               public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method,
+                     Object[] args) throws Throwable
+               {
+                  asyncCalls.add(method);
+                  return new AsyncResult<String>("from container");
+               }
+            }), null, this.completableFutureClass, this.asyncMethods);
+
+      try
+      {
+         handler.invoke(null, this.toCompletableFuture, null);
+         fail("Completion stage method invoked through the container");
+      }
+      catch (EJBException expected)
+      {
+         // expected
+      }
+      assertTrue("the container was invoked", asyncCalls.isEmpty());
+   }
+
+   private KernelControllerContext createContext(MockEndpoint endpoint)
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(endpoint);
+      return endpointContext;
+   }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.async.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.EJBException;
+
+import org.jboss.ejb3.nointerface.impl.async.AsyncInvocation;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.async.Downloader;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the asynchronous invocations run on an executor by the {@link ExecutorAsyncDispatcher}
+ *
+ * @version $Revision: $
+ */
+public class ExecutorAsyncDispatcherTestCase
+{
+
+   private final Downloader bean = new Downloader();
+
+   private final MockEndpoint endpoint = new MockEndpoint()
+   {
+      @Override
+      public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         try
+         {
+            return method.invoke(bean, args);
+         }
+         catch (InvocationTargetException ite)
+         {
+            throw ite.getCause();
+         }
+      }
+   };
+
+   private ExecutorService executor;
+
+   private AsyncInvocation download;
+
+   private CountDownLatch done;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.executor = Executors.newCachedThreadPool();
+      this.done = new CountDownLatch(1);
+      Method method = Downloader.class.getMethod("download", CountDownLatch.class);
+      this.download = new AsyncInvocation(new MethodDispatchTable(Downloader.class, new AsyncMethodsMetaData())
+            .lookup(method), new Object[]
+      {this.done}, Downloader.class, null);
+   }
+
+   @After
+   public void after()
+   {
+      this.executor.shutdownNow();
+   }
+
+   @Test
+   public void testInvocationRunsOnExecutor() throws Exception
+   {
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(this.executor, 0);
+      Future<Object> future = dispatcher.dispatch(this.download, this.endpoint);
+      this.done.countDown();
+      String thread = (String) future.get(5, TimeUnit.SECONDS);
+      assertFalse("the bean's AsyncResult was unwrapped on the executor",
+            Thread.currentThread().getName().equals(thread));
+      assertEquals(-1, dispatcher.getAvailablePermits());
+   }
+
+   @Test
+   public void testConcurrencyLimit() throws Exception
+   {
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(this.executor, 1);
+      Future<Object> future = dispatcher.dispatch(this.download, this.endpoint);
+      assertEquals(0, dispatcher.getAvailablePermits());
+      this.done.countDown();
+      future.get(5, TimeUnit.SECONDS);
+      // the permit is released once the task has returned
+      for (int i = 0; i < 50 && dispatcher.getAvailablePermits() == 0; i++)
+      {
+         Thread.sleep(100);
+      }
+      assertEquals(1, dispatcher.getAvailablePermits());
+   }
+
+   @Test
+   public void testCancellationInterruptsInvocation() throws Exception
+   {
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(this.executor, 1);
+      Future<Object> future = dispatcher.dispatch(this.download, this.endpoint);
+      // let the invocation reach the bean before cancelling it
+      Thread.sleep(200);
+      assertTrue(future.cancel(true));
+      assertTrue("the running invocation was interrupted", this.bean.interrupted.await(5, TimeUnit.SECONDS));
+      for (int i = 0; i < 50 && dispatcher.getAvailablePermits() == 0; i++)
+      {
+         Thread.sleep(100);
+      }
+      assertEquals(1, dispatcher.getAvailablePermits());
+   }
+
+   @Test
+   public void testCloseWaitsForInvocationsInFlight() throws Exception
+   {
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(this.executor, 0);
+      Future<Object> future = dispatcher.dispatch(this.download, this.endpoint);
+      assertEquals(1, dispatcher.getInFlightInvocations());
+      this.done.countDown();
+      assertTrue("the invocation in flight completed", dispatcher.close(5, TimeUnit.SECONDS));
+      assertTrue(future.isDone());
+      assertEquals(0, dispatcher.getInFlightInvocations());
+      try
+      {
+         dispatcher.dispatch(this.download, this.endpoint);
+         fail("A closed dispatcher accepted an invocation");
+      }
+      catch (EJBException expected)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testCloseCancelsInvocationsStillInFlight() throws Exception
+   {
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(this.executor, 1);
+      Future<Object> future = dispatcher.dispatch(this.download, this.endpoint);
+      // let the invocation reach the bean, which never completes on its own
+      Thread.sleep(200);
+      assertFalse(dispatcher.close(200, TimeUnit.MILLISECONDS));
+      assertTrue(future.isCancelled());
+      assertTrue("the running invocation was interrupted", this.bean.interrupted.await(5, TimeUnit.SECONDS));
+      assertEquals(0, dispatcher.getInFlightInvocations());
+      assertEquals(1, dispatcher.getAvailablePermits());
+   }
+
+   @Test
+   public void testPermitReleasedWhenExecutorFails() throws Exception
+   {
+      Executor failingExecutor = new Executor()
+      {
+         public void execute(Runnable command)
+         {
+            throw new IllegalStateException("executor is broken");
+         }
+      };
+      ExecutorAsyncDispatcher dispatcher = new ExecutorAsyncDispatcher(failingExecutor, 1);
+      try
+      {
+         dispatcher.dispatch(this.download, this.endpoint);
+         fail("The failure of the executor was ignored");
+      }
+      catch (IllegalStateException expected)
+      {
+         // expected
+      }
+      assertEquals(1, dispatcher.getAvailablePermits());
+      assertEquals(0, dispatcher.getInFlightInvocations());
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.binding.unit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+
+import javax.ejb.NoSuchEJBException;
+
+import org.jboss.dependency.spi.ControllerState;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.binding.Clock;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link EndpointBinding} holds on to an INSTALLED endpoint, and that views
+ * fail fast once it's invalidated
+ *
+ * @version $Revision: $
+ */
+public class EndpointBindingTestCase
+{
+
+   @Test
+   public void testInstalledEndpointIsHeldOnTo() throws Exception
+   {
+      MockEndpoint endpoint = new MockEndpoint();
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(endpoint);
+      when(endpointContext.getState()).thenReturn(ControllerState.INSTALLED);
+
+      EndpointBinding binding = new EndpointBinding(endpointContext);
+      assertSame(endpoint, binding.getEndpoint());
+      assertSame(endpoint, binding.getEndpoint());
+      assertSame(endpoint, binding.getEndpoint());
+      verify(endpointContext, times(1)).getTarget();
+   }
+
+   @Test
+   public void testEndpointNotYetInstalledIsLookedUp() throws Exception
+   {
+      MockEndpoint endpoint = new MockEndpoint();
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(endpoint);
+      when(endpointContext.getState()).thenReturn(ControllerState.DESCRIBED);
+
+      EndpointBinding binding = new EndpointBinding(endpointContext);
+      assertSame(endpoint, binding.getEndpoint());
+      assertSame(endpoint, binding.getEndpoint());
+      verify(endpointContext, times(2)).getTarget();
+   }
+
+   @Test
+   public void testInvalidatedViewFailsFast() throws Throwable
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      when(endpointContext.getState()).thenReturn(ControllerState.INSTALLED);
+      EndpointBinding binding = new EndpointBinding(endpointContext);
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(binding, null, Clock.class,
+            new MethodDispatchTable(Clock.class, new AsyncMethodsMetaData()));
+      Method now = Clock.class.getMethod("now");
+
+      handler.invoke(null, now, null);
+      assertFalse(binding.isInvalidated());
+
+      // the endpoint is being undeployed
+      binding.invalidate();
+      assertTrue(binding.isInvalidated());
+      try
+      {
+         handler.invoke(null, now, null);
+         fail("Invocation on the view of an undeployed endpoint didn't fail");
+      }
+      catch (NoSuchEJBException expected)
+      {
+         // expected
+      }
+      // the view itself is still usable as an object
+      assertTrue(handler.equals(handler));
+      handler.toString();
+   }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.binding.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.dependency.spi.Controller;
+import org.jboss.dependency.spi.ControllerContext;
+import org.jboss.dependency.spi.ControllerState;
+import org.jboss.ejb3.endpoint.SessionFactory;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPoolConfig;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.binding.Clock;
+import org.jboss.ejb3.nointerface.impl.view.factory.StatefulNoInterfaceViewProxyFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests that the {@link StatefulNoInterfaceViewProxyFactory} doesn't hold on to an endpoint (nor start
+ * its session pool) which got invalidated while it was being pushed to INSTALLED state
+ *
+ * @version $Revision: $
+ */
+public class StatefulEndpointInvalidationTestCase
+{
+
+   @Test
+   public void testEndpointInvalidatedWhilePushedIsNotHeldOnTo() throws Throwable
+   {
+      final AtomicInteger sessions = new AtomicInteger();
+      final SessionFactory sessionFactory = new SessionFactory()
+      {
+         public Serializable createSession(Class<?>[] initTypes, Object[] initValues)
+         {
+            return sessions.incrementAndGet();
+         }
+
+         public void destroySession(Serializable session)
+         {
+         }
+      };
+      MockEndpoint endpoint = new MockEndpoint()
+      {
+         @Override
+         public boolean isSessionAware()
+         {
+            return true;
+         }
+
+         @Override
+         public SessionFactory getSessionFactory()
+         {
+            return sessionFactory;
+         }
+      };
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      Controller controller = mock(Controller.class);
+      when(endpointContext.getTarget()).thenReturn(endpoint);
+      when(endpointContext.getName()).thenReturn("Clock");
+      when(endpointContext.getState()).thenReturn(ControllerState.INSTALLED);
+      when(endpointContext.getController()).thenReturn(controller);
+
+      JBossSessionBean31MetaData metadata = new JBossSessionBean31MetaData();
+      metadata.setEjbName("Clock");
+      metadata.setEjbClass(Clock.class.getName());
+      final StatefulNoInterfaceViewProxyFactory proxyFactory = new StatefulNoInterfaceViewProxyFactory(
+            Clock.class, endpointContext, metadata);
+      StatefulSessionPoolConfig poolConfig = new StatefulSessionPoolConfig();
+      poolConfig.setTargetSize(4);
+      poolConfig.setLowWatermark(2);
+      poolConfig.setHighWatermark(8);
+      poolConfig.setRefillIntervalMillis(10);
+      proxyFactory.setSessionPoolConfig(poolConfig);
+
+      // the binder stops (as the endpoint leaves INSTALLED state) while the endpoint is being pushed
+      doAnswer(new Answer<Object>()
+      {
+         public Object answer(InvocationOnMock invocation)
+         {
+            proxyFactory.invalidateEndpoint();
+            return null;
+         }
+      }).when(controller).change(any(ControllerContext.class), eq(ControllerState.INSTALLED));
+      proxyFactory.createNoInterfaceView();
+      proxyFactory.createNoInterfaceView();
+
+      verify(controller, times(2)).change(endpointContext, ControllerState.INSTALLED);
+      // a started pool would have created its sessions meanwhile
+      Thread.sleep(200);
+      assertEquals("Sessions created by the pool of an invalidated endpoint", 2, sessions.get());
+   }
+}
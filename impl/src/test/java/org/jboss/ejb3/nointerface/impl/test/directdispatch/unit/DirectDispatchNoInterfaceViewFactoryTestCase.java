@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.directdispatch.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.ejb.EJBException;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.directdispatch.Calculator;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchProxyClass;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the no-interface views created by the {@link DirectDispatchNoInterfaceViewFactory}
+ *
+ * @version $Revision: $
+ */
+public class DirectDispatchNoInterfaceViewFactoryTestCase
+{
+
+   private final Calculator bean = new Calculator();
+
+   private NoInterfaceViewInvocationHandler handler;
+
+   @Before
+   public void before()
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint()
+      {
+         @Override
+         public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+               throws Throwable
+         {
+            return method.invoke(bean, args);
+         }
+      });
+      this.handler = new NoInterfaceViewInvocationHandler(endpointContext, null, Calculator.class,
+            new MethodDispatchTable(Calculator.class, new AsyncMethodsMetaData()));
+   }
+
+   @Test
+   public void testInvocations() throws Exception
+   {
+      Calculator view = new DirectDispatchNoInterfaceViewFactory().createView(this.handler, Calculator.class);
+      assertNotSame(Calculator.class, view.getClass());
+
+      assertEquals(5, view.add(2, 3));
+      assertArrayEquals(new long[]
+      {3, 2, 1}, view.reverse(new long[]
+      {1, 2, 3}));
+      view.accumulate(4);
+      view.accumulate(6);
+      assertEquals(10, view.getTotal());
+      assertEquals("calculator at 10", view.describe());
+      assertEquals("the view's own state was used", 10, this.bean.getTotal());
+   }
+
+   @Test
+   public void testObjectMethods() throws Exception
+   {
+      Calculator view = new DirectDispatchNoInterfaceViewFactory().createView(this.handler, Calculator.class);
+      assertEquals(this.handler.hashCode(), view.hashCode());
+      assertEquals(this.handler.toString(), view.toString());
+      assertTrue(view.equals(view));
+   }
+
+   @Test
+   public void testProxyClassIsShared() throws Exception
+   {
+      DirectDispatchNoInterfaceViewFactory factory = new DirectDispatchNoInterfaceViewFactory();
+      Calculator view = factory.createView(this.handler, Calculator.class);
+      assertSame(view.getClass(), factory.createView(this.handler, Calculator.class).getClass());
+   }
+
+   @Test
+   public void testPlainInvocationHandler() throws Exception
+   {
+      InvocationHandler plainHandler = new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            return method.getName().equals("add") ? -1 : null;
+         }
+      };
+      Calculator view = new DirectDispatchNoInterfaceViewFactory().createView(plainHandler, Calculator.class);
+      assertEquals(-1, view.add(1, 1));
+      assertFalse(view.getClass().getClassLoader() == Calculator.class.getClassLoader());
+   }
+
+   @Test
+   public void testProtectedMethodIsNotInvokable() throws Exception
+   {
+      Calculator view = new DirectDispatchNoInterfaceViewFactory().createView(this.handler, Calculator.class);
+      Method internal = view.getClass().getDeclaredMethod("internal");
+      internal.setAccessible(true);
+      try
+      {
+         internal.invoke(view);
+         fail("Protected method was invoked through the view");
+      }
+      catch (InvocationTargetException ite)
+      {
+         assertTrue(ite.getCause() instanceof EJBException);
+      }
+   }
+
+   /**
+    * Tests that finalize() and clone(), which the VM or the container may call on a view, aren't
+    * overridden by the proxy class, even when the bean class redeclares them
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testContainerCalledObjectMethodsAreNotOverridden() throws Exception
+   {
+      Class<?> proxyClass = DirectDispatchProxyClass.forBeanClass(FinalizableBean.class).newProxy(this.handler)
+            .getClass();
+      for (Method method : proxyClass.getDeclaredMethods())
+      {
+         assertFalse(method + " overridden by the view", method.getName().equals("finalize")
+               || method.getName().equals("clone"));
+      }
+   }
+
+   /**
+    * Tests that concurrent lookups of the proxy class of a bean class share a single generation
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testConcurrentLookupsShareTheProxyClass() throws Exception
+   {
+      final CountDownLatch start = new CountDownLatch(1);
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try
+      {
+         List<Future<DirectDispatchProxyClass>> lookups = new ArrayList<Future<DirectDispatchProxyClass>>();
+         for (int i = 0; i < 8; i++)
+         {
+            lookups.add(executor.submit(new Callable<DirectDispatchProxyClass>()
+            {
+               public DirectDispatchProxyClass call() throws Exception
+               {
+                  start.await();
+                  return DirectDispatchProxyClass.forBeanClass(ConcurrentlyLookedUpBean.class);
+               }
+            }));
+         }
+         start.countDown();
+         DirectDispatchProxyClass proxyClass = lookups.get(0).get();
+         for (Future<DirectDispatchProxyClass> lookup : lookups)
+         {
+            assertSame(proxyClass, lookup.get());
+         }
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Bean class redeclaring finalize() and clone()
+    */
+   public static class FinalizableBean implements Cloneable
+   {
+      public String echo(String msg)
+      {
+         return msg;
+      }
+
+      @Override
+      protected void finalize() throws Throwable
+      {
+         super.finalize();
+      }
+
+      @Override
+      public FinalizableBean clone() throws CloneNotSupportedException
+      {
+         return (FinalizableBean) super.clone();
+      }
+   }
+
+   /**
+    * Bean class whose proxy class is only looked up concurrently
+    */
+   public static class ConcurrentlyLookedUpBean
+   {
+      public int twice(int value)
+      {
+         return 2 * value;
+      }
+   }
+}
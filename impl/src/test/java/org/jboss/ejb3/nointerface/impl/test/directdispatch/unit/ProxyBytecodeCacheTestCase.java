@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.directdispatch.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+import org.jboss.ejb3.nointerface.impl.test.directdispatch.Calculator;
+import org.jboss.ejb3.nointerface.impl.view.factory.CachedClassNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.impl.view.factory.ProxyBytecodeCache;
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the proxy classes generated for a bean class, loaded anew by each (simulated) deployment,
+ * are defined from the bytecode stored in the {@link ProxyBytecodeCache} by the first deployment
+ *
+ * @version $Revision: $
+ */
+public class ProxyBytecodeCacheTestCase
+{
+
+   private File cacheDirectory;
+
+   @Before
+   public void before() throws IOException
+   {
+      this.cacheDirectory = File.createTempFile("nointerface-proxies", "");
+      this.cacheDirectory.delete();
+   }
+
+   @After
+   public void after()
+   {
+      File[] entries = this.cacheDirectory.listFiles();
+      if (entries != null)
+      {
+         for (File entry : entries)
+         {
+            entry.delete();
+         }
+      }
+      this.cacheDirectory.delete();
+   }
+
+   @Test
+   public void testDirectDispatchEngineReusesCachedBytecode() throws Exception
+   {
+      this.assertCachedBytecodeIsReused(new DirectDispatchNoInterfaceViewFactory());
+   }
+
+   @Test
+   public void testDefaultEngineReusesCachedBytecode() throws Exception
+   {
+      this.assertCachedBytecodeIsReused(new CachedClassNoInterfaceViewFactory());
+   }
+
+   /**
+    * Tests that a cache entry which can't be defined is replaced by a newly generated one
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testCorruptEntryIsRegenerated() throws Exception
+   {
+      NoInterfaceViewFactory factory = new DirectDispatchNoInterfaceViewFactory();
+      this.generate(factory);
+      File entry = this.singleEntry();
+      byte[] bytecode = readFile(entry);
+      writeFile(entry, new byte[]
+      {1, 2, 3});
+
+      this.generate(factory);
+      assertArrayEquals("corrupt entry wasn't replaced", bytecode, readFile(this.singleEntry()));
+   }
+
+   private void assertCachedBytecodeIsReused(NoInterfaceViewFactory factory) throws Exception
+   {
+      Object firstView = this.generate(factory);
+      File entry = this.singleEntry();
+      // not rewritten if the bytecode is reused
+      entry.setLastModified(1000);
+
+      Object secondView = this.generate(factory);
+      assertNotSame(firstView.getClass(), secondView.getClass());
+      assertEquals(entry, this.singleEntry());
+      assertEquals("proxy class was generated again", 1000, entry.lastModified());
+   }
+
+   /**
+    * Deploys {@link Calculator} anew (in its own classloader), with the proxy class generated ahead of time,
+    * and checks that a view of the generated class works
+    *
+    * @return The view
+    */
+   private Object generate(NoInterfaceViewFactory factory) throws Exception
+   {
+      Class<?> beanClass = new DeploymentClassLoader(Calculator.class.getName()).loadClass(Calculator.class
+            .getName());
+      ProxyBytecodeCache bytecodeCache = new ProxyBytecodeCache(this.cacheDirectory);
+      bytecodeCache.register(beanClass);
+      NoInterfaceViewClass viewClass = NoInterfaceViewClasses.forBeanClass(factory, beanClass);
+      viewClass.generate();
+
+      final Object bean = beanClass.newInstance();
+      Object view = viewClass.newProxy(new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            return method.invoke(bean, args);
+         }
+      });
+      assertEquals(5, beanClass.getMethod("add", int.class, int.class).invoke(view, 2, 3));
+      return view;
+   }
+
+   private File singleEntry()
+   {
+      File[] entries = this.cacheDirectory.listFiles();
+      assertEquals("cache entries", 1, entries == null ? 0 : entries.length);
+      return entries[0];
+   }
+
+   private static byte[] readFile(File file) throws IOException
+   {
+      InputStream in = new FileInputStream(file);
+      try
+      {
+         return readFully(in);
+      }
+      finally
+      {
+         in.close();
+      }
+   }
+
+   private static void writeFile(File file, byte[] bytes) throws IOException
+   {
+      OutputStream out = new FileOutputStream(file);
+      try
+      {
+         out.write(bytes);
+      }
+      finally
+      {
+         out.close();
+      }
+   }
+
+   private static byte[] readFully(InputStream in) throws IOException
+   {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+      {
+         bytes.write(buffer, 0, read);
+      }
+      return bytes.toByteArray();
+   }
+
+   /**
+    * Loads a class (and only that class) itself, as the classloader of a new deployment would
+    */
+   private static class DeploymentClassLoader extends ClassLoader
+   {
+      private final String className;
+
+      DeploymentClassLoader(String className)
+      {
+         super(ProxyBytecodeCacheTestCase.class.getClassLoader());
+         this.className = className;
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (!this.className.equals(name))
+         {
+            return super.loadClass(name, resolve);
+         }
+         Class<?> loaded = this.findLoadedClass(name);
+         if (loaded == null)
+         {
+            byte[] bytes;
+            try
+            {
+               InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+               if (in == null)
+               {
+                  throw new ClassNotFoundException(name);
+               }
+               try
+               {
+                  bytes = readFully(in);
+               }
+               finally
+               {
+                  in.close();
+               }
+            }
+            catch (IOException ioe)
+            {
+               throw new ClassNotFoundException(name, ioe);
+            }
+            loaded = this.defineClass(name, bytes, 0, bytes.length);
+         }
+         if (resolve)
+         {
+            this.resolveClass(loaded);
+         }
+         return loaded;
+      }
+   }
+}
@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.factory.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.ejb3.nointerface.impl.test.factory.SimpleSLSBWithoutInterface;
+import org.jboss.ejb3.nointerface.impl.view.factory.CachedClassNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewProxyClass;
+import org.jboss.ejb3.nointerface.spi.view.factory.NoInterfaceViewFactory;
+import org.junit.Test;
+
+/**
+ * Tests the resolution of the proxy engines through {@link NoInterfaceViewClasses}
+ *
+ * @version $Revision: $
+ */
+public class NoInterfaceViewClassesTestCase
+{
+
+   private final InvocationHandler handler = new InvocationHandler()
+   {
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         return null;
+      }
+   };
+
+   @Test
+   public void testDefaultEngine() throws Exception
+   {
+      assertTrue(NoInterfaceViewClasses.getDefaultFactory() instanceof CachedClassNoInterfaceViewFactory);
+      NoInterfaceViewClass viewClass = NoInterfaceViewClasses.forBeanClass(null, SimpleSLSBWithoutInterface.class);
+      assertSame(SimpleSLSBWithoutInterface.class, viewClass.getBeanClass());
+      assertTrue(viewClass.newProxy(this.handler) instanceof SimpleSLSBWithoutInterface);
+   }
+
+   /**
+    * Tests that the proxy class of the default engine is generated once, and then reused
+    * by the following lookups
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testDefaultEngineCachesProxyClass() throws Exception
+   {
+      NoInterfaceViewProxyClass viewClass = NoInterfaceViewProxyClass.forBeanClass(SimpleSLSBWithoutInterface.class);
+      Object view = viewClass.newProxy(this.handler);
+      Class<?> proxyClass = viewClass.getProxyClass();
+      assertNotNull("proxy class of " + view.getClass() + " wasn't cached", proxyClass);
+      assertSame(proxyClass, view.getClass());
+
+      NoInterfaceViewClass sameViewClass = NoInterfaceViewClasses.forBeanClass(null, SimpleSLSBWithoutInterface.class);
+      assertSame(viewClass, sameViewClass);
+      assertSame("second lookup generated a new proxy class", proxyClass, sameViewClass.newProxy(this.handler)
+            .getClass());
+      assertSame(proxyClass, viewClass.getProxyClass());
+   }
+
+   /**
+    * Tests that the handler of a view of the default engine is set before the constructor of the
+    * bean class runs, so that the methods it calls are routed to the handler too
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testDefaultEngineSetsHandlerBeforeBeanConstructor() throws Exception
+   {
+      final List<String> calls = new ArrayList<String>();
+      InvocationHandler recordingHandler = new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            calls.add(method.getName());
+            return null;
+         }
+      };
+      Object view = NoInterfaceViewClasses.forBeanClass(null, SelfCallingBean.class).newProxy(recordingHandler);
+      assertEquals(Arrays.asList("init"), calls);
+      assertSame(recordingHandler, NoInterfaceViewClasses.getInvocationHandler(view));
+   }
+
+   @Test
+   public void testProviderEngine() throws Exception
+   {
+      NoInterfaceViewClass viewClass = NoInterfaceViewClasses.forBeanClass(new DirectDispatchNoInterfaceViewFactory(),
+            SimpleSLSBWithoutInterface.class);
+      Object view = viewClass.newProxy(this.handler);
+      assertTrue(view instanceof SimpleSLSBWithoutInterface);
+      assertSame(view.getClass(), viewClass.newProxy(this.handler).getClass());
+   }
+
+   /**
+    * Tests that generating the proxy class ahead of time doesn't create a view, which would run the
+    * constructor of the bean class at deployment
+    *
+    * @throws Exception
+    */
+   @Test
+   public void testGenerateCreatesNoView() throws Exception
+   {
+      CountingBean.instances = 0;
+      NoInterfaceViewClasses.forBeanClass(null, CountingBean.class).generate();
+      NoInterfaceViewClasses.forBeanClass(new DirectDispatchNoInterfaceViewFactory(), CountingBean.class).generate();
+      assertEquals("bean class instantiated by the proxy class generation", 0, CountingBean.instances);
+   }
+
+   @Test
+   public void testPlainEngine() throws Exception
+   {
+      final SimpleSLSBWithoutInterface bean = new SimpleSLSBWithoutInterface();
+      final int[] calls = new int[1];
+      NoInterfaceViewFactory factory = new NoInterfaceViewFactory()
+      {
+         public <T> T createView(InvocationHandler invocationHandler, Class<T> beanClass) throws Exception
+         {
+            calls[0]++;
+            return beanClass.cast(bean);
+         }
+      };
+      NoInterfaceViewClass viewClass = NoInterfaceViewClasses.forBeanClass(factory, SimpleSLSBWithoutInterface.class);
+      viewClass.generate();
+      assertEquals("nothing created ahead of time by a plain engine", 0, calls[0]);
+      assertSame(bean, viewClass.newProxy(this.handler));
+      assertEquals(1, calls[0]);
+   }
+
+   /**
+    * Bean class whose constructor calls one of its business methods
+    */
+   public static class SelfCallingBean
+   {
+      public SelfCallingBean()
+      {
+         this.init();
+      }
+
+      public void init()
+      {
+      }
+   }
+
+   /**
+    * Bean class counting its instances
+    */
+   public static class CountingBean
+   {
+      static int instances;
+
+      public CountingBean()
+      {
+         instances++;
+      }
+
+      public String echo(String msg)
+      {
+         return msg;
+      }
+   }
+}
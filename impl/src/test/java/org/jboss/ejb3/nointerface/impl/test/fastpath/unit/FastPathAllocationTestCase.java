@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.fastpath.unit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+
+import org.jboss.beans.metadata.spi.builder.BeanMetaDataBuilder;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.fastpath.Ticker;
+import org.jboss.kernel.plugins.dependency.AbstractKernelControllerContext;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Test;
+
+/**
+ * Tests that a plain synchronous call through a no-interface view doesn't allocate
+ * (no invocation context, no interceptor frames).
+ * <p>
+ * A real {@link AbstractKernelControllerContext} is used instead of a mock, since
+ * the mock itself would allocate on each call.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public class FastPathAllocationTestCase
+{
+
+   private static final int WARMUP_CALLS = 20000;
+
+   private static final int MEASURED_CALLS = 100000;
+
+   /**
+    * Allows for the (one-off) allocations of the measurement itself
+    */
+   private static final long ALLOCATION_TOLERANCE_IN_BYTES = 1024;
+
+   @Test
+   public void testPlainCallDoesNotAllocate() throws Throwable
+   {
+      assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+      com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+      assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+      threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+      MockEndpoint endpoint = new MockEndpoint();
+      KernelControllerContext endpointContext = new AbstractKernelControllerContext(null, BeanMetaDataBuilder
+            .createBuilder("TickerBean", MockEndpoint.class.getName()).getBeanMetaData(), endpoint);
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(endpointContext, null,
+            Ticker.class, new AsyncMethodsMetaData());
+      Ticker ticker = (Ticker) Proxy.newProxyInstance(Ticker.class.getClassLoader(), new Class<?>[]
+      {Ticker.class}, handler);
+
+      for (int i = 0; i < WARMUP_CALLS; i++)
+      {
+         ticker.tick();
+      }
+
+      long threadId = Thread.currentThread().getId();
+      long before = threadMXBean.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < MEASURED_CALLS; i++)
+      {
+         ticker.tick();
+      }
+      long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+      assertTrue(allocated + " bytes allocated for " + MEASURED_CALLS + " calls through the no-interface view",
+            allocated < ALLOCATION_TOLERANCE_IN_BYTES);
+   }
+}
@@ -0,0 +1,126 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.metrics.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+import org.jboss.ejb3.nointerface.impl.metrics.NoInterfaceViewMetrics;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.objectmethods.OverridingObjectMethodsBean;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the recording of invocation metrics by the no-interface view
+ *
+ * @version $Revision: $
+ */
+public class InvocationMetricsTestCase
+{
+
+   private MethodDispatchTable dispatchTable;
+
+   private InvocationMetrics metrics;
+
+   @Before
+   public void before()
+   {
+      this.dispatchTable = new MethodDispatchTable(OverridingObjectMethodsBean.class, new AsyncMethodsMetaData());
+      this.metrics = new InvocationMetrics(this.dispatchTable, 4);
+   }
+
+   @Test
+   public void testInvocationsAreRecorded() throws Throwable
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(endpointContext, null,
+            OverridingObjectMethodsBean.class, this.dispatchTable);
+      handler.setInvocationMetrics(this.metrics);
+
+      Method greet = OverridingObjectMethodsBean.class.getMethod("greet", String.class);
+      for (int i = 0; i < 10; i++)
+      {
+         handler.invoke(null, greet, new Object[]
+         {"metrics"});
+      }
+      // object methods aren't business methods, and thus not recorded
+      handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("toString"), null);
+
+      NoInterfaceViewMetrics mbean = new NoInterfaceViewMetrics("test", this.metrics);
+      assertEquals(10, mbean.getCallCount("greet(String)"));
+      assertEquals(0, mbean.getErrorCount("greet(String)"));
+      assertEquals(0, mbean.getAsyncCount("greet(String)"));
+      assertEquals(10, mbean.getTotalCallCount());
+      assertEquals(1, mbean.listMethodStatistics().length);
+   }
+
+   @Test
+   public void testLatencyPercentiles()
+   {
+      int index = this.dispatchTable.lookup(greetMethod()).getIndex();
+      for (int i = 1; i <= 100; i++)
+      {
+         this.metrics.record(this.dispatchTable.get(index), TimeUnit.MICROSECONDS.toNanos(i), i % 10 == 0);
+      }
+      assertEquals(100, this.metrics.getCallCount(index));
+      assertEquals(10, this.metrics.getErrorCount(index));
+
+      // percentiles are reported with a precision of a quarter of their value
+      assertWithin(50000, this.metrics.getLatencyPercentileNanos(index, 50));
+      assertWithin(99000, this.metrics.getLatencyPercentileNanos(index, 99));
+      assertWithin(100000, this.metrics.getLatencyPercentileNanos(index, 100));
+
+      this.metrics.reset();
+      assertEquals(0, this.metrics.getCallCount(index));
+      assertEquals(0, this.metrics.getLatencyPercentileNanos(index, 50));
+   }
+
+   private static void assertWithin(long expected, long actual)
+   {
+      assertTrue("Expected ~" + expected + " but was " + actual, actual >= expected * 3 / 4
+            && actual <= expected * 5 / 4);
+   }
+
+   private static Method greetMethod()
+   {
+      try
+      {
+         return OverridingObjectMethodsBean.class.getMethod("greet", String.class);
+      }
+      catch (NoSuchMethodException e)
+      {
+         throw new RuntimeException(e);
+      }
+   }
+}
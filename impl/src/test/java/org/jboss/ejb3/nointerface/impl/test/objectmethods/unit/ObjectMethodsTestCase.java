@@ -0,0 +1,191 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.objectmethods.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.ObjectMethodKind;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.objectmethods.OverridingObjectMethodsBean;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that the equals, hashCode and toString methods of a bean class which overrides
+ * them are handled by the no-interface view and not passed on to the bean.
+ *
+ * @version $Revision: $
+ */
+public class ObjectMethodsTestCase
+{
+   private static MethodDispatchTable dispatchTable;
+
+   private static NoInterfaceViewInvocationHandler handler;
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      dispatchTable = new MethodDispatchTable(OverridingObjectMethodsBean.class, new AsyncMethodsMetaData());
+      handler = new NoInterfaceViewInvocationHandler(endpointContext, null, OverridingObjectMethodsBean.class,
+            dispatchTable);
+   }
+
+   @Test
+   public void testClassification() throws Exception
+   {
+      assertEquals(ObjectMethodKind.EQUALS, dispatchTable.lookup(
+            OverridingObjectMethodsBean.class.getMethod("equals", Object.class)).getObjectMethodKind());
+      assertEquals(ObjectMethodKind.HASH_CODE, dispatchTable.lookup(
+            OverridingObjectMethodsBean.class.getMethod("hashCode")).getObjectMethodKind());
+      assertEquals(ObjectMethodKind.TO_STRING, dispatchTable.lookup(
+            OverridingObjectMethodsBean.class.getMethod("toString")).getObjectMethodKind());
+      assertEquals(ObjectMethodKind.HASH_CODE, dispatchTable.lookup(Object.class.getMethod("hashCode"))
+            .getObjectMethodKind());
+      assertNull(dispatchTable.lookup(OverridingObjectMethodsBean.class.getMethod("greet", String.class))
+            .getObjectMethodKind());
+   }
+
+   @Test
+   public void testOverriddenEquals() throws Throwable
+   {
+      Object result = handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("equals", Object.class),
+            new Object[]
+            {handler});
+      assertTrue("equals() was not handled by the view", (Boolean) result);
+      assertFalse(dispatchTable.lookup(OverridingObjectMethodsBean.class.getMethod("equals", Object.class))
+            .isDirect());
+   }
+
+   @Test
+   public void testOverriddenHashCode() throws Throwable
+   {
+      Object result = handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("hashCode"), null);
+      assertEquals("hashCode() was not handled by the view", handler.hashCode(), result);
+   }
+
+   @Test
+   public void testOverriddenToString() throws Throwable
+   {
+      Object result = handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("toString"), null);
+      assertEquals("toString() was not handled by the view", handler.toString(), result);
+   }
+
+   /**
+    * Views of the same session of the same endpoint are equal, without their endpoint
+    * being looked up, and whether or not the other is passed as its view or its handler
+    */
+   @Test
+   public void testEqualsOnSharedEndpointContext() throws Throwable
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      NoInterfaceViewInvocationHandler one = new NoInterfaceViewInvocationHandler(endpointContext, "session",
+            OverridingObjectMethodsBean.class, dispatchTable);
+      NoInterfaceViewInvocationHandler other = new NoInterfaceViewInvocationHandler(endpointContext, "session",
+            OverridingObjectMethodsBean.class, dispatchTable);
+      NoInterfaceViewInvocationHandler another = new NoInterfaceViewInvocationHandler(endpointContext,
+            "another session", OverridingObjectMethodsBean.class, dispatchTable);
+      // the endpoint is no longer there, so any lookup of it would fail
+      when(endpointContext.getTarget()).thenReturn(null);
+
+      Object otherView = Proxy.newProxyInstance(Serializable.class.getClassLoader(), new Class<?>[]
+      {Serializable.class}, other);
+      assertTrue(one.equals(other));
+      assertTrue(one.equals(otherView));
+      assertEquals(one.hashCode(), other.hashCode());
+      assertFalse(one.equals(another));
+   }
+
+   /**
+    * Views without a session (stateless beans) of the same endpoint are equal
+    */
+   @Test
+   public void testEqualsWithoutSession() throws Throwable
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      NoInterfaceViewInvocationHandler other = new NoInterfaceViewInvocationHandler(endpointContext, null,
+            OverridingObjectMethodsBean.class, dispatchTable);
+      NoInterfaceViewInvocationHandler stateful = new NoInterfaceViewInvocationHandler(endpointContext, "session",
+            OverridingObjectMethodsBean.class, dispatchTable);
+
+      assertTrue(new NoInterfaceViewInvocationHandler(endpointContext, null, OverridingObjectMethodsBean.class,
+            dispatchTable).equals(other));
+      assertFalse(other.equals(stateful));
+      assertFalse(stateful.equals(other));
+   }
+
+   /**
+    * Views of the same session, created by the default proxy engine (or the direct dispatch one),
+    * are equal, and so are a view and the handler of the other view
+    */
+   @Test
+   public void testEqualsOnViewsOfProxyEngines() throws Throwable
+   {
+      NoInterfaceViewClass defaultViewClass = NoInterfaceViewClasses.forBeanClass(null,
+            OverridingObjectMethodsBean.class);
+      NoInterfaceViewClass directViewClass = NoInterfaceViewClasses.forBeanClass(
+            new DirectDispatchNoInterfaceViewFactory(), OverridingObjectMethodsBean.class);
+      this.assertViewsOfSameSessionEqual(defaultViewClass);
+      this.assertViewsOfSameSessionEqual(directViewClass);
+   }
+
+   private void assertViewsOfSameSessionEqual(NoInterfaceViewClass viewClass) throws Exception
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      NoInterfaceViewInvocationHandler one = new NoInterfaceViewInvocationHandler(endpointContext, "session",
+            OverridingObjectMethodsBean.class, dispatchTable);
+      NoInterfaceViewInvocationHandler other = new NoInterfaceViewInvocationHandler(endpointContext, "session",
+            OverridingObjectMethodsBean.class, dispatchTable);
+      NoInterfaceViewInvocationHandler another = new NoInterfaceViewInvocationHandler(endpointContext,
+            "another session", OverridingObjectMethodsBean.class, dispatchTable);
+
+      Object oneView = viewClass.newProxy(one);
+      Object otherView = viewClass.newProxy(other);
+      assertSame(one, NoInterfaceViewClasses.getInvocationHandler(oneView));
+      assertSame(other, NoInterfaceViewClasses.getInvocationHandler(otherView));
+      assertTrue(oneView.equals(otherView));
+      assertTrue(oneView.equals(oneView));
+      assertTrue(one.equals(otherView));
+      assertFalse(oneView.equals(viewClass.newProxy(another)));
+      assertNull(NoInterfaceViewClasses.getInvocationHandler(new OverridingObjectMethodsBean()));
+   }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.prepared.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.PreparedInvocationTable;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.prepared.Greeter;
+import org.jboss.ejb3.nointerface.spi.endpoint.PreparedEndpoint;
+import org.jboss.ejb3.nointerface.spi.endpoint.PreparedInvocation;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the calls on a no-interface view are passed on to the invocations prepared by
+ * a {@link PreparedEndpoint}, and to <code>Endpoint.invoke</code> otherwise
+ *
+ * @version $Revision: $
+ */
+public class PreparedEndpointTestCase
+{
+
+   private final List<String> calls = new ArrayList<String>();
+
+   private final MethodDispatchTable dispatchTable = new MethodDispatchTable(Greeter.class,
+         new AsyncMethodsMetaData());
+
+   private Method greet;
+
+   private Method farewell;
+
+   @Before
+   public void before() throws Exception
+   {
+      this.greet = Greeter.class.getMethod("greet", String.class);
+      this.farewell = Greeter.class.getMethod("farewell", String.class);
+   }
+
+   @Test
+   public void testPreparedInvocation() throws Throwable
+   {
+      PreparingEndpoint endpoint = new PreparingEndpoint();
+      NoInterfaceViewInvocationHandler handler = this.createHandler(endpoint);
+      handler.setPreparedInvocations(PreparedInvocationTable.prepare(endpoint, Greeter.class, this.dispatchTable));
+
+      assertEquals("Hello world", handler.invoke(null, this.greet, new Object[]
+      {"world"}));
+      assertEquals("Bye world", handler.invoke(null, this.farewell, new Object[]
+      {"world"}));
+      // greet is prepared, farewell isn't
+      assertEquals("[prepared greet, invoke farewell]", this.calls.toString());
+   }
+
+   @Test
+   public void testEndpointWhichDoesNotPrepare()
+   {
+      assertNull(PreparedInvocationTable.prepare(new RecordingEndpoint(), Greeter.class, this.dispatchTable));
+   }
+
+   @Test
+   public void testOtherEndpoint() throws Throwable
+   {
+      PreparedInvocationTable preparedInvocations = PreparedInvocationTable.prepare(new PreparingEndpoint(),
+            Greeter.class, this.dispatchTable);
+      // the endpoint context now has another endpoint than the one which prepared the invocations
+      NoInterfaceViewInvocationHandler handler = this.createHandler(new PreparingEndpoint());
+      handler.setPreparedInvocations(preparedInvocations);
+
+      assertEquals("Hello world", handler.invoke(null, this.greet, new Object[]
+      {"world"}));
+      assertEquals("[invoke greet]", this.calls.toString());
+   }
+
+   private NoInterfaceViewInvocationHandler createHandler(MockEndpoint endpoint)
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(endpoint);
+      return new NoInterfaceViewInvocationHandler(endpointContext, null, Greeter.class, this.dispatchTable);
+   }
+
+   private class RecordingEndpoint extends MockEndpoint
+   {
+      @Override
+      public Object invoke(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         calls.add("invoke " + method.getName());
+         return method.invoke(new Greeter(), args);
+      }
+   }
+
+   private class PreparingEndpoint extends RecordingEndpoint implements PreparedEndpoint
+   {
+      public PreparedInvocation prepare(Class<?> businessInterface, final Method method) throws Exception
+      {
+         if (!method.getName().equals("greet"))
+         {
+            return null;
+         }
+         final Greeter bean = new Greeter();
+         return new PreparedInvocation()
+         {
+            public Object invoke(Serializable session, Object[] args) throws Throwable
+            {
+               calls.add("prepared greet");
+               return bean.greet((String) args[0]);
+            }
+         };
+      }
+   }
+}
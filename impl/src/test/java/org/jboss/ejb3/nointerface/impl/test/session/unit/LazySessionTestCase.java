@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.session.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SessionInitializer;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.objectmethods.OverridingObjectMethodsBean;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a no-interface view with a lazily created session creates its session
+ * exactly once, on the first business method invocation
+ *
+ * @version $Revision: $
+ */
+public class LazySessionTestCase
+{
+
+   private final AtomicInteger sessionsCreated = new AtomicInteger();
+
+   private NoInterfaceViewInvocationHandler handler;
+
+   @Before
+   public void before()
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      MethodDispatchTable dispatchTable = new MethodDispatchTable(OverridingObjectMethodsBean.class,
+            new AsyncMethodsMetaData());
+      this.handler = NoInterfaceViewInvocationHandler.createWithLazySession(endpointContext, new SessionInitializer()
+      {
+         public Serializable createSession() throws Exception
+         {
+            return sessionsCreated.incrementAndGet();
+         }
+      }, OverridingObjectMethodsBean.class, dispatchTable);
+   }
+
+   @Test
+   public void testNoSessionWithoutInvocation() throws Throwable
+   {
+      int hashCode = handler.hashCode();
+      handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("toString"), null);
+      handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("equals", Object.class), new Object[]
+      {handler});
+      assertEquals("Object methods created a session", 0, sessionsCreated.get());
+
+      handler.invoke(null, OverridingObjectMethodsBean.class.getMethod("greet", String.class), new Object[]
+      {"lazy"});
+      assertEquals(1, sessionsCreated.get());
+      assertEquals(1, handler.getSession());
+      assertEquals("hashCode changed when the session was created", hashCode, handler.hashCode());
+   }
+
+   @Test
+   public void testSessionCreatedOnce() throws Throwable
+   {
+      final int threads = 8;
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++)
+      {
+         new Thread(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+                  handler.getSession();
+               }
+               catch (InterruptedException ie)
+               {
+                  Thread.currentThread().interrupt();
+               }
+               finally
+               {
+                  done.countDown();
+               }
+            }
+         }).start();
+      }
+      start.countDown();
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(1, sessionsCreated.get());
+   }
+
+   @Test
+   public void testNotEqualToOtherView() throws Throwable
+   {
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      NoInterfaceViewInvocationHandler eager = new NoInterfaceViewInvocationHandler(endpointContext, 1,
+            OverridingObjectMethodsBean.class, new MethodDispatchTable(OverridingObjectMethodsBean.class,
+                  new AsyncMethodsMetaData()));
+      assertTrue(handler.equals(handler));
+      assertFalse(handler.equals(eager));
+      assertFalse(eager.equals(handler));
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.session.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ejb.NoSuchEJBException;
+
+import org.jboss.ejb3.endpoint.SessionFactory;
+import org.jboss.ejb3.nointerface.impl.session.SessionReclaimer;
+import org.junit.Test;
+
+/**
+ * Tests that the {@link SessionReclaimer} destroys the sessions of views which have
+ * become unreachable, and only those
+ *
+ * @version $Revision: $
+ */
+public class SessionReclaimerTestCase
+{
+
+   private static final long TIMEOUT_MILLIS = 5000;
+
+   private static class RecordingSessionFactory implements SessionFactory
+   {
+      private final Set<Serializable> destroyed = Collections.synchronizedSet(new HashSet<Serializable>());
+
+      private final Set<Serializable> removed = Collections.synchronizedSet(new HashSet<Serializable>());
+
+      @Override
+      public Serializable createSession(Class<?>[] initTypes, Object[] initValues)
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void destroySession(Serializable session)
+      {
+         if (removed.contains(session))
+         {
+            throw new NoSuchEJBException("Session " + session + " has already been removed");
+         }
+         destroyed.add(session);
+      }
+   }
+
+   /**
+    * Collects garbage till <code>reclaimer</code> has seen <code>expectedCount</code> views go
+    */
+   private static void awaitCollected(SessionReclaimer reclaimer, int expectedCount) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (reclaimer.getReclaimedCount() + reclaimer.getExpiredCount() < expectedCount
+            && System.currentTimeMillis() < deadline)
+      {
+         System.gc();
+         Thread.sleep(10);
+      }
+   }
+
+   @Test
+   public void testSessionOfUnreachableViewIsDestroyed() throws Exception
+   {
+      RecordingSessionFactory sessionFactory = new RecordingSessionFactory();
+      SessionReclaimer reclaimer = new SessionReclaimer("test", getClass().getClassLoader());
+      Object reachableView = new Object();
+      reclaimer.register(reachableView, "reachable", sessionFactory);
+      reclaimer.register(new Object(), "unreachable", sessionFactory);
+
+      awaitCollected(reclaimer, 1);
+      assertEquals("Session of unreachable view not reclaimed", 1, reclaimer.getReclaimedCount());
+      assertTrue(sessionFactory.destroyed.contains("unreachable"));
+      assertEquals("Session of reachable view destroyed", 1, sessionFactory.destroyed.size());
+      assertEquals(1, reclaimer.getTrackedCount());
+      assertNotNull("Keeps the view reachable till here", reachableView);
+   }
+
+   @Test
+   public void testAlreadyRemovedSessionIsCountedAsExpired() throws Exception
+   {
+      RecordingSessionFactory sessionFactory = new RecordingSessionFactory();
+      sessionFactory.removed.add("timedout");
+      SessionReclaimer reclaimer = new SessionReclaimer("test", getClass().getClassLoader());
+      reclaimer.register(new Object(), "timedout", sessionFactory);
+
+      awaitCollected(reclaimer, 1);
+      assertEquals("Already removed session not counted as expired", 1, reclaimer.getExpiredCount());
+      assertEquals(0, reclaimer.getReclaimedCount());
+      assertEquals(0, reclaimer.getTrackedCount());
+   }
+
+   @Test
+   public void testClearedSessionsAreLeftToTheContainer() throws Exception
+   {
+      RecordingSessionFactory sessionFactory = new RecordingSessionFactory();
+      SessionReclaimer reclaimer = new SessionReclaimer("test", getClass().getClassLoader());
+      reclaimer.register(new Object(), "cleared", sessionFactory);
+      reclaimer.clear();
+      assertEquals(0, reclaimer.getTrackedCount());
+
+      // a session registered afterwards is still reclaimed, and shows the collected views have been processed
+      reclaimer.register(new Object(), "registered", sessionFactory);
+      awaitCollected(reclaimer, 1);
+      // let a straggler, if any, be processed too
+      Thread.sleep(100);
+      assertEquals(Collections.singleton("registered"), sessionFactory.destroyed);
+   }
+}
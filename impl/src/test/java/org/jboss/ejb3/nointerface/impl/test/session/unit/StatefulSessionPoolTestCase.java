@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.session.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.endpoint.SessionFactory;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPool;
+import org.jboss.ejb3.nointerface.impl.session.StatefulSessionPoolConfig;
+import org.junit.Test;
+
+/**
+ * Tests the {@link StatefulSessionPool}
+ *
+ * @version $Revision: $
+ */
+public class StatefulSessionPoolTestCase
+{
+
+   private static final long TIMEOUT_MILLIS = 5000;
+
+   private static class CountingSessionFactory implements SessionFactory
+   {
+      private final AtomicInteger sessionIds = new AtomicInteger();
+
+      private final Set<Serializable> destroyed = Collections.synchronizedSet(new HashSet<Serializable>());
+
+      @Override
+      public Serializable createSession(Class<?>[] initTypes, Object[] initValues)
+      {
+         return sessionIds.incrementAndGet();
+      }
+
+      @Override
+      public void destroySession(Serializable session)
+      {
+         destroyed.add(session);
+      }
+   }
+
+   private static StatefulSessionPoolConfig createConfig()
+   {
+      StatefulSessionPoolConfig config = new StatefulSessionPoolConfig();
+      config.setTargetSize(4);
+      config.setLowWatermark(2);
+      config.setHighWatermark(8);
+      config.setRefillIntervalMillis(10);
+      return config;
+   }
+
+   private static void awaitSize(StatefulSessionPool pool, int expectedSize) throws InterruptedException
+   {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (pool.size() != expectedSize && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      assertEquals("Unexpected number of pooled sessions", expectedSize, pool.size());
+   }
+
+   @Test
+   public void testPoolIsFilledAndRefilled() throws Exception
+   {
+      CountingSessionFactory sessionFactory = new CountingSessionFactory();
+      StatefulSessionPool pool = new StatefulSessionPool("test", sessionFactory, getClass().getClassLoader(),
+            createConfig());
+      pool.start();
+      try
+      {
+         awaitSize(pool, 4);
+         // dropping below the low watermark triggers a refill up to the target size
+         for (int i = 0; i < 3; i++)
+         {
+            assertNotNull("No pre-created session available", pool.take());
+         }
+         awaitSize(pool, 4);
+      }
+      finally
+      {
+         pool.stop();
+      }
+      assertEquals("Pooled sessions were not destroyed on stop", 0, pool.size());
+      assertEquals("Pooled sessions were not destroyed on stop", sessionFactory.sessionIds.get() - 3,
+            sessionFactory.destroyed.size());
+   }
+
+   @Test
+   public void testExpiredSessionsAreReplaced() throws Exception
+   {
+      CountingSessionFactory sessionFactory = new CountingSessionFactory();
+      StatefulSessionPoolConfig config = createConfig();
+      config.setMaxIdleAgeMillis(50);
+      StatefulSessionPool pool = new StatefulSessionPool("test", sessionFactory, getClass().getClassLoader(), config);
+      pool.start();
+      try
+      {
+         long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+         while (sessionFactory.destroyed.isEmpty() && System.currentTimeMillis() < deadline)
+         {
+            Thread.sleep(10);
+         }
+         assertTrue("Expired sessions were not removed from the pool", !sessionFactory.destroyed.isEmpty());
+      }
+      finally
+      {
+         pool.stop();
+      }
+   }
+}
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.sharedstate.unit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jboss.ejb3.nointerface.impl.invocationhandler.EndpointBinding;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.SharedViewState;
+import org.jboss.ejb3.nointerface.impl.metrics.InvocationMetrics;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.objectmethods.OverridingObjectMethodsBean;
+import org.jboss.ejb3.nointerface.impl.view.factory.StatefulNoInterfaceViewProxyFactory;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests that the stateful no-interface views of a bean share a single {@link SharedViewState},
+ * and hold on to nothing else but their session
+ *
+ * @version $Revision: $
+ */
+public class SharedViewStateTestCase
+{
+
+   private KernelControllerContext endpointContext;
+
+   private StatefulNoInterfaceViewProxyFactory proxyFactory;
+
+   @Before
+   public void before()
+   {
+      this.endpointContext = mock(KernelControllerContext.class);
+      when(this.endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      when(this.endpointContext.getName()).thenReturn("SharedViewStateBean");
+      JBossSessionBean31MetaData metadata = new JBossSessionBean31MetaData();
+      metadata.setEjbName("SharedViewStateBean");
+      metadata.setEjbClass(OverridingObjectMethodsBean.class.getName());
+      this.proxyFactory = new StatefulNoInterfaceViewProxyFactory(OverridingObjectMethodsBean.class,
+            this.endpointContext, metadata);
+      // lazy sessions, so that creating the views doesn't go through the controller
+      this.proxyFactory.setLazySession(true);
+   }
+
+   @Test
+   public void testViewsShareState() throws Exception
+   {
+      SharedViewState state = this.proxyFactory.getViewState();
+      Object first = this.proxyFactory.createNoInterfaceView();
+      Object second = this.proxyFactory.createNoInterfaceView();
+      assertSame("Views of the same bean don't share their state", state, this.proxyFactory.getViewState());
+      assertFalse("Views with their own session are equal", first.equals(second));
+
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(state, 1);
+      NoInterfaceViewInvocationHandler other = new NoInterfaceViewInvocationHandler(state, 1);
+      assertSame(state, handler.getSharedViewState());
+      assertSame(handler.getSharedViewState().getAsyncInterceptor(), other.getSharedViewState()
+            .getAsyncInterceptor());
+      assertTrue("Views sharing state and session are not equal", handler.equals(other));
+   }
+
+   @Test
+   public void testStateReplacedOnChange() throws Exception
+   {
+      SharedViewState state = this.proxyFactory.getViewState();
+      InvocationMetrics metrics = new InvocationMetrics(this.proxyFactory.getDispatchTable());
+      this.proxyFactory.setInvocationMetrics(metrics);
+
+      SharedViewState changed = this.proxyFactory.getViewState();
+      assertNotSame("State not replaced when the metrics changed", state, changed);
+      assertSame(metrics, changed.getInvocationMetrics());
+      assertSame(state.getDispatchTable(), changed.getDispatchTable());
+      assertSame(state.getEndpointBinding(), changed.getEndpointBinding());
+
+      this.proxyFactory.invalidateEndpoint();
+      SharedViewState rebound = this.proxyFactory.getViewState();
+      assertNotSame("State not replaced when the endpoint was invalidated", changed, rebound);
+      assertTrue(changed.getEndpointBinding().isInvalidated());
+      assertFalse(rebound.getEndpointBinding().isInvalidated());
+      assertSame(metrics, rebound.getInvocationMetrics());
+   }
+
+   @Test
+   public void testLegacySettersCopyState()
+   {
+      SharedViewState state = this.proxyFactory.getViewState();
+      NoInterfaceViewInvocationHandler handler = new NoInterfaceViewInvocationHandler(state, 1);
+      handler.setInvocationMetrics(null);
+      assertSame("Unchanged state copied", state, handler.getSharedViewState());
+
+      InvocationMetrics metrics = new InvocationMetrics(state.getDispatchTable());
+      handler.setInvocationMetrics(metrics);
+      assertNotSame(state, handler.getSharedViewState());
+      assertSame(metrics, handler.getSharedViewState().getInvocationMetrics());
+      assertNull("Shared state modified by a view", state.getInvocationMetrics());
+   }
+
+   /**
+    * Once its binding has been invalidated, the state (and its asynchronous interceptor) no longer
+    * keeps the endpoint reachable
+    */
+   @Test
+   public void testEndpointNotHeldAfterInvalidate() throws Exception
+   {
+      final AtomicReference<Object> target = new AtomicReference<Object>(new MockEndpoint());
+      KernelControllerContext context = mock(KernelControllerContext.class);
+      when(context.getTarget()).thenAnswer(new Answer<Object>()
+      {
+         public Object answer(InvocationOnMock invocation)
+         {
+            return target.get();
+         }
+      });
+      SharedViewState state = new SharedViewState(new EndpointBinding(context), OverridingObjectMethodsBean.class,
+            new MethodDispatchTable(OverridingObjectMethodsBean.class, new AsyncMethodsMetaData()));
+      assertNotNull(state.getEndpointBinding().getEndpoint());
+
+      WeakReference<Object> endpoint = new WeakReference<Object>(target.getAndSet(null));
+      state.getEndpointBinding().invalidate();
+      for (int i = 0; i < 50 && endpoint.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+      assertNull("Endpoint of an invalidated binding is still reachable", endpoint.get());
+      assertNotNull(state.getAsyncInterceptor());
+   }
+}
@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.impl.test.undeploy.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentContext;
+import org.jboss.deployers.structure.spi.helpers.AbstractDeploymentUnit;
+import org.jboss.ejb3.deployers.Ejb3MetadataProcessingDeployer;
+import org.jboss.ejb3.nointerface.impl.async.ExecutorAsyncDispatcher;
+import org.jboss.ejb3.nointerface.impl.deployers.EJB3NoInterfaceDeployer;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.MethodDispatchTable;
+import org.jboss.ejb3.nointerface.impl.invocationhandler.NoInterfaceViewInvocationHandler;
+import org.jboss.ejb3.nointerface.impl.jndi.AbstractNoInterfaceViewBinder;
+import org.jboss.ejb3.nointerface.impl.jndi.SessionlessBeanNoInterfaceViewBinder;
+import org.jboss.ejb3.nointerface.impl.test.MockEndpoint;
+import org.jboss.ejb3.nointerface.impl.test.undeploy.Ledger;
+import org.jboss.ejb3.nointerface.impl.view.factory.DirectDispatchNoInterfaceViewFactory;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClass;
+import org.jboss.ejb3.nointerface.impl.view.factory.NoInterfaceViewClasses;
+import org.jboss.kernel.spi.dependency.KernelControllerContext;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeansMetaData;
+import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.jboss.jndipolicy.spi.DeploymentSummary;
+import org.jboss.metadata.ejb.jboss.jndipolicy.spi.PackagingType;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that nothing in the no-interface view implementation keeps the classloader of a
+ * deployment reachable once the deployment has been undeployed
+ *
+ * @version $Revision: $
+ */
+public class UndeployTestCase
+{
+
+   private ExecutorService executor;
+
+   @Before
+   public void before()
+   {
+      this.executor = Executors.newCachedThreadPool();
+   }
+
+   @After
+   public void after()
+   {
+      this.executor.shutdownNow();
+   }
+
+   @Test
+   public void testClassLoaderIsCollectableAfterUndeploy() throws Exception
+   {
+      WeakReference<ClassLoader> classLoader = this.deployAndUndeploy();
+      for (int i = 0; i < 50 && classLoader.get() != null; i++)
+      {
+         System.gc();
+         Thread.sleep(100);
+      }
+      assertNull("Classloader of the undeployed deployment is still reachable", classLoader.get());
+   }
+
+   /**
+    * A unit whose binders are created in parallel, and which fails to deploy, is only cleaned up
+    * once the binders still being created are done, and is left with nothing attached by the deployer
+    */
+   @Test
+   public void testFailedParallelDeployIsCleanedUp() throws Exception
+   {
+      final String missingClassName = "org.jboss.ejb3.nointerface.impl.test.undeploy.Missing";
+      final AtomicBoolean loaded = new AtomicBoolean();
+      // the class of the first bean is found missing while the class of the second is being loaded
+      ClassLoader classLoader = new ClassLoader(Ledger.class.getClassLoader())
+      {
+         @Override
+         protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+         {
+            if (missingClassName.equals(name))
+            {
+               pause(100);
+            }
+            else if (Ledger.class.getName().equals(name))
+            {
+               pause(500);
+               loaded.set(true);
+            }
+            return super.loadClass(name, resolve);
+         }
+      };
+      JBossMetaData metaData = new JBossMetaData();
+      DeploymentSummary summary = new DeploymentSummary();
+      summary.setDeploymentName("failing");
+      summary.setDeploymentScopeBaseName("failing");
+      summary.setPackagingType(PackagingType.JAR);
+      summary.setLoader(classLoader);
+      metaData.setDeploymentSummary(summary);
+      JBossEnterpriseBeansMetaData beans = new JBossEnterpriseBeansMetaData();
+      beans.setEjbJarMetaData(metaData);
+      for (int i = 0; i < 2; i++)
+      {
+         JBossSessionBean31MetaData bean = new JBossSessionBean31MetaData();
+         bean.setEjbName("Ledger" + i);
+         bean.setEjbClass(i == 0 ? missingClassName : Ledger.class.getName());
+         bean.setNoInterfaceBean(true);
+         bean.setContainerName("jboss.j2ee:jar=failing.jar,name=Ledger" + i + ",service=EJB3");
+         bean.setEnterpriseBeansMetaData(beans);
+         beans.add(bean);
+      }
+      metaData.setEnterpriseBeans(beans);
+      AbstractDeploymentContext context = new AbstractDeploymentContext("failing.jar", "");
+      context.setClassLoader(classLoader);
+      DeploymentUnit unit = new AbstractDeploymentUnit(context);
+      unit.addAttachment(Ejb3MetadataProcessingDeployer.OUTPUT, metaData, JBossMetaData.class);
+
+      EJB3NoInterfaceDeployer deployer = new EJB3NoInterfaceDeployer();
+      deployer.setParallelism(4);
+      try
+      {
+         deployer.deploy(unit);
+         fail("Deployed a unit with a missing bean class");
+      }
+      catch (DeploymentException expected)
+      {
+         // expected
+      }
+      finally
+      {
+         deployer.stop();
+      }
+      assertTrue("Deploy failed before the creation of the other binder was done", loaded.get());
+      assertEquals("Attachments left on a unit which failed to deploy", Collections
+            .singleton(Ejb3MetadataProcessingDeployer.OUTPUT), unit.getAttachments().keySet());
+   }
+
+   private static void pause(long millis)
+   {
+      try
+      {
+         Thread.sleep(millis);
+      }
+      catch (InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Creates views of a bean loaded by a classloader of its own, with both proxy engines caching
+    * proxy classes, and undeploys the fake deployment unit holding the binder of the bean
+    */
+   private WeakReference<ClassLoader> deployAndUndeploy() throws Exception
+   {
+      ClassLoader classLoader = new DeploymentClassLoader(Ledger.class.getName());
+      Class<?> beanClass = classLoader.loadClass(Ledger.class.getName());
+      assertNotSame(Ledger.class, beanClass);
+
+      KernelControllerContext endpointContext = mock(KernelControllerContext.class);
+      when(endpointContext.getTarget()).thenReturn(new MockEndpoint());
+      MethodDispatchTable dispatchTable = new MethodDispatchTable(beanClass, new AsyncMethodsMetaData());
+      NoInterfaceViewClass cachedViewClass = NoInterfaceViewClasses.forBeanClass(null, beanClass);
+      NoInterfaceViewClass directViewClass = NoInterfaceViewClasses.forBeanClass(
+            new DirectDispatchNoInterfaceViewFactory(), beanClass);
+      assertNotNull(cachedViewClass.newProxy(new NoInterfaceViewInvocationHandler(endpointContext, null,
+            beanClass, dispatchTable)).toString());
+      assertNotNull(directViewClass.newProxy(new NoInterfaceViewInvocationHandler(endpointContext, null,
+            beanClass, dispatchTable)).toString());
+
+      JBossSessionBean31MetaData beanMetaData = new JBossSessionBean31MetaData();
+      beanMetaData.setEjbName("Ledger");
+      beanMetaData.setEjbClass(beanClass.getName());
+      beanMetaData.setNoInterfaceBean(true);
+      AbstractNoInterfaceViewBinder binder = new SessionlessBeanNoInterfaceViewBinder(null, "Ledger/no-interface",
+            beanClass, beanMetaData);
+      binder.setViewClass(cachedViewClass);
+      ExecutorAsyncDispatcher asyncDispatcher = new ExecutorAsyncDispatcher(this.executor, 0);
+      binder.setAsyncExecutorDispatcher(asyncDispatcher);
+      Map<String, AbstractNoInterfaceViewBinder> binders = new LinkedHashMap<String, AbstractNoInterfaceViewBinder>();
+      binders.put("jboss.j2ee:service=EJB3,name=Ledger,type=nointerface-view-jndi-binder", binder);
+
+      Map<Class<?>, Object> attachments = new HashMap<Class<?>, Object>();
+      attachments.put(Map.class, Collections.synchronizedMap(binders));
+      attachments.put(ExecutorAsyncDispatcher.class, asyncDispatcher);
+      new EJB3NoInterfaceDeployer().undeploy(createDeploymentUnit(classLoader, attachments));
+
+      // undeploy has purged the shared caches already
+      assertEquals(0, NoInterfaceViewClasses.purge(classLoader));
+      assertEquals(0, binders.size());
+      return new WeakReference<ClassLoader>(classLoader);
+   }
+
+   /**
+    * A deployment unit, of the given classloader, whose attachments are keyed by type
+    */
+   private static DeploymentUnit createDeploymentUnit(final ClassLoader classLoader,
+         final Map<Class<?>, Object> attachments)
+   {
+      return (DeploymentUnit) Proxy.newProxyInstance(DeploymentUnit.class.getClassLoader(), new Class<?>[]
+      {DeploymentUnit.class}, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            String name = method.getName();
+            if ("getClassLoader".equals(name))
+            {
+               return classLoader;
+            }
+            if ("getName".equals(name) || "toString".equals(name))
+            {
+               return "undeployed.jar";
+            }
+            if (("getAttachment".equals(name) || "removeAttachment".equals(name)) && args.length == 2)
+            {
+               Class<?> type = (Class<?>) args[1];
+               return type.cast("getAttachment".equals(name) ? attachments.get(type) : attachments.remove(type));
+            }
+            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+         }
+      });
+   }
+
+   /**
+    * Loads one class itself, instead of delegating to its parent, like the classloader of a deployment
+    */
+   private static class DeploymentClassLoader extends ClassLoader
+   {
+      private final String className;
+
+      DeploymentClassLoader(String className)
+      {
+         super(UndeployTestCase.class.getClassLoader());
+         this.className = className;
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (!this.className.equals(name))
+         {
+            return super.loadClass(name, resolve);
+         }
+         Class<?> loaded = this.findLoadedClass(name);
+         if (loaded == null)
+         {
+            byte[] bytes = this.readClassFile(name);
+            loaded = this.defineClass(name, bytes, 0, bytes.length);
+         }
+         if (resolve)
+         {
+            this.resolveClass(loaded);
+         }
+         return loaded;
+      }
+
+      private byte[] readClassFile(String name) throws ClassNotFoundException
+      {
+         InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+         if (in == null)
+         {
+            throw new ClassNotFoundException(name);
+         }
+         try
+         {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+            {
+               bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+         }
+         catch (IOException ioe)
+         {
+            throw new ClassNotFoundException(name, ioe);
+         }
+         finally
+         {
+            try
+            {
+               in.close();
+            }
+            catch (IOException ignore)
+            {
+               // nothing more to read
+            }
+         }
+      }
+   }
+}
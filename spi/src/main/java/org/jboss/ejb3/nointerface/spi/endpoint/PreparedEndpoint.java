@@ -0,0 +1,55 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.spi.endpoint;
+
+import java.lang.reflect.Method;
+
+/**
+ * PreparedEndpoint
+ *
+ * Optional contract of an {@link org.jboss.ejb3.endpoint.Endpoint} which can prepare, once per
+ * business method, the invocation of that method on the bean. The no-interface view prepares the
+ * invocations of all the business methods of the bean when its view is bound, and then passes the
+ * calls on to the {@link PreparedInvocation}s instead of to
+ * <code>Endpoint.invoke(session, businessInterface, method, args)</code>. This spares the container
+ * from looking up the method on every call, and lets it bind the method to the bean in whichever
+ * way is the fastest on the running VM (generated invokers, method handles...).
+ * <p>
+ * Endpoints which don't implement this contract keep receiving every call through
+ * <code>Endpoint.invoke</code>.
+ * </p>
+ *
+ * @version $Revision: $
+ */
+public interface PreparedEndpoint
+{
+   /**
+    * Prepares the invocation of <code>method</code> through the view of <code>businessInterface</code>
+    *
+    * @param businessInterface The business interface (the bean class for a no-interface view)
+    * @param method The business method
+    * @return The prepared invocation, or null if the method can't be prepared, in which case its calls
+    *           are passed on to <code>Endpoint.invoke</code>
+    * @throws Exception If the invocation could not be prepared
+    */
+   PreparedInvocation prepare(Class<?> businessInterface, Method method) throws Exception;
+}
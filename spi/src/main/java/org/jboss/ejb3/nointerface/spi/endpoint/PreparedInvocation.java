@@ -0,0 +1,46 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright (c) 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.nointerface.spi.endpoint;
+
+import java.io.Serializable;
+
+/**
+ * PreparedInvocation
+ *
+ * The invocation of one business method of a bean, prepared by a {@link PreparedEndpoint}.
+ * Instances are shared by all the views of the bean, and are thus invoked concurrently.
+ *
+ * @version $Revision: $
+ */
+public interface PreparedInvocation
+{
+   /**
+    * Invokes the business method, with the semantics of
+    * <code>Endpoint.invoke(session, businessInterface, method, args)</code>
+    *
+    * @param session The session, null for beans which aren't session aware
+    * @param args The arguments to the method, null for a method without parameters
+    * @return The result of the method
+    * @throws Throwable Whatever the method (or the container) throws
+    */
+   Object invoke(Serializable session, Object[] args) throws Throwable;
+}